@@ -0,0 +1,194 @@
+package com.milestone1;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.function.LongSupplier;
+
+/**
+ * Micro and end to end benchmarks of ingest, the memory operators and the memory and disk query paths on data from
+ * DataGenerator, for tracking regressions and how the operators scale.
+ *
+ * Every combination of the row counts, station counts and year counts is measured. One year of data is queried, so
+ * the year selectivity is about 1/yearCount. Each benchmark runs a number of warmup iterations before the measured
+ * ones and reports the mean and best time, throughput is over all rows of the data. Generated files are kept in the working directory and reused by later
+ * runs. The result cache and the monthly aggregate cube are disabled so that queries scan.
+ *
+ * Large row counts need a heap of about 30 bytes per row, e.g. -Xmx4g for 100 million rows.
+ */
+public class Benchmark {
+    private static final PrintStream console = System.out;
+    // results are folded into this so that the JIT cannot drop the benchmarked work
+    private static long sink;
+
+    private final int warmupIterations;
+    private final int measuredIterations;
+
+    public Benchmark(int warmupIterations, int measuredIterations) {
+        this.warmupIterations = warmupIterations;
+        this.measuredIterations = measuredIterations;
+    }
+
+    /**
+     * Usage: Benchmark [rows=1000000,10000000] [stations=2] [years=14] [warmup=2] [iterations=5] [seed=42]
+     * Lists are comma separated.
+     */
+    public static void main(String[] args) {
+        long[] rowCounts = {1_000_000};
+        long[] stationCounts = {2};
+        long[] yearCounts = {14};
+        int warmup = 2;
+        int iterations = 5;
+        long seed = DataGenerator.DEFAULT_SEED;
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                console.println("Ignoring argument " + arg);
+                continue;
+            }
+            switch (parts[0]) {
+                case "rows":
+                    rowCounts = parseList(parts[1]);
+                    break;
+                case "stations":
+                    stationCounts = parseList(parts[1]);
+                    break;
+                case "years":
+                    yearCounts = parseList(parts[1]);
+                    break;
+                case "warmup":
+                    warmup = Integer.parseInt(parts[1]);
+                    break;
+                case "iterations":
+                    iterations = Integer.parseInt(parts[1]);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(parts[1]);
+                    break;
+                default:
+                    console.println("Ignoring argument " + arg);
+            }
+        }
+
+        QueryResultCache.setCapacity(0);
+        QueryManager.setMonthlyCubeEnabled(false);
+        Benchmark benchmark = new Benchmark(warmup, iterations);
+        console.println(String.format("%-22s %12s %8s %6s %10s %10s %10s %12s",
+                "Benchmark", "Rows", "Stations", "Years", "Selected", "Mean ms", "Best ms", "Mrows/s"));
+        try {
+            for (long rowCount : rowCounts) {
+                for (long stationCount : stationCounts) {
+                    for (long yearCount : yearCounts) {
+                        benchmark.run(rowCount, (int) stationCount, (int) yearCount, seed);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            console.println(e.getMessage());
+        } finally {
+            System.setOut(console);
+        }
+        console.println("Checksum " + sink);
+    }
+
+    /**
+     * Benchmarks every operator on generated data of the given shape.
+     */
+    public void run(long rowCount, int stationCount, int yearCount, long seed) throws IOException {
+        int firstYear = 2002;
+        String filePath = "benchmark-" + rowCount + "-" + stationCount + "-" + yearCount + "-" + seed + ".csv";
+        if (!new File(filePath).exists()) {
+            console.println("Generating " + filePath);
+            new DataGenerator(stationCount, firstYear, yearCount, seed).write(filePath, rowCount);
+        }
+        // queries log every call, which would be measured along with them
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        Shape shape = new Shape(rowCount, stationCount, yearCount);
+        ColumnData[] ingested = new ColumnData[1];
+        measure("ingest", shape, rowCount, () -> {
+            ingested[0] = IOManager.readCsv(filePath);
+            return ingested[0].getRowCount();
+        });
+        ColumnarMemory.loadIntoMemory(ingested[0] != null ? ingested[0] : IOManager.readCsv(filePath));
+
+        int year = firstYear + yearCount / 2;
+        String station = DataGenerator.stationName(0);
+        short stationCode = ColumnarMemory.getStationDictionary().lookup(station);
+        PositionSet yearPos = QueryManager.filterYearPos(year, ColumnarMemory.getTimestampCol(), ColumnarMemory.getTimestampZoneMap());
+        PositionSet stationPos = QueryManager.filterStationPos(stationCode, ColumnarMemory.getStationCol(), ColumnarMemory.getRowCount());
+        PositionSet pos = PositionSet.and(yearPos, stationPos);
+
+        measure("filterYearPos", shape, yearPos.cardinality(), () -> QueryManager.filterYearPos(year,
+                ColumnarMemory.getTimestampCol(), ColumnarMemory.getTimestampZoneMap()).cardinality());
+        measure("filterStationPos", shape, stationPos.cardinality(), () -> QueryManager.filterStationPos(stationCode,
+                ColumnarMemory.getStationCol(), ColumnarMemory.getRowCount()).cardinality());
+        // one pass per metric, the baseline of the fused aggregation of the queries
+        measure("aggregate temperature", shape, pos.cardinality(), () -> aggregateMetric(ColumnarMemory.getTemperatureCol(),
+                ColumnarMemory.getTimestampCol(), pos));
+        measure("aggregate humidity", shape, pos.cardinality(), () -> aggregateMetric(ColumnarMemory.getHumidityCol(),
+                ColumnarMemory.getTimestampCol(), pos));
+        measure("query memory", shape, pos.cardinality(),
+                () -> QueryManager.getMinMaxValuesFromYearAndStation(year, station).size());
+        measure("query disk", shape, pos.cardinality(),
+                () -> QueryManager.getMinMaxValuesFromYearAndStationDisk(year, station).size());
+        System.setOut(console);
+    }
+
+    private void measure(String name, Shape shape, long selectedRows, LongSupplier operation) {
+        for (int i=0; i<warmupIterations; i++) {
+            sink += operation.getAsLong();
+        }
+        long totalNanos = 0;
+        long bestNanos = Long.MAX_VALUE;
+        for (int i=0; i<measuredIterations; i++) {
+            long startTime = System.nanoTime();
+            sink += operation.getAsLong();
+            long elapsed = System.nanoTime() - startTime;
+            totalNanos += elapsed;
+            bestNanos = Math.min(bestNanos, elapsed);
+        }
+        double meanMillis = totalNanos / 1e6 / Math.max(1, measuredIterations);
+        console.println(String.format("%-22s %12d %8d %6d %10d %10.3f %10.3f %12.1f", name, shape.rowCount,
+                shape.stationCount, shape.yearCount, selectedRows, meanMillis, bestNanos / 1e6,
+                shape.rowCount / 1e3 / meanMillis));
+    }
+
+    /**
+     * Aggregates a single metric over the positions into a result like the queries do.
+     * @return number of result categories
+     */
+    private static long aggregateMetric(FloatBuffer valueCol, IntBuffer timestampCol, PositionSet pos) {
+        MonthlyMinMaxAccumulator accumulator = new MonthlyMinMaxAccumulator();
+        PositionSet.PositionIterator positions = pos.iterator();
+        while (positions.hasNext()) {
+            int position = positions.next();
+            accumulator.add(timestampCol.get(position), valueCol.get(position));
+        }
+        return accumulator.toResult("Max", "Min").size();
+    }
+
+        private static long[] parseList(String list) {
+        String[] values = list.split(",");
+        long[] parsed = new long[values.length];
+        for (int i=0; i<values.length; i++) {
+            parsed[i] = Long.parseLong(values[i].trim().replace("_", ""));
+        }
+        return parsed;
+    }
+
+    private static class Shape {
+        private final long rowCount;
+        private final int stationCount;
+        private final int yearCount;
+
+        Shape(long rowCount, int stationCount, int yearCount) {
+            this.rowCount = rowCount;
+            this.stationCount = stationCount;
+            this.yearCount = yearCount;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.milestone1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Writes result rows as a compact binary stream of 13 bytes per row.
+ *
+ * The file starts with a magic number and a format version. Each record then starts with a tag byte: STRING defines
+ * the next station or category name, numbered from 0 in order of definition, and ROW holds the epoch day as an int,
+ * the station and category numbers as shorts and the value as a float. Names are defined before the first row that
+ * uses them, so the file can be read as a stream, see read.
+ */
+public class BinaryResultSink implements ResultSink {
+    private static final int MAGIC = 0x4D535242; // "MSRB"
+    private static final int FORMAT_VERSION = 1;
+    private static final byte STRING = 1;
+    private static final byte ROW = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+    private final HashMap<String, Short> stringIds = new HashMap<>();
+
+    public BinaryResultSink(String filePath) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath), BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+    }
+
+    @Override
+    public void write(int epochDay, String station, String category, float value) throws IOException {
+        short stationId = getStringId(station);
+        short categoryId = getStringId(category);
+        out.writeByte(ROW);
+        out.writeInt(epochDay);
+        out.writeShort(stationId);
+        out.writeShort(categoryId);
+        out.writeFloat(value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Reads a binary result file and writes its rows to the target sink, e.g. to convert it to CSV.
+     */
+    public static void read(String filePath, ResultSink target) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(filePath + " is not a binary result file");
+            }
+            int formatVersion = in.readInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException(filePath + " has unsupported version " + formatVersion);
+            }
+            ArrayList<String> strings = new ArrayList<>();
+            while (true) {
+                int tag = in.read();
+                if (tag < 0) {
+                    return;
+                }
+                try {
+                    if (tag == STRING) {
+                        strings.add(in.readUTF());
+                    } else if (tag == ROW) {
+                        int epochDay = in.readInt();
+                        String station = strings.get(in.readShort());
+                        String category = strings.get(in.readShort());
+                        target.write(epochDay, station, category, in.readFloat());
+                    } else {
+                        throw new IOException(filePath + " has unknown record tag " + tag);
+                    }
+                } catch (EOFException e) {
+                    throw new IOException(filePath + " ends in the middle of a record");
+                }
+            }
+        }
+    }
+
+    private short getStringId(String string) throws IOException {
+        Short id = stringIds.get(string);
+        if (id != null) {
+            return id;
+        }
+        if (stringIds.size() > Short.MAX_VALUE) {
+            throw new IOException("Too many distinct stations and categories for a binary result file");
+        }
+        short newId = (short) stringIds.size();
+        stringIds.put(string, newId);
+        out.writeByte(STRING);
+        out.writeUTF(string);
+        return newId;
+    }
+}
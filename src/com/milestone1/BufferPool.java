@@ -0,0 +1,273 @@
+package com.milestone1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * Shared cache of fixed-size pages of the column files on disk, bounded by a memory budget.
+ *
+ * Readers pin a page while they read from it and unpin it afterwards. Unpinned pages stay cached until the CLOCK
+ * hand evicts them to make room for another page, pages that were read since the hand last passed get a second
+ * chance. Pages of a file are dropped with invalidate when the file is written.
+ *
+ * Pages are keyed by file name and the generation of the name. Replacing a file under the same name, see
+ * beginReplace, moves the name to a new generation, so pages still read through a channel of the old file are cached
+ * under the old generation and are never returned to readers of the new file.
+ */
+public class BufferPool {
+    public static final int PAGE_SIZE = 64 * 1024;
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    private static long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private static int frameLimit = (int) (DEFAULT_MEMORY_BUDGET / PAGE_SIZE);
+    private static final ArrayList<Page> frames = new ArrayList<>();
+    private static final HashMap<PageKey, Page> pageTable = new HashMap<>();
+    // odd while the file of the name is being replaced
+    private static final HashMap<String, Long> generations = new HashMap<>();
+    private static int clockHand;
+    private static long hitCount;
+    private static long missCount;
+    private static long evictionCount;
+    private static long bytesRead;
+
+    /**
+     * Page of a file held in a frame of the pool. Its buffer holds the bytes from getFileOffset() up to the page size
+     * or the end of the file, and must only be read while the page is pinned.
+     */
+    public static class Page {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private PageKey key;
+        private long fileOffset;
+        private int pinCount;
+        private boolean referenced;
+
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        public long getFileOffset() {
+            return fileOffset;
+        }
+    }
+
+    /**
+     * Pins the page of the file, reading it from the channel if it is not cached.
+     * @param fileName name identifying the file, used to invalidate its pages
+     * @param generation generation of the name when the channel was opened, see getGeneration
+     * @param channel open channel of the file
+     * @param pageNumber page holding the bytes from pageNumber * PAGE_SIZE
+     */
+    public static synchronized Page pin(String fileName, long generation, FileChannel channel, long pageNumber) throws IOException {
+        PageKey key = new PageKey(fileName, generation, pageNumber);
+        Page page = pageTable.get(key);
+        if (page != null) {
+            hitCount++;
+        } else {
+            missCount++;
+            page = findFreeFrame();
+            read(channel, pageNumber, page.buffer);
+            page.key = key;
+            page.fileOffset = pageNumber * PAGE_SIZE;
+            pageTable.put(key, page);
+        }
+        page.pinCount++;
+        page.referenced = true;
+        return page;
+    }
+
+    public static synchronized void unpin(Page page) {
+        if (page.pinCount == 0) {
+            throw new IllegalStateException("Page is not pinned");
+        }
+        page.pinCount--;
+    }
+
+    /**
+     * Drops every cached page of the file, called after the file is written. Pinned pages keep their contents until
+     * they are unpinned and are not returned by pin again.
+     */
+    public static synchronized void invalidate(String fileName) {
+        for (Page page : frames) {
+            if (page.key != null && page.key.fileName.equals(fileName)) {
+                pageTable.remove(page.key);
+                page.key = null;
+            }
+        }
+    }
+
+    /**
+     * A channel opened while the generation of its name is even and unchanged afterwards belongs to the file of that
+     * generation, see ColumnFile.open.
+     * @return generation of the file name, odd while the file is being replaced
+     */
+    static synchronized long getGeneration(String fileName) {
+        return generations.getOrDefault(fileName, 0L);
+    }
+
+    /**
+     * Called before another file is moved to the name, see endReplace.
+     */
+    static synchronized void beginReplace(String fileName) {
+        generations.merge(fileName, 1L, Long::sum);
+        invalidate(fileName);
+    }
+
+    /**
+     * Called after another file was moved to the name, or the move failed. Channels opened from then on get the new
+     * generation.
+     */
+    static synchronized void endReplace(String fileName) {
+        generations.merge(fileName, 1L, Long::sum);
+        invalidate(fileName);
+    }
+
+    /**
+     * Sets the memory available for cached pages, evicting unpinned pages above it.
+     */
+    public static synchronized void setMemoryBudget(long bytes) {
+        if (bytes < PAGE_SIZE) {
+            throw new IllegalArgumentException("Memory budget must hold at least one page of " + PAGE_SIZE + " bytes");
+        }
+        memoryBudget = bytes;
+        frameLimit = (int) Math.min(Integer.MAX_VALUE, bytes / PAGE_SIZE);
+        for (int i=frames.size() - 1; i>=0 && frames.size() > frameLimit; i--) {
+            Page page = frames.get(i);
+            if (page.pinCount == 0) {
+                if (page.key != null) {
+                    pageTable.remove(page.key);
+                    evictionCount++;
+                }
+                frames.remove(i);
+            }
+        }
+        clockHand = 0;
+    }
+
+    public static synchronized long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public static synchronized int getCachedPageCount() {
+        return pageTable.size();
+    }
+
+    public static synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public static synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public static synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return bytes read from column files, by the pool and by scans that bypass it.
+     */
+    public static synchronized long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Counts bytes of a column file read without going through the pool, see ColumnChunkReader.
+     */
+    static synchronized void recordBytesRead(long bytes) {
+        bytesRead += bytes;
+    }
+
+    public static synchronized void resetStats() {
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+        bytesRead = 0;
+    }
+
+    public static synchronized String getSummary() {
+        long requests = hitCount + missCount;
+        return String.format("Buffer pool: %d/%d pages, %d hits, %d misses (%.1f%% hit rate), %d evictions, %d bytes read",
+                pageTable.size(), frameLimit, hitCount, missCount, requests == 0 ? 0.0 : hitCount * 100.0 / requests,
+                evictionCount, bytesRead);
+    }
+
+    /**
+     * @return frame without a cached page, allocating one while the budget allows and evicting one otherwise.
+     */
+    private static Page findFreeFrame() {
+        for (Page page : frames) {
+            if (page.key == null && page.pinCount == 0) {
+                return page;
+            }
+        }
+        if (frames.size() < frameLimit) {
+            Page page = new Page();
+            frames.add(page);
+            return page;
+        }
+        // two sweeps clear every reference bit, so an unpinned page is found if there is one
+        for (int step=0; step<2 * frames.size(); step++) {
+            Page page = frames.get(clockHand);
+            clockHand = (clockHand + 1) % frames.size();
+            if (page.pinCount > 0) {
+                continue;
+            }
+            if (page.referenced) {
+                page.referenced = false;
+                continue;
+            }
+            pageTable.remove(page.key);
+            page.key = null;
+            evictionCount++;
+            return page;
+        }
+        throw new IllegalStateException("All " + frames.size() + " pages of the buffer pool are pinned");
+    }
+
+    private static void read(FileChannel channel, long pageNumber, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        long offset = pageNumber * PAGE_SIZE;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        bytesRead += buffer.limit();
+    }
+
+    private static class PageKey {
+        private final String fileName;
+        private final long generation;
+        private final long pageNumber;
+
+        PageKey(String fileName, long generation, long pageNumber) {
+            this.fileName = fileName;
+            this.generation = generation;
+            this.pageNumber = pageNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PageKey)) {
+                return false;
+            }
+            PageKey other = (PageKey) o;
+            return pageNumber == other.pageNumber && generation == other.generation && fileName.equals(other.fileName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fileName, generation, pageNumber);
+        }
+    }
+}
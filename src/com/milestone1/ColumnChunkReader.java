@@ -0,0 +1,267 @@
+package com.milestone1;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Sequential scan of row ranges of a column file in chunks, with asynchronous read-ahead so that reading the next
+ * chunks overlaps with decoding and filtering the current one.
+ *
+ * Ranges are added with addRange before the first call to next and are read in order. Up to the read-ahead number of
+ * chunks are in flight on an AsynchronousFileChannel while the caller works on the chunk returned by next, so at most
+ * readAhead + 1 chunk buffers are held however large the column is. Scans bypass the buffer pool, so they neither
+ * evict its pages nor see them, their bytes are still counted in BufferPool.getBytesRead.
+ */
+public class ColumnChunkReader implements AutoCloseable {
+    // multiple of the zone map block size, so chunks of zone map ranges hold whole blocks
+    public static final int CHUNK_ROWS = 16 * ZoneMap.DEFAULT_BLOCK_SIZE;
+    public static final int DEFAULT_READ_AHEAD = 4;
+
+    private static int readAhead = DEFAULT_READ_AHEAD;
+
+    private final String fileName;
+    private final AsynchronousFileChannel channel;
+    private final int width;
+    private final int rowCount;
+    // row ranges to read as [start, end) pairs, adjacent ranges are merged
+    private final IntVector ranges = new IntVector();
+    private int rangeIndex;
+    private int nextRow = -1;
+    private final ArrayDeque<PendingRead> inFlight = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+    private Chunk current;
+
+    /**
+     * Rows [getStartRow(), getEndRow()) of the column, valid until the next call to next.
+     */
+    public static class Chunk {
+        private final int startRow;
+        private final int endRow;
+        private final ByteBuffer buffer;
+
+        private Chunk(int startRow, int endRow, ByteBuffer buffer) {
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.buffer = buffer;
+        }
+
+        public int getStartRow() {
+            return startRow;
+        }
+
+        public int getEndRow() {
+            return endRow;
+        }
+
+        public int getInt(int row) {
+            return buffer.getInt((row - startRow) * Integer.BYTES);
+        }
+
+        public short getShort(int row) {
+            return buffer.getShort((row - startRow) * Short.BYTES);
+        }
+
+        public float getFloat(int row) {
+            return buffer.getFloat((row - startRow) * Float.BYTES);
+        }
+    }
+
+    private static class PendingRead {
+        private final int startRow;
+        private final int endRow;
+        private final ByteBuffer buffer;
+        private final Future<Integer> future;
+
+        PendingRead(int startRow, int endRow, ByteBuffer buffer, Future<Integer> future) {
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.buffer = buffer;
+            this.future = future;
+        }
+    }
+
+    private ColumnChunkReader(String fileName, AsynchronousFileChannel channel, byte type, int rowCount) {
+        this.fileName = fileName;
+        this.channel = channel;
+        this.width = ColumnFile.widthOf(type);
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Opens a column file for chunked reading after validating its header. The header is read from the same channel
+     * as the rows, so both come from the same file even if the column is rewritten meanwhile.
+     * @param fileName name of the column without extension
+     * @param type expected type of the column values
+     */
+    public static ColumnChunkReader open(String fileName, byte type) throws IOException {
+        AsynchronousFileChannel channel = AsynchronousFileChannel.open(Paths.get(fileName + ColumnFile.EXTENSION),
+                StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(ColumnFile.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()).get() >= 0) {
+                // a read may return fewer bytes than asked for
+            }
+            BufferPool.recordBytesRead(header.position());
+            ColumnFile.validateHeader(fileName, header, channel.size());
+            if (header.get(6) != type) {
+                throw new IOException(fileName + ColumnFile.EXTENSION + " has type " + header.get(6) + " instead of " + type);
+            }
+            return new ColumnChunkReader(fileName, channel, type, header.getInt(8));
+        } catch (ExecutionException e) {
+            channel.close();
+            throw new IOException("Could not read " + fileName + ColumnFile.EXTENSION + ": " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            channel.close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + fileName + ColumnFile.EXTENSION);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return reader without any rows, used in place of a column that could not be read.
+     */
+    public static ColumnChunkReader empty(byte type) {
+        return new ColumnChunkReader(null, null, type, 0);
+    }
+
+    /**
+     * Sets the number of chunks read ahead of the one being processed by scans started from then on.
+     */
+    public static void setReadAhead(int chunks) {
+        if (chunks < 1) {
+            throw new IllegalArgumentException("Read-ahead must be at least 1 chunk");
+        }
+        readAhead = chunks;
+    }
+
+    public static int getReadAhead() {
+        return readAhead;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Adds rows [start, end) to the scan. Ranges have to be added in ascending order and before the first call to next.
+     */
+    public void addRange(int start, int end) {
+        if (nextRow >= 0) {
+            throw new IllegalStateException("Ranges have to be added before the scan starts");
+        }
+        end = Math.min(end, rowCount);
+        if (start >= end) {
+            return;
+        }
+        int size = ranges.size();
+        if (size > 0 && ranges.get(size - 1) > start) {
+            throw new IllegalArgumentException("Ranges have to be added in ascending order");
+        }
+        if (size > 0 && ranges.get(size - 1) == start) {
+            ranges.set(size - 1, end);
+            return;
+        }
+        ranges.add(start);
+        ranges.add(end);
+    }
+
+    /**
+     * Waits for the next chunk of the ranges and starts reading the chunks after it.
+     * @return next chunk in row order, or null after the last one
+     * @throws UncheckedIOException if the column file could not be read
+     */
+    public Chunk next() {
+        if (channel == null) {
+            return null;
+        }
+        if (nextRow < 0) {
+            nextRow = ranges.size() > 0 ? ranges.get(0) : 0;
+        }
+        if (current != null) {
+            freeBuffers.add(current.buffer);
+            current = null;
+        }
+        try {
+            issueReads();
+            PendingRead read = inFlight.poll();
+            if (read == null) {
+                return null;
+            }
+            complete(read);
+            // refill the window before the caller starts on this chunk
+            issueReads();
+            current = new Chunk(read.startRow, read.endRow, read.buffer);
+            return current;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Closes the file, reads still in flight are abandoned.
+     */
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    private void issueReads() {
+        while (inFlight.size() < readAhead && rangeIndex < ranges.size()) {
+            int rangeEnd = ranges.get(rangeIndex + 1);
+            int startRow = nextRow;
+            int endRow = Math.min(rangeEnd, startRow + CHUNK_ROWS);
+            ByteBuffer buffer = freeBuffers.isEmpty()
+                    ? ByteBuffer.allocateDirect(CHUNK_ROWS * width).order(ByteOrder.LITTLE_ENDIAN) : freeBuffers.poll();
+            buffer.clear().limit((endRow - startRow) * width);
+            long offset = ColumnFile.HEADER_SIZE + (long) startRow * width;
+            inFlight.add(new PendingRead(startRow, endRow, buffer, channel.read(buffer, offset)));
+            if (endRow == rangeEnd) {
+                rangeIndex += 2;
+                nextRow = rangeIndex < ranges.size() ? ranges.get(rangeIndex) : rowCount;
+            } else {
+                nextRow = endRow;
+            }
+        }
+    }
+
+    private void complete(PendingRead read) throws IOException {
+        long offset = ColumnFile.HEADER_SIZE + (long) read.startRow * width;
+        try {
+            Future<Integer> future = read.future;
+            // a read may return fewer bytes than asked for, the rest is read in further requests
+            while (true) {
+                if (future.get() < 0) {
+                    throw new IOException(fileName + ColumnFile.EXTENSION + " is truncated");
+                }
+                if (!read.buffer.hasRemaining()) {
+                    break;
+                }
+                future = channel.read(read.buffer, offset + read.buffer.position());
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Could not read " + fileName + ColumnFile.EXTENSION + ": " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + fileName + ColumnFile.EXTENSION);
+        }
+        BufferPool.recordBytesRead(read.buffer.limit());
+    }
+}
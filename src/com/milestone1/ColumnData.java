@@ -0,0 +1,250 @@
+package com.milestone1;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Primitive columns produced by ingest.
+ * Timestamps are stored as epoch minutes and stations as dictionary codes.
+ * Zone maps for the timestamp and metric columns, the monthly aggregate and quantile cubes, the station and timestamp
+ * indexes and the column statistics are built alongside the columns.
+ *
+ * Columns are typed buffers so that they can live on the heap (wrapped arrays), off-heap (direct buffers) or in
+ * memory mapped column files, see toOffHeap and IOManager.mapColumnsFromDisk. Values are read with absolute gets,
+ * the position and limit of the buffers are not used.
+ *
+ * Appending rows returns a new ColumnData. The columns keep spare capacity for appends and are shared with the
+ * previous ColumnData while it lasts, so only the first getRowCount() values of each column are rows. Rows below
+ * getRowCount() are never written again, so a ColumnData can be read by any number of threads while rows are appended
+ * to it. Only one ColumnData sharing the columns can append in place, appending to any other copies the columns.
+ *
+ * A direct or mapped buffer holds at most Integer.MAX_VALUE bytes, so the columns hold at most MAX_ROWS rows, the
+ * number of 4 byte values that fit.
+ */
+public class ColumnData {
+    public static final int MAX_ROWS = Integer.MAX_VALUE / Integer.BYTES;
+    private static final int INDEX_REBUILD_FRACTION = 8;
+
+    private final IntBuffer timestampCol;
+    private final ShortBuffer stationCol;
+    private final FloatBuffer temperatureCol;
+    private final FloatBuffer humidityCol;
+    private final StationDictionary stationDictionary;
+    private final ZoneMap timestampZoneMap;
+    private final ZoneMap temperatureZoneMap;
+    private final ZoneMap humidityZoneMap;
+    private final MonthlyAggregateCube monthlyCube;
+    private final MonthlyQuantileCube monthlyQuantiles;
+    private final StationIndex stationIndex;
+    private final TimestampIndex timestampIndex;
+    private final ColumnStatistics statistics;
+    private final int rowCount;
+    // rows written to the shared columns, by this ColumnData or the ones appended to it
+    private final AtomicInteger writtenRowCount;
+
+    public ColumnData(IntBuffer timestampCol, ShortBuffer stationCol, FloatBuffer temperatureCol, FloatBuffer humidityCol,
+                      StationDictionary stationDictionary, ZoneMap timestampZoneMap, ZoneMap temperatureZoneMap,
+                      ZoneMap humidityZoneMap, MonthlyAggregateCube monthlyCube, MonthlyQuantileCube monthlyQuantiles,
+                      StationIndex stationIndex, TimestampIndex timestampIndex, ColumnStatistics statistics, int rowCount) {
+        this(timestampCol, stationCol, temperatureCol, humidityCol, stationDictionary, timestampZoneMap,
+                temperatureZoneMap, humidityZoneMap, monthlyCube, monthlyQuantiles, stationIndex, timestampIndex, statistics,
+                rowCount, new AtomicInteger(rowCount));
+    }
+
+    private ColumnData(IntBuffer timestampCol, ShortBuffer stationCol, FloatBuffer temperatureCol, FloatBuffer humidityCol,
+                       StationDictionary stationDictionary, ZoneMap timestampZoneMap, ZoneMap temperatureZoneMap,
+                       ZoneMap humidityZoneMap, MonthlyAggregateCube monthlyCube, MonthlyQuantileCube monthlyQuantiles,
+                       StationIndex stationIndex, TimestampIndex timestampIndex, ColumnStatistics statistics, int rowCount,
+                       AtomicInteger writtenRowCount) {
+        this.timestampCol = timestampCol;
+        this.stationCol = stationCol;
+        this.temperatureCol = temperatureCol;
+        this.humidityCol = humidityCol;
+        this.stationDictionary = stationDictionary;
+        this.timestampZoneMap = timestampZoneMap;
+        this.temperatureZoneMap = temperatureZoneMap;
+        this.humidityZoneMap = humidityZoneMap;
+        this.monthlyCube = monthlyCube;
+        this.monthlyQuantiles = monthlyQuantiles;
+        this.stationIndex = stationIndex;
+        this.timestampIndex = timestampIndex;
+        this.statistics = statistics;
+        this.rowCount = rowCount;
+        this.writtenRowCount = writtenRowCount;
+    }
+
+    /**
+     * Appends rows after the current ones. Existing rows are not modified, the columns are only copied when they run
+     * out of capacity, are read-only mappings or have been appended to already. Zone maps are extended and the rows
+     * are added to copies of the monthly aggregate and quantile cubes. The indexes are kept until the rows they do not
+     * cover exceed an eighth of the rows, then they are rebuilt. The column statistics are extended with the new rows.
+     * @param stationCodes codes of the station dictionary
+     * @param stationDictionary dictionary of the codes, the dictionary of these columns or a copy of it with new stations
+     * @return columns with the appended rows, stored the same way as these columns
+     */
+    public ColumnData appendRows(int[] timestamps, short[] stationCodes, StationDictionary stationDictionary,
+                                 float[] temperatures, float[] humidities, int count) {
+        if ((long) rowCount + count > MAX_ROWS) {
+            throw new IllegalArgumentException("Appending " + count + " rows to " + rowCount + " rows exceeds the limit of "
+                    + MAX_ROWS + " rows per column");
+        }
+        int newRowCount = rowCount + count;
+        IntBuffer newTimestampCol = timestampCol;
+        ShortBuffer newStationCol = stationCol;
+        FloatBuffer newTemperatureCol = temperatureCol;
+        FloatBuffer newHumidityCol = humidityCol;
+        AtomicInteger newWrittenRowCount = writtenRowCount;
+        // claims the spare capacity, unless another append to these columns has claimed it first
+        if (newRowCount > timestampCol.capacity() || timestampCol.isReadOnly()
+                || !writtenRowCount.compareAndSet(rowCount, newRowCount)) {
+            // grow by half so that a series of small appends copies each row a constant number of times
+            int capacity = (int) Math.max(newRowCount, Math.min((long) timestampCol.capacity() * 3 / 2, MAX_ROWS));
+            boolean direct = timestampCol.isDirect();
+            newTimestampCol = copy(timestampCol, rowCount, capacity, direct);
+            newStationCol = copy(stationCol, rowCount, capacity, direct);
+            newTemperatureCol = copy(temperatureCol, rowCount, capacity, direct);
+            newHumidityCol = copy(humidityCol, rowCount, capacity, direct);
+            newWrittenRowCount = new AtomicInteger(newRowCount);
+        }
+        newTimestampCol.duplicate().position(rowCount).put(timestamps, 0, count);
+        newStationCol.duplicate().position(rowCount).put(stationCodes, 0, count);
+        newTemperatureCol.duplicate().position(rowCount).put(temperatures, 0, count);
+        newHumidityCol.duplicate().position(rowCount).put(humidities, 0, count);
+
+        FloatBuffer[] metricCols = {newTemperatureCol, newHumidityCol};
+        MonthlyAggregateCube newMonthlyCube = monthlyCube != null && monthlyCube.getRowCount() == rowCount
+                ? monthlyCube.appendRows(newTimestampCol, newStationCol, metricCols, rowCount, newRowCount)
+                : MonthlyAggregateCube.build(newTimestampCol, newStationCol, metricCols, newRowCount);
+        MonthlyQuantileCube newMonthlyQuantiles = monthlyQuantiles != null && monthlyQuantiles.getRowCount() == rowCount
+                ? monthlyQuantiles.appendRows(newTimestampCol, newStationCol, metricCols, rowCount, newRowCount)
+                : MonthlyQuantileCube.build(newTimestampCol, newStationCol, metricCols, newRowCount);
+        // queries scan the rows an index does not cover, rebuilding it once they add up keeps that scan short
+        StationIndex newStationIndex = stationIndex;
+        TimestampIndex newTimestampIndex = timestampIndex;
+        if (newRowCount - Math.min(stationIndex.getRowCount(), timestampIndex.getRowCount()) > newRowCount / INDEX_REBUILD_FRACTION) {
+            newStationIndex = StationIndex.build(newStationCol, stationDictionary.size(), newRowCount);
+            newTimestampIndex = TimestampIndex.build(newTimestampCol, newRowCount);
+        }
+        return new ColumnData(newTimestampCol, newStationCol, newTemperatureCol, newHumidityCol, stationDictionary,
+                timestampZoneMap.extend(newTimestampCol, newRowCount), temperatureZoneMap.extend(newTemperatureCol, newRowCount),
+                humidityZoneMap.extend(newHumidityCol, newRowCount), newMonthlyCube, newMonthlyQuantiles, newStationIndex,
+                newTimestampIndex,
+                statistics.extend(newTimestampCol, newStationCol, stationDictionary.size(), newRowCount), newRowCount,
+                newWrittenRowCount);
+    }
+
+    /**
+     * @return copy of the columns in direct buffers outside the Java heap, the rest is shared with these columns.
+     */
+    public ColumnData toOffHeap() {
+        return new ColumnData(copy(timestampCol, rowCount, rowCount, true), copy(stationCol, rowCount, rowCount, true),
+                copy(temperatureCol, rowCount, rowCount, true), copy(humidityCol, rowCount, rowCount, true),
+                stationDictionary, timestampZoneMap, temperatureZoneMap, humidityZoneMap, monthlyCube, monthlyQuantiles,
+                stationIndex, timestampIndex, statistics, rowCount);
+    }
+
+    /**
+     * @return true if the columns are stored outside the Java heap, in direct buffers or mapped files.
+     */
+    public boolean isOffHeap() {
+        return timestampCol.isDirect();
+    }
+
+    public IntBuffer getTimestampCol() {
+        return timestampCol;
+    }
+
+    public ShortBuffer getStationCol() {
+        return stationCol;
+    }
+
+    public FloatBuffer getTemperatureCol() {
+        return temperatureCol;
+    }
+
+    public FloatBuffer getHumidityCol() {
+        return humidityCol;
+    }
+
+    public StationDictionary getStationDictionary() {
+        return stationDictionary;
+    }
+
+    public ZoneMap getTimestampZoneMap() {
+        return timestampZoneMap;
+    }
+
+    public ZoneMap getTemperatureZoneMap() {
+        return temperatureZoneMap;
+    }
+
+    public ZoneMap getHumidityZoneMap() {
+        return humidityZoneMap;
+    }
+
+    public MonthlyAggregateCube getMonthlyCube() {
+        return monthlyCube;
+    }
+
+    /**
+     * @return quantile sketches of the metric columns per station, year and month.
+     */
+    public MonthlyQuantileCube getMonthlyQuantiles() {
+        return monthlyQuantiles;
+    }
+
+    /**
+     * @return inverted index of the station column, rows appended after it was built are not covered.
+     */
+    public StationIndex getStationIndex() {
+        return stationIndex;
+    }
+
+    /**
+     * @return sorted index of the timestamp column, rows appended after it was built are not covered.
+     */
+    public TimestampIndex getTimestampIndex() {
+        return timestampIndex;
+    }
+
+    /**
+     * @return statistics of the columns used to plan queries.
+     */
+    public ColumnStatistics getStatistics() {
+        return statistics;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    private static IntBuffer copy(IntBuffer values, int rowCount, int capacity, boolean direct) {
+        IntBuffer copy = direct ? allocateDirect((long) capacity * Integer.BYTES).asIntBuffer() : IntBuffer.allocate(capacity);
+        copy.duplicate().put(values.duplicate().position(0).limit(rowCount));
+        return copy;
+    }
+
+    private static ShortBuffer copy(ShortBuffer values, int rowCount, int capacity, boolean direct) {
+        ShortBuffer copy = direct ? allocateDirect((long) capacity * Short.BYTES).asShortBuffer() : ShortBuffer.allocate(capacity);
+        copy.duplicate().put(values.duplicate().position(0).limit(rowCount));
+        return copy;
+    }
+
+    private static FloatBuffer copy(FloatBuffer values, int rowCount, int capacity, boolean direct) {
+        FloatBuffer copy = direct ? allocateDirect((long) capacity * Float.BYTES).asFloatBuffer() : FloatBuffer.allocate(capacity);
+        copy.duplicate().put(values.duplicate().position(0).limit(rowCount));
+        return copy;
+    }
+
+    private static ByteBuffer allocateDirect(long bytes) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Column of " + bytes + " bytes exceeds the " + Integer.MAX_VALUE
+                    + " byte limit of a direct buffer");
+        }
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+}
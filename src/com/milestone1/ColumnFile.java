@@ -0,0 +1,424 @@
+package com.milestone1;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary column file with fixed-width values. Reads go through the shared BufferPool page by page, positional reads
+ * are O(1) and sequential reads pin each page once.
+ *
+ * Layout: a HEADER_SIZE byte header followed by rowCount little-endian values of the type's width.
+ * Header: magic (int), version (short), type (byte), encoding (byte), rowCount (int), padding.
+ * Dictionary encoded columns keep their dictionary in a separate file, see StationDictionary.
+ * Rows can be appended in place: the values are written after the last row and the header row count is updated
+ * afterwards, so an interrupted append leaves the previous rows readable. A rewritten file is written under a
+ * temporary name and renamed into place, so readers that opened or mapped the previous file keep reading it. Its
+ * pages are cached under the generation of the name it was opened at, see BufferPool.beginReplace, so they are not
+ * read in place of the pages of the new file.
+ */
+public class ColumnFile implements AutoCloseable {
+    public static final String EXTENSION = ".col";
+    public static final int HEADER_SIZE = 16;
+
+    public static final byte TYPE_INT32 = 1;
+    public static final byte TYPE_FLOAT32 = 2;
+    public static final byte TYPE_INT16 = 3;
+
+    public static final byte ENCODING_PLAIN = 0;
+    public static final byte ENCODING_DICTIONARY = 1;
+
+    private static final int MAGIC = 0x4353444D; // "CSDM"
+    private static final short VERSION = 1;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private final String fileName;
+    private final long generation;
+    private final FileChannel channel;
+    private final byte type;
+    private final byte encoding;
+    private final int rowCount;
+    // page currently pinned for reading and the file offsets it covers
+    private BufferPool.Page page;
+    private long pageStart;
+    private long pageEnd;
+
+    private ColumnFile(String fileName, long generation, FileChannel channel, byte type, byte encoding, int rowCount) {
+        this.fileName = fileName;
+        this.generation = generation;
+        this.channel = channel;
+        this.type = type;
+        this.encoding = encoding;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Opens an existing column file for reading through the buffer pool and validates its header.
+     * The file keeps one page pinned, so it has to be closed after use.
+     * @param fileName name of the column without extension
+     */
+    public static ColumnFile open(String fileName) throws IOException {
+        long generation;
+        FileChannel channel;
+        while (true) {
+            generation = BufferPool.getGeneration(fileName);
+            channel = FileChannel.open(toPath(fileName), StandardOpenOption.READ);
+            // opened again if the file was replaced meanwhile, the channel could belong to either file
+            if (generation % 2 == 0 && BufferPool.getGeneration(fileName) == generation) {
+                break;
+            }
+            channel.close();
+            Thread.yield();
+        }
+        ColumnFile column = null;
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException(fileName + EXTENSION + " is not a column file");
+            }
+            BufferPool.Page header = BufferPool.pin(fileName, generation, channel, 0);
+            try {
+                ByteBuffer buffer = header.getBuffer();
+                validateHeader(fileName, buffer, channel.size());
+                column = new ColumnFile(fileName, generation, channel, buffer.get(6), buffer.get(7), buffer.getInt(8));
+            } finally {
+                BufferPool.unpin(header);
+            }
+            return column;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps the values of a column file read-only, bypassing the buffer pool. The mapping stays valid when rows are
+     * appended to the file, and keeps the values of the previous file when the file is rewritten.
+     * @return little-endian buffer holding the rowCount values of the file
+     */
+    public static ByteBuffer mapValues(String fileName, byte type) throws IOException {
+        try (ColumnFile column = open(fileName)) {
+            if (column.type != type) {
+                throw new IOException(fileName + EXTENSION + " has type " + column.type + " instead of " + type);
+            }
+            long size = (long) column.rowCount * widthOf(type);
+            // a mapped buffer is indexed by int
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(fileName + EXTENSION + " holds " + size + " bytes of values, more than the "
+                        + Integer.MAX_VALUE + " bytes that can be mapped");
+            }
+            return column.channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * @return column without any rows, used in place of a column that could not be read.
+     */
+    public static ColumnFile empty(byte type) {
+        return new ColumnFile(null, 0, null, type, ENCODING_PLAIN, 0);
+    }
+
+    /**
+     * Unpins the current page and closes the file.
+     */
+    @Override
+    public void close() {
+        if (page != null) {
+            BufferPool.unpin(page);
+            page = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    public static void writeInts(String fileName, IntBuffer values, int rowCount) throws IOException {
+        try (FileChannel channel = openForWrite(fileName)) {
+            ByteBuffer out = newWriteBuffer(TYPE_INT32, ENCODING_PLAIN, rowCount);
+            for (int i=0; i<rowCount; i++) {
+                flushIfFull(channel, out, Integer.BYTES);
+                out.putInt(values.get(i));
+            }
+            flush(channel, out);
+        }
+        replaceWithWritten(fileName);
+    }
+
+    public static void writeFloats(String fileName, FloatBuffer values, int rowCount) throws IOException {
+        try (FileChannel channel = openForWrite(fileName)) {
+            ByteBuffer out = newWriteBuffer(TYPE_FLOAT32, ENCODING_PLAIN, rowCount);
+            for (int i=0; i<rowCount; i++) {
+                flushIfFull(channel, out, Float.BYTES);
+                out.putFloat(values.get(i));
+            }
+            flush(channel, out);
+        }
+        replaceWithWritten(fileName);
+    }
+
+    public static void writeShorts(String fileName, ShortBuffer values, int rowCount, byte encoding) throws IOException {
+        try (FileChannel channel = openForWrite(fileName)) {
+            ByteBuffer out = newWriteBuffer(TYPE_INT16, encoding, rowCount);
+            for (int i=0; i<rowCount; i++) {
+                flushIfFull(channel, out, Short.BYTES);
+                out.putShort(values.get(i));
+            }
+            flush(channel, out);
+        }
+        replaceWithWritten(fileName);
+    }
+
+    /**
+     * Appends values [from, to) to an existing int column file, leaving the stored rows untouched.
+     */
+    public static void appendInts(String fileName, IntBuffer values, int from, int to) throws IOException {
+        try (FileChannel channel = FileChannel.open(toPath(fileName), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int rowCount = startAppend(channel, fileName, TYPE_INT32);
+            ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i=from; i<to; i++) {
+                flushIfFull(channel, out, Integer.BYTES);
+                out.putInt(values.get(i));
+            }
+            flush(channel, out);
+            finishAppend(channel, rowCount + to - from);
+        } finally {
+            BufferPool.invalidate(fileName);
+        }
+    }
+
+    public static void appendFloats(String fileName, FloatBuffer values, int from, int to) throws IOException {
+        try (FileChannel channel = FileChannel.open(toPath(fileName), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int rowCount = startAppend(channel, fileName, TYPE_FLOAT32);
+            ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i=from; i<to; i++) {
+                flushIfFull(channel, out, Float.BYTES);
+                out.putFloat(values.get(i));
+            }
+            flush(channel, out);
+            finishAppend(channel, rowCount + to - from);
+        } finally {
+            BufferPool.invalidate(fileName);
+        }
+    }
+
+    public static void appendShorts(String fileName, ShortBuffer values, int from, int to) throws IOException {
+        try (FileChannel channel = FileChannel.open(toPath(fileName), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int rowCount = startAppend(channel, fileName, TYPE_INT16);
+            ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i=from; i<to; i++) {
+                flushIfFull(channel, out, Short.BYTES);
+                out.putShort(values.get(i));
+            }
+            flush(channel, out);
+            finishAppend(channel, rowCount + to - from);
+        } finally {
+            BufferPool.invalidate(fileName);
+        }
+    }
+
+    public int getInt(int pos) {
+        long offset = HEADER_SIZE + (long) pos * Integer.BYTES;
+        return pageAt(offset).getInt((int) (offset - pageStart));
+    }
+
+    public float getFloat(int pos) {
+        long offset = HEADER_SIZE + (long) pos * Float.BYTES;
+        return pageAt(offset).getFloat((int) (offset - pageStart));
+    }
+
+    public short getShort(int pos) {
+        long offset = HEADER_SIZE + (long) pos * Short.BYTES;
+        return pageAt(offset).getShort((int) (offset - pageStart));
+    }
+
+    /**
+     * Reads the values at the given positions in one forward pass over the file.
+     * @param sortedPositions row positions in ascending order
+     */
+    public int[] fetchInts(int[] sortedPositions) {
+        int[] values = new int[sortedPositions.length];
+        for (int i=0; i<sortedPositions.length; i++) {
+            values[i] = getInt(sortedPositions[i]);
+        }
+        return values;
+    }
+
+    public float[] fetchFloats(int[] sortedPositions) {
+        float[] values = new float[sortedPositions.length];
+        for (int i=0; i<sortedPositions.length; i++) {
+            values[i] = getFloat(sortedPositions[i]);
+        }
+        return values;
+    }
+
+    public short[] fetchShorts(int[] sortedPositions) {
+        short[] values = new short[sortedPositions.length];
+        for (int i=0; i<sortedPositions.length; i++) {
+            values[i] = getShort(sortedPositions[i]);
+        }
+        return values;
+    }
+
+    /**
+     * @return buffer of the page holding the byte at offset, pinning it in place of the current page if needed.
+     * Values never cross a page boundary since the header and the page size are multiples of every value width.
+     */
+    private ByteBuffer pageAt(long offset) {
+        if (offset < pageStart || offset >= pageEnd) {
+            if (page != null) {
+                BufferPool.unpin(page);
+                page = null;
+            }
+            try {
+                page = BufferPool.pin(fileName, generation, channel, offset / BufferPool.PAGE_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            pageStart = page.getFileOffset();
+            pageEnd = pageStart + page.getBuffer().limit();
+        }
+        return page.getBuffer();
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public byte getEncoding() {
+        return encoding;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Validates the header of a column file.
+     * @param header little-endian buffer holding the header from index 0
+     * @param fileSize size of the file, which has to hold every row the header lists
+     */
+    static void validateHeader(String fileName, ByteBuffer header, long fileSize) throws IOException {
+        if (fileSize < HEADER_SIZE || header.getInt(0) != MAGIC) {
+            throw new IOException(fileName + EXTENSION + " is not a column file");
+        }
+        if (header.getShort(4) != VERSION) {
+            throw new IOException("Unsupported column file version " + header.getShort(4) + " in " + fileName + EXTENSION);
+        }
+        if (fileSize < HEADER_SIZE + (long) header.getInt(8) * widthOf(header.get(6))) {
+            throw new IOException(fileName + EXTENSION + " is truncated");
+        }
+    }
+
+    public static int widthOf(byte type) {
+        switch (type) {
+            case TYPE_INT32:
+                return Integer.BYTES;
+            case TYPE_FLOAT32:
+                return Float.BYTES;
+            case TYPE_INT16:
+                return Short.BYTES;
+            default:
+                throw new IllegalArgumentException("Unknown column type " + type);
+        }
+    }
+
+    private static Path toPath(String fileName) {
+        return Paths.get(fileName + EXTENSION);
+    }
+
+    private static Path toTemporaryPath(String fileName) {
+        return Paths.get(fileName + EXTENSION + ".tmp");
+    }
+
+    /**
+     * Validates the header and positions the channel after the last row, overwriting anything an interrupted
+     * append left behind.
+     * @return current row count
+     */
+    private static int startAppend(FileChannel channel, String fileName, byte type) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // keep reading until the header is complete or the file ends
+        }
+        if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getShort(4) != VERSION) {
+            throw new IOException(fileName + EXTENSION + " is not a column file");
+        }
+        if (header.get(6) != type) {
+            throw new IOException(fileName + EXTENSION + " has type " + header.get(6) + ", expected " + type);
+        }
+        int rowCount = header.getInt(8);
+        channel.position(HEADER_SIZE + (long) rowCount * widthOf(type));
+        return rowCount;
+    }
+
+    /**
+     * Publishes the appended rows by writing the new row count into the header once the values are on disk.
+     */
+    private static void finishAppend(FileChannel channel, int rowCount) throws IOException {
+        channel.truncate(channel.position());
+        channel.force(false);
+        ByteBuffer count = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        count.putInt(0, rowCount);
+        channel.write(count, 8);
+    }
+
+    /**
+     * Opens the temporary file a rewrite of the column is written to, see replaceWithWritten.
+     */
+    private static FileChannel openForWrite(String fileName) throws IOException {
+        return FileChannel.open(toTemporaryPath(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Renames the written temporary file over the column file. The previous file is never truncated, so channels and
+     * mappings of it stay valid until they are closed.
+     */
+    private static void replaceWithWritten(String fileName) throws IOException {
+        BufferPool.beginReplace(fileName);
+        try {
+            Files.move(toTemporaryPath(fileName), toPath(fileName), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            BufferPool.endReplace(fileName);
+        }
+    }
+
+    private static ByteBuffer newWriteBuffer(byte type, byte encoding, int rowCount) {
+        ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC);
+        out.putShort(VERSION);
+        out.put(type);
+        out.put(encoding);
+        out.putInt(rowCount);
+        out.position(HEADER_SIZE);
+        return out;
+    }
+
+    private static void flushIfFull(FileChannel channel, ByteBuffer out, int bytesNeeded) throws IOException {
+        if (out.remaining() < bytesNeeded) {
+            flush(channel, out);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+}
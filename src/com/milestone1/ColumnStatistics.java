@@ -0,0 +1,155 @@
+package com.milestone1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Statistics of the columns used by QueryPlanner to estimate how many rows a predicate selects: the number of rows
+ * of every station and of every year, and from them the distinct counts of both. Rows with a missing timestamp are
+ * not counted under any year.
+ *
+ * Statistics are collected at ingest and extended on append, a ColumnStatistics is not modified once built.
+ */
+public class ColumnStatistics {
+    public static final String EXTENSION = ".stats";
+    private static final int FORMAT_VERSION = 1;
+
+    private final int rowCount;
+    // rows of each station by dictionary code
+    private final int[] stationRowCounts;
+    private final TreeMap<Integer, Integer> yearRowCounts;
+
+    private ColumnStatistics(int rowCount, int[] stationRowCounts, TreeMap<Integer, Integer> yearRowCounts) {
+        this.rowCount = rowCount;
+        this.stationRowCounts = stationRowCounts;
+        this.yearRowCounts = yearRowCounts;
+    }
+
+    /**
+     * Collects the statistics of the first rowCount rows of the columns.
+     * @param stationCount number of codes in the station dictionary
+     */
+    public static ColumnStatistics build(IntBuffer timestampCol, ShortBuffer stationCol, int stationCount, int rowCount) {
+        ColumnStatistics statistics = new ColumnStatistics(0, new int[stationCount], new TreeMap<>());
+        return statistics.extend(timestampCol, stationCol, stationCount, rowCount);
+    }
+
+    /**
+     * @return statistics of the columns after the rows from getRowCount() up to newRowCount were appended to them,
+     * these statistics are left unchanged.
+     */
+    public ColumnStatistics extend(IntBuffer timestampCol, ShortBuffer stationCol, int stationCount, int newRowCount) {
+        int[] newStationRowCounts = Arrays.copyOf(stationRowCounts, Math.max(stationCount, stationRowCounts.length));
+        TreeMap<Integer, Integer> newYearRowCounts = new TreeMap<>(yearRowCounts);
+        // rows come in runs of the same year, so a timestamp is only decoded when it leaves the current year
+        int year = 0;
+        int yearStart = 0;
+        int yearEnd = 0;
+        int yearRows = 0;
+        for (int i=rowCount; i<newRowCount; i++) {
+            newStationRowCounts[stationCol.get(i)]++;
+            int timestamp = timestampCol.get(i);
+            if (timestamp == Parser.INVALID_TIMESTAMP) {
+                continue;
+            }
+            if (timestamp < yearStart || timestamp >= yearEnd) {
+                if (yearRows > 0) {
+                    newYearRowCounts.merge(year, yearRows, Integer::sum);
+                }
+                year = Parser.epochMinuteToYear(timestamp);
+                yearStart = Parser.yearToEpochMinute(year);
+                yearEnd = Parser.yearToEpochMinute(year + 1);
+                yearRows = 0;
+            }
+            yearRows++;
+        }
+        if (yearRows > 0) {
+            newYearRowCounts.merge(year, yearRows, Integer::sum);
+        }
+        return new ColumnStatistics(newRowCount, newStationRowCounts, newYearRowCounts);
+    }
+
+    /**
+     * @return number of rows the statistics were collected over.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @param stationCode dictionary code, StationDictionary.NOT_FOUND has no rows
+     */
+    public int getStationRowCount(short stationCode) {
+        return stationCode < 0 || stationCode >= stationRowCounts.length ? 0 : stationRowCounts[stationCode];
+    }
+
+    public int getYearRowCount(int year) {
+        return yearRowCounts.getOrDefault(year, 0);
+    }
+
+    /**
+     * @return number of stations with at least one row.
+     */
+    public int getDistinctStationCount() {
+        int count = 0;
+        for (int rows : stationRowCounts) {
+            if (rows > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return number of years with at least one row.
+     */
+    public int getDistinctYearCount() {
+        return yearRowCounts.size();
+    }
+
+    public void save(String fileName) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName + EXTENSION)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(rowCount);
+            out.writeInt(stationRowCounts.length);
+            for (int rows : stationRowCounts) {
+                out.writeInt(rows);
+            }
+            out.writeInt(yearRowCounts.size());
+            for (Map.Entry<Integer, Integer> year : yearRowCounts.entrySet()) {
+                out.writeInt(year.getKey());
+                out.writeInt(year.getValue());
+            }
+        }
+    }
+
+    public static ColumnStatistics load(String fileName) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName + EXTENSION)))) {
+            int formatVersion = in.readInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException(fileName + EXTENSION + " has unsupported version " + formatVersion);
+            }
+            int rowCount = in.readInt();
+            int[] stationRowCounts = new int[in.readInt()];
+            for (int code=0; code<stationRowCounts.length; code++) {
+                stationRowCounts[code] = in.readInt();
+            }
+            TreeMap<Integer, Integer> yearRowCounts = new TreeMap<>();
+            int yearCount = in.readInt();
+            for (int i=0; i<yearCount; i++) {
+                yearRowCounts.put(in.readInt(), in.readInt());
+            }
+            return new ColumnStatistics(rowCount, stationRowCounts, yearRowCounts);
+        }
+    }
+}
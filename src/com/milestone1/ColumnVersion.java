@@ -0,0 +1,121 @@
+package com.milestone1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Version of the column files on disk, see IOManager.saveColumnsToDisk.
+ *
+ * Every version is a directory DIRECTORY/number holding the timestamp, station, temperature and humidity column files
+ * together with their station dictionary, zone maps, monthly aggregates and sketches, statistics and indexes. A
+ * rewrite of the columns writes a new version and then replaces the CURRENT file naming the current version, so a
+ * query that resolves the version once and opens every file from it reads the columns of one version only. Rows are
+ * appended to the files of the current version in place, which readers of it handle through the row counts.
+ */
+public class ColumnVersion {
+    public static final String DIRECTORY = "columns";
+    private static final String CURRENT_FILE_NAME = DIRECTORY + "/CURRENT";
+
+    private final int number;
+
+    private ColumnVersion(int number) {
+        this.number = number;
+    }
+
+    /**
+     * @return version 0, which has no files, used in place of a version that could not be read.
+     */
+    public static ColumnVersion empty() {
+        return new ColumnVersion(0);
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    public String getDirectory() {
+        return DIRECTORY + "/" + number;
+    }
+
+    /**
+     * @param name file name of the version without extension, e.g. "timestamp" for timestamp.col
+     */
+    public String getFileName(String name) {
+        return getDirectory() + "/" + name;
+    }
+
+    /**
+     * Creates the directory of a new version, numbered after every version on disk so it never holds files of
+     * another version. It is not read until it is published.
+     */
+    public static ColumnVersion create() throws IOException {
+        int number = 1;
+        for (ColumnVersion version : list()) {
+            number = Math.max(number, version.number + 1);
+        }
+        ColumnVersion version = new ColumnVersion(number);
+        Files.createDirectories(Paths.get(version.getDirectory()));
+        return version;
+    }
+
+    /**
+     * Makes this the current version. CURRENT is written under a temporary name and renamed into place, so a reader
+     * never sees a partly written one.
+     */
+    public void publish() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(CURRENT_FILE_NAME + ".tmp")))) {
+            out.writeInt(number);
+        }
+        Files.move(Paths.get(CURRENT_FILE_NAME + ".tmp"), Paths.get(CURRENT_FILE_NAME), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the current version named by CURRENT.
+     * @return current version, or version 0 without any files if no version was published
+     */
+    public static ColumnVersion load() throws IOException {
+        if (!Files.exists(Paths.get(CURRENT_FILE_NAME))) {
+            return empty();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(CURRENT_FILE_NAME)))) {
+            int number = in.readInt();
+            if (number < 1) {
+                throw new IOException(CURRENT_FILE_NAME + " names invalid version " + number);
+            }
+            return new ColumnVersion(number);
+        }
+    }
+
+    /**
+     * @return every version with a directory on disk, published or not, in no particular order.
+     */
+    public static List<ColumnVersion> list() throws IOException {
+        List<ColumnVersion> versions = new ArrayList<>();
+        Path directory = Paths.get(DIRECTORY);
+        if (!Files.isDirectory(directory)) {
+            return versions;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (Files.isDirectory(entry) && name.matches("[1-9][0-9]{0,8}")) {
+                    versions.add(new ColumnVersion(Integer.parseInt(name)));
+                }
+            }
+        }
+        return versions;
+    }
+}
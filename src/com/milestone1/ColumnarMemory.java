@@ -1,42 +1,113 @@
 package com.milestone1;
 
-import java.util.ArrayList;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.function.UnaryOperator;
 
 /**
- * Memory to store data columns from CSV file
+ * Memory to store data columns from CSV file.
+ * Columns may have spare capacity for appended rows, only the first getRowCount() values are rows.
+ * With setOffHeap(true) loaded columns are moved out of the Java heap into direct buffers.
+ *
+ * The columns are held as one ColumnData snapshot, which is never modified once published. Loads and appends publish
+ * a new snapshot with a single volatile write, so readers need no locks. The getters of single columns each read the
+ * latest snapshot, a query that reads several columns pins one snapshot with getColumnData and reads all of them
+ * from it, so that an append in the middle of the query cannot give it columns of different lengths.
  */
 public class ColumnarMemory {
     // no need to store id column in memory since it is not used during querying
-    private static ArrayList<String> timestampCol;
-    private static ArrayList<String> stationCol;
-    private static ArrayList<Float> temperatureCol;
-    private static ArrayList<Float> humidityCol;
+    private static volatile ColumnData columnData;
+    private static volatile boolean offHeap;
 
-    private static final int TIMESTAMP_INDEX = 1;
-    private static final int STATION_INDEX = 2;
-    private static final int TEMPERATURE_INDEX = 3;
-    private static final int HUMIDITY_INDEX = 4;
+    public static synchronized void loadIntoMemory(ColumnData data) {
+        publish(data);
+    }
+
+    /**
+     * Applies the update to the current columns and publishes its result. Updates are serialized with each other and
+     * with loadIntoMemory, so an append cannot be lost to a concurrent append or load.
+     * @return published columns
+     */
+    public static synchronized ColumnData update(UnaryOperator<ColumnData> update) {
+        if (columnData == null) {
+            throw new IllegalStateException("Columns must be loaded into memory before updating them");
+        }
+        return publish(update.apply(columnData));
+    }
+
+    private static ColumnData publish(ColumnData data) {
+        if (offHeap && !data.isOffHeap()) {
+            data = data.toOffHeap();
+        }
+        columnData = data;
+        // bumped after publishing, so results of queries that read the previous snapshot are not cached
+        QueryResultCache.invalidate(QueryResultCache.Source.MEMORY);
+        return data;
+    }
+
+    /**
+     * Keeps the columns loaded from then on in direct buffers outside the Java heap, so that they neither count
+     * against the heap size nor get copied by the garbage collector. Columns mapped from disk are off-heap already.
+     */
+    public static void setOffHeap(boolean enabled) {
+        offHeap = enabled;
+    }
+
+    public static boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * @return snapshot of the columns currently in memory, or null if nothing has been loaded.
+     */
+    public static ColumnData getColumnData() {
+        return columnData;
+    }
+
+    /**
+     * @return timestamps as minutes since 1970-01-01 00:00, see Parser.timestampStringToEpochMinute.
+     */
+    public static IntBuffer getTimestampCol() {
+        return columnData.getTimestampCol();
+    }
+
+    /**
+     * @return station codes, decoded through getStationDictionary.
+     */
+    public static ShortBuffer getStationCol() {
+        return columnData.getStationCol();
+    }
+
+    public static FloatBuffer getTemperatureCol() {
+        return columnData.getTemperatureCol();
+    }
+
+    public static FloatBuffer getHumidityCol() {
+        return columnData.getHumidityCol();
+    }
+
+    public static StationDictionary getStationDictionary() {
+        return columnData.getStationDictionary();
+    }
 
-    public static void loadIntoMemory(ArrayList<ArrayList<?>> data) {
-        timestampCol = (ArrayList<String>) data.get(TIMESTAMP_INDEX);
-        stationCol = (ArrayList<String>) data.get(STATION_INDEX);
-        temperatureCol = (ArrayList<Float>) data.get(TEMPERATURE_INDEX);
-        humidityCol = (ArrayList<Float>) data.get(HUMIDITY_INDEX);
+    public static ZoneMap getTimestampZoneMap() {
+        return columnData.getTimestampZoneMap();
     }
 
-    public static ArrayList<String> getTimestampCol() {
-        return timestampCol;
+    public static ZoneMap getTemperatureZoneMap() {
+        return columnData.getTemperatureZoneMap();
     }
 
-    public static ArrayList<String> getStationCol() {
-        return stationCol;
+    public static ZoneMap getHumidityZoneMap() {
+        return columnData.getHumidityZoneMap();
     }
 
-    public static ArrayList<Float> getTemperatureCol() {
-        return temperatureCol;
+    public static MonthlyAggregateCube getMonthlyCube() {
+        return columnData.getMonthlyCube();
     }
 
-    public static ArrayList<Float> getHumidityCol() {
-        return humidityCol;
+    public static int getRowCount() {
+        return columnData.getRowCount();
     }
 }
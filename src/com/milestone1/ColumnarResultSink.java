@@ -0,0 +1,178 @@
+package com.milestone1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Writes result rows in a columnar file in the spirit of Parquet, for tools that read whole columns.
+ *
+ * Rows are buffered into row groups of up to ROW_GROUP_SIZE rows. Each row group is written as its row count followed
+ * by the epoch day (int32), station (int16), category (int16) and value (float32) columns, each stored contiguously.
+ * Stations and categories are dictionary encoded, the dictionary is kept in the footer together with the offset and
+ * row count of every row group. The file ends with the footer length and the magic number, so readers start from the
+ * end. All numbers are little-endian.
+ */
+public class ColumnarResultSink implements ResultSink {
+    public static final int ROW_GROUP_SIZE = 64 * 1024;
+    private static final int MAGIC = 0x4D535243; // "MSRC"
+    private static final int FORMAT_VERSION = 1;
+    private static final int ROW_WIDTH = Integer.BYTES + 2 * Short.BYTES + Float.BYTES;
+
+    private final FileChannel channel;
+    private final int[] epochDays = new int[ROW_GROUP_SIZE];
+    private final short[] stationIds = new short[ROW_GROUP_SIZE];
+    private final short[] categoryIds = new short[ROW_GROUP_SIZE];
+    private final float[] values = new float[ROW_GROUP_SIZE];
+    private int bufferedRows;
+    private final ArrayList<String> strings = new ArrayList<>();
+    private final HashMap<String, Short> stringIds = new HashMap<>();
+    private final ArrayList<long[]> rowGroups = new ArrayList<>();
+
+    public ColumnarResultSink(String filePath) throws IOException {
+        channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+        writeFully(header);
+    }
+
+    @Override
+    public void write(int epochDay, String station, String category, float value) throws IOException {
+        epochDays[bufferedRows] = epochDay;
+        stationIds[bufferedRows] = getStringId(station);
+        categoryIds[bufferedRows] = getStringId(category);
+        values[bufferedRows] = value;
+        bufferedRows++;
+        if (bufferedRows == ROW_GROUP_SIZE) {
+            flushRowGroup();
+        }
+    }
+
+    /**
+     * Writes the last row group and the footer.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flushRowGroup();
+            int footerSize = Integer.BYTES + Integer.BYTES + rowGroups.size() * (Long.BYTES + Integer.BYTES);
+            ArrayList<byte[]> encodedStrings = new ArrayList<>();
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                encodedStrings.add(bytes);
+                footerSize += Short.BYTES + bytes.length;
+            }
+            ByteBuffer footer = ByteBuffer.allocate(footerSize + 2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            footer.putInt(encodedStrings.size());
+            for (byte[] bytes : encodedStrings) {
+                footer.putShort((short) bytes.length).put(bytes);
+            }
+            footer.putInt(rowGroups.size());
+            for (long[] rowGroup : rowGroups) {
+                footer.putLong(rowGroup[0]).putInt((int) rowGroup[1]);
+            }
+            footer.putInt(footerSize).putInt(MAGIC).flip();
+            writeFully(footer);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads a columnar result file and writes its rows to the target sink, e.g. to convert it to CSV.
+     */
+    public static void read(String filePath, ResultSink target) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < 4 * Integer.BYTES) {
+                throw new IOException(filePath + " is not a columnar result file");
+            }
+            ByteBuffer tail = readFully(channel, fileSize - 2 * Integer.BYTES, 2 * Integer.BYTES);
+            int footerSize = tail.getInt();
+            if (tail.getInt() != MAGIC || readFully(channel, 0, Integer.BYTES).getInt() != MAGIC) {
+                throw new IOException(filePath + " is not a columnar result file");
+            }
+            int formatVersion = readFully(channel, Integer.BYTES, Integer.BYTES).getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException(filePath + " has unsupported version " + formatVersion);
+            }
+            ByteBuffer footer = readFully(channel, fileSize - 2 * Integer.BYTES - footerSize, footerSize);
+            String[] strings = new String[footer.getInt()];
+            for (int i=0; i<strings.length; i++) {
+                byte[] bytes = new byte[footer.getShort()];
+                footer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            int rowGroupCount = footer.getInt();
+            for (int group=0; group<rowGroupCount; group++) {
+                long offset = footer.getLong();
+                int rowCount = footer.getInt();
+                ByteBuffer columns = readFully(channel, offset + Integer.BYTES, rowCount * ROW_WIDTH);
+                int stationStart = rowCount * Integer.BYTES;
+                int categoryStart = stationStart + rowCount * Short.BYTES;
+                int valueStart = categoryStart + rowCount * Short.BYTES;
+                for (int i=0; i<rowCount; i++) {
+                    target.write(columns.getInt(i * Integer.BYTES), strings[columns.getShort(stationStart + i * Short.BYTES)],
+                            strings[columns.getShort(categoryStart + i * Short.BYTES)],
+                            columns.getFloat(valueStart + i * Float.BYTES));
+                }
+            }
+        }
+    }
+
+    private void flushRowGroup() throws IOException {
+        if (bufferedRows == 0) {
+            return;
+        }
+        rowGroups.add(new long[] {channel.position(), bufferedRows});
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + bufferedRows * ROW_WIDTH).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(bufferedRows);
+        buffer.asIntBuffer().put(epochDays, 0, bufferedRows);
+        buffer.position(buffer.position() + bufferedRows * Integer.BYTES);
+        buffer.asShortBuffer().put(stationIds, 0, bufferedRows);
+        buffer.position(buffer.position() + bufferedRows * Short.BYTES);
+        buffer.asShortBuffer().put(categoryIds, 0, bufferedRows);
+        buffer.position(buffer.position() + bufferedRows * Short.BYTES);
+        buffer.asFloatBuffer().put(values, 0, bufferedRows);
+        buffer.clear();
+        writeFully(buffer);
+        bufferedRows = 0;
+    }
+
+    private short getStringId(String string) throws IOException {
+        Short id = stringIds.get(string);
+        if (id != null) {
+            return id;
+        }
+        if (strings.size() > Short.MAX_VALUE) {
+            throw new IOException("Too many distinct stations and categories for a columnar result file");
+        }
+        short newId = (short) strings.size();
+        strings.add(string);
+        stringIds.put(string, newId);
+        return newId;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,334 @@
+package com.milestone1;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Parses the weather CSV file (id,Timestamp,Station,Temperature,Humidity) straight from bytes into primitive columns.
+ *
+ * The file is memory mapped and split into chunks on line boundaries. Chunks are parsed in parallel, each with its
+ * own station dictionary, and then stitched together in file order so that row positions and station codes are the
+ * same as a sequential read. Rows without five fields or with an unparseable timestamp are skipped and counted.
+ *
+ * Fields follow RFC 4180 quoting within a line: a field in double quotes may hold commas, and "" inside it stands for
+ * one quote. Quoted fields must not span lines, since chunks and rows are split on every newline.
+ */
+public class CsvIngest {
+    private static final int TARGET_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int FIELD_COUNT = 5;
+    private static final float[] FLOAT_POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private final int[] timestampCol;
+    private final short[] stationCol;
+    private final float[] temperatureCol;
+    private final float[] humidityCol;
+    private final long malformedRowCount;
+    private final long elapsedNanos;
+
+    private CsvIngest(int[] timestampCol, short[] stationCol, float[] temperatureCol, float[] humidityCol,
+                      long malformedRowCount, long elapsedNanos) {
+        this.timestampCol = timestampCol;
+        this.stationCol = stationCol;
+        this.temperatureCol = temperatureCol;
+        this.humidityCol = humidityCol;
+        this.malformedRowCount = malformedRowCount;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Parses the CSV file, skipping its header line.
+     * @param filePath CSV file to read
+     * @param stationDictionary dictionary that new station names are added to, codes follow the order of first occurrence
+     */
+    public static CsvIngest parse(String filePath, StationDictionary stationDictionary) throws IOException {
+        long startTime = System.nanoTime();
+        List<ChunkResult> chunkResults;
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            List<long[]> chunkRanges = splitOnLineBoundaries(channel);
+            // ordered collect keeps the chunks in file order
+            chunkResults = chunkRanges.parallelStream()
+                    .map(range -> parseChunk(channel, range[0], range[1]))
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        int rowCount = 0;
+        long malformedRowCount = 0;
+        for (ChunkResult chunk : chunkResults) {
+            rowCount += chunk.timestamps.size();
+            malformedRowCount += chunk.malformedRowCount;
+        }
+        int[] timestampCol = new int[rowCount];
+        short[] stationCol = new short[rowCount];
+        float[] temperatureCol = new float[rowCount];
+        float[] humidityCol = new float[rowCount];
+        int offset = 0;
+        for (ChunkResult chunk : chunkResults) {
+            int chunkRows = chunk.timestamps.size();
+            System.arraycopy(chunk.timestamps.toArray(), 0, timestampCol, offset, chunkRows);
+            System.arraycopy(chunk.temperatures.toArray(), 0, temperatureCol, offset, chunkRows);
+            System.arraycopy(chunk.humidities.toArray(), 0, humidityCol, offset, chunkRows);
+            // translate chunk-local station codes into codes of the shared dictionary
+            short[] globalCodes = new short[chunk.stations.size()];
+            for (int i=0; i<globalCodes.length; i++) {
+                globalCodes[i] = stationDictionary.encode(chunk.stations.decode((short) i));
+            }
+            for (int i=0; i<chunkRows; i++) {
+                stationCol[offset + i] = globalCodes[chunk.stationCodes.get(i)];
+            }
+            offset += chunkRows;
+        }
+        return new CsvIngest(timestampCol, stationCol, temperatureCol, humidityCol, malformedRowCount,
+                System.nanoTime() - startTime);
+    }
+
+    public int[] getTimestampCol() {
+        return timestampCol;
+    }
+
+    public short[] getStationCol() {
+        return stationCol;
+    }
+
+    public float[] getTemperatureCol() {
+        return temperatureCol;
+    }
+
+    public float[] getHumidityCol() {
+        return humidityCol;
+    }
+
+    public int getRowCount() {
+        return timestampCol.length;
+    }
+
+    public long getMalformedRowCount() {
+        return malformedRowCount;
+    }
+
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : getRowCount() * 1e9 / elapsedNanos;
+    }
+
+    public String getSummary() {
+        return String.format("Read %d rows in %d ms (%.0f rows/s), skipped %d malformed rows",
+                getRowCount(), elapsedNanos / 1_000_000, getRowsPerSecond(), malformedRowCount);
+    }
+
+    /**
+     * @return [start, end) byte ranges covering the file after the header line, each ending just after a newline.
+     */
+    private static List<long[]> splitOnLineBoundaries(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        List<long[]> ranges = new ArrayList<>();
+        long start = findNextLineStart(channel, 0, fileSize);
+        while (start < fileSize) {
+            long end = Math.min(fileSize, start + TARGET_CHUNK_SIZE);
+            if (end < fileSize) {
+                end = findNextLineStart(channel, end, fileSize);
+            }
+            ranges.add(new long[] {start, end});
+            start = end;
+        }
+        return ranges;
+    }
+
+    private static long findNextLineStart(FileChannel channel, long from, long fileSize) throws IOException {
+        int window = 4096;
+        while (from < fileSize) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(window, fileSize - from));
+            for (int i=0; i<buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    return from + i + 1;
+                }
+            }
+            from += buffer.limit();
+        }
+        return fileSize;
+    }
+
+    private static ChunkResult parseChunk(FileChannel channel, long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        try {
+            channel.map(FileChannel.MapMode.READ_ONLY, start, end - start).get(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ChunkResult result = new ChunkResult(bytes.length / 40);
+        int[] fieldStarts = new int[FIELD_COUNT];
+        int[] fieldEnds = new int[FIELD_COUNT];
+        int lineStart = 0;
+        while (lineStart < bytes.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < bytes.length && bytes[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int contentEnd = lineEnd > lineStart && bytes[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+            if (contentEnd > lineStart) {
+                parseLine(bytes, lineStart, contentEnd, fieldStarts, fieldEnds, result);
+            }
+            lineStart = lineEnd + 1;
+        }
+        return result;
+    }
+
+    /**
+     * Splits the line into fields and adds it to the result. Escaped quotes of quoted fields are unescaped in place.
+     */
+    private static void parseLine(byte[] bytes, int start, int end, int[] fieldStarts, int[] fieldEnds, ChunkResult result) {
+        int fieldCount = 0;
+        int i = start;
+        while (fieldCount < FIELD_COUNT + 1) {
+            int fieldStart = i;
+            int fieldEnd;
+            if (i < end && bytes[i] == '"') {
+                // the unescaped value is written over the quoted one, which is never shorter
+                fieldStart = i + 1;
+                int write = fieldStart;
+                boolean closed = false;
+                for (i++; i < end; i++) {
+                    if (bytes[i] == '"') {
+                        if (i + 1 < end && bytes[i + 1] == '"') {
+                            bytes[write++] = '"';
+                            i++;
+                            continue;
+                        }
+                        closed = true;
+                        i++;
+                        break;
+                    }
+                    bytes[write++] = bytes[i];
+                }
+                if (!closed || (i < end && bytes[i] != ',')) {
+                    result.malformedRowCount++;
+                    return;
+                }
+                fieldEnd = write;
+            } else {
+                while (i < end && bytes[i] != ',') {
+                    i++;
+                }
+                fieldEnd = i;
+            }
+            if (fieldCount < FIELD_COUNT) {
+                fieldStarts[fieldCount] = fieldStart;
+                fieldEnds[fieldCount] = fieldEnd;
+            }
+            fieldCount++;
+            if (i >= end) {
+                break;
+            }
+            // skip the comma
+            i++;
+        }
+        if (fieldCount != FIELD_COUNT) {
+            result.malformedRowCount++;
+            return;
+        }
+        int timestamp = Parser.timestampBytesToEpochMinute(bytes, fieldStarts[1], fieldEnds[1] - fieldStarts[1]);
+        if (timestamp == Parser.INVALID_TIMESTAMP) {
+            result.malformedRowCount++;
+            return;
+        }
+        result.timestamps.add(timestamp);
+        result.stationCodes.add(result.encodeStation(bytes, fieldStarts[2], fieldEnds[2]));
+        result.temperatures.add(parseFloat(bytes, fieldStarts[3], fieldEnds[3]));
+        result.humidities.add(parseFloat(bytes, fieldStarts[4], fieldEnds[4]));
+    }
+
+    /**
+     * Parses a decimal value without creating a String when it has at most 7 digits and 10 decimals, in which case
+     * a single float division is correctly rounded. Other values go through Parser.stringToFloat, so values that
+     * cannot be parsed become Float.MAX_VALUE as before.
+     */
+    static float parseFloat(byte[] bytes, int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (bytes[pos] == '-' || bytes[pos] == '+')) {
+            negative = bytes[pos] == '-';
+            pos++;
+        }
+        int mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        boolean hasDigits = false;
+        for (; pos < end; pos++) {
+            byte b = bytes[pos];
+            if (b >= '0' && b <= '9') {
+                hasDigits = true;
+                if (digits > 0 || b != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (b == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                break;
+            }
+        }
+        if (pos == end && hasDigits && digits <= 7 && decimals <= 10) {
+            float value = decimals > 0 ? mantissa / FLOAT_POWERS_OF_TEN[decimals] : mantissa;
+            return negative ? -value : value;
+        }
+        return Parser.stringToFloat(new String(bytes, start, end - start, StandardCharsets.UTF_8).trim());
+    }
+
+    /**
+     * Columns parsed from one chunk, with station codes local to the chunk.
+     */
+    private static class ChunkResult {
+        private final IntVector timestamps;
+        private final ShortVector stationCodes;
+        private final FloatVector temperatures;
+        private final FloatVector humidities;
+        private final StationDictionary stations = new StationDictionary();
+        private long malformedRowCount;
+        // raw bytes of each local station name, compared against the next row before creating a String
+        private byte[][] stationBytes = new byte[4][];
+        private int lastStationCode = -1;
+
+        ChunkResult(int expectedRows) {
+            timestamps = new IntVector(expectedRows);
+            stationCodes = new ShortVector(expectedRows);
+            temperatures = new FloatVector(expectedRows);
+            humidities = new FloatVector(expectedRows);
+        }
+
+        short encodeStation(byte[] bytes, int start, int end) {
+            // consecutive rows usually repeat one of a handful of stations
+            if (lastStationCode >= 0 && sameBytes(stationBytes[lastStationCode], bytes, start, end)) {
+                return (short) lastStationCode;
+            }
+            for (int code=0; code<stations.size(); code++) {
+                if (sameBytes(stationBytes[code], bytes, start, end)) {
+                    lastStationCode = code;
+                    return (short) code;
+                }
+            }
+            short code = stations.encode(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+            if (code == stationBytes.length) {
+                stationBytes = Arrays.copyOf(stationBytes, stationBytes.length * 2);
+            }
+            stationBytes[code] = Arrays.copyOfRange(bytes, start, end);
+            lastStationCode = code;
+            return code;
+        }
+
+        private static boolean sameBytes(byte[] name, byte[] bytes, int start, int end) {
+            return Arrays.equals(name, 0, name.length, bytes, start, end);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.milestone1;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes result rows to a CSV file with the Date,Station,Category,Value header through one buffered writer.
+ */
+public class CsvResultSink implements ResultSink {
+    public static final String HEADER = "Date,Station,Category,Value\n";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer writer;
+    // rows of one month come in runs of the same day, so the date string of the previous row is often reused
+    private int lastEpochDay = Integer.MIN_VALUE;
+    private String lastDate;
+
+    /**
+     * @param append adds rows to the end of an existing file instead of starting a new file with the header
+     */
+    public CsvResultSink(String filePath, boolean append) throws IOException {
+        StandardOpenOption[] options = append
+                ? new StandardOpenOption[] {StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND}
+                : new StandardOpenOption[] {StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING};
+        writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(Paths.get(filePath), options), StandardCharsets.UTF_8),
+                BUFFER_SIZE);
+        if (!append) {
+            writer.write(HEADER);
+        }
+    }
+
+    @Override
+    public void write(int epochDay, String station, String category, float value) throws IOException {
+        if (epochDay != lastEpochDay) {
+            lastEpochDay = epochDay;
+            lastDate = Parser.epochMinuteToDateString(epochDay * Parser.MINUTES_PER_DAY);
+        }
+        writer.write(lastDate);
+        writer.write(',');
+        writer.write(station);
+        writer.write(',');
+        writer.write(category);
+        writer.write(',');
+        writer.write(Float.toString(value));
+        writer.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,155 @@
+package com.milestone1;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Writes synthetic weather CSV files with the layout of SingaporeWeather.csv (id,Timestamp,Station,Temperature,Humidity)
+ * at any size, for benchmarks and scaling tests.
+ *
+ * Output is deterministic: the same parameters and seed give the same file byte for byte. Rows are spread evenly over
+ * the years, so a single year selects about 1/yearCount of the rows. Within a year every time step has one reading per
+ * station, time steps are evenly spaced and shrink as rows are added, down to several readings per minute. Stations are
+ * "Changi", "Paya Lebar" and then "Station 3", "Station 4" and so on. About 0.1% of temperatures and 0.2% of humidity
+ * values are missing and written as "M".
+ */
+public class DataGenerator {
+    public static final long DEFAULT_SEED = 42;
+    private static final String[] KNOWN_STATIONS = {"Changi", "Paya Lebar"};
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final int stationCount;
+    private final int firstYear;
+    private final int yearCount;
+    private final long seed;
+
+    public DataGenerator(int stationCount, int firstYear, int yearCount, long seed) {
+        if (stationCount < 1 || stationCount > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Station count must be between 1 and " + Short.MAX_VALUE);
+        }
+        if (yearCount < 1) {
+            throw new IllegalArgumentException("Year count must be at least 1");
+        }
+        this.stationCount = stationCount;
+        this.firstYear = firstYear;
+        this.yearCount = yearCount;
+        this.seed = seed;
+    }
+
+    public static String stationName(int station) {
+        return station < KNOWN_STATIONS.length ? KNOWN_STATIONS[station] : "Station " + (station + 1);
+    }
+
+    /**
+     * Writes a CSV file with a header line and rowCount rows.
+     */
+    public void write(String filePath, long rowCount) throws IOException {
+        byte[][] stationNames = new byte[stationCount][];
+        for (int station=0; station<stationCount; station++) {
+            stationNames[station] = stationName(station).getBytes(StandardCharsets.US_ASCII);
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        LineBuffer line = new LineBuffer();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filePath), BUFFER_SIZE)) {
+            out.write("id,Timestamp,Station,Temperature,Humidity\n".getBytes(StandardCharsets.US_ASCII));
+            long id = 0;
+            for (int year=firstYear; year<firstYear + yearCount; year++) {
+                long yearRows = rowCount * (year - firstYear + 1) / yearCount - rowCount * (year - firstYear) / yearCount;
+                long steps = (yearRows + stationCount - 1) / stationCount;
+                long yearStart = Parser.yearToEpochMinute(year);
+                long yearMinutes = Parser.yearToEpochMinute(year + 1) - yearStart;
+                for (long row=0; row<yearRows; row++, id++) {
+                    int timestamp = (int) (yearStart + row / stationCount * yearMinutes / steps);
+                    line.reset();
+                    line.appendLong(id).append(',');
+                    line.append(Parser.epochMinuteToTimestampString(timestamp)).append(',');
+                    line.append(stationNames[(int) (row % stationCount)]).append(',');
+                    if (random.nextInt(1000) == 0) {
+                        line.append('M');
+                    } else {
+                        line.appendLong(22 + random.nextInt(14)).append('.').append('0');
+                    }
+                    line.append(',');
+                    if (random.nextInt(500) == 0) {
+                        line.append('M');
+                    } else {
+                        int hundredths = 5000 + random.nextInt(5001);
+                        line.appendLong(hundredths / 100).append('.').append((char) ('0' + hundredths / 10 % 10))
+                                .append((char) ('0' + hundredths % 10));
+                    }
+                    line.append('\n');
+                    out.write(line.bytes, 0, line.length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Usage: DataGenerator output.csv rowCount [stationCount] [firstYear] [yearCount] [seed]
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: DataGenerator output.csv rowCount [stationCount] [firstYear] [yearCount] [seed]");
+            return;
+        }
+        long rowCount = Long.parseLong(args[1]);
+        int stationCount = args.length > 2 ? Integer.parseInt(args[2]) : KNOWN_STATIONS.length;
+        int firstYear = args.length > 3 ? Integer.parseInt(args[3]) : 2002;
+        int yearCount = args.length > 4 ? Integer.parseInt(args[4]) : 14;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : DEFAULT_SEED;
+        try {
+            long startTime = System.nanoTime();
+            new DataGenerator(stationCount, firstYear, yearCount, seed).write(args[0], rowCount);
+            System.out.println("Generated " + rowCount + " rows in " + args[0] + " in "
+                    + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    // ASCII line assembled without going through String and charset encoding for every field
+    private static class LineBuffer {
+        private byte[] bytes = new byte[128];
+        private int length;
+
+        void reset() {
+            length = 0;
+        }
+
+        LineBuffer append(char c) {
+            ensureCapacity(1);
+            bytes[length++] = (byte) c;
+            return this;
+        }
+
+        LineBuffer append(byte[] value) {
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, bytes, length, value.length);
+            length += value.length;
+            return this;
+        }
+
+        LineBuffer append(String value) {
+            ensureCapacity(value.length());
+            for (int i=0; i<value.length(); i++) {
+                bytes[length++] = (byte) value.charAt(i);
+            }
+            return this;
+        }
+
+        LineBuffer appendLong(long value) {
+            return append(Long.toString(value));
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+}
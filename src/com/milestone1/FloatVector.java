@@ -0,0 +1,43 @@
+package com.milestone1;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive floats used to build columns without boxing.
+ */
+public class FloatVector {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private float[] values;
+    private int size;
+
+    public FloatVector() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public FloatVector(int initialCapacity) {
+        values = new float[Math.max(initialCapacity, 1)];
+    }
+
+    public void add(float value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    public float get(int index) {
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return copy of the values trimmed to the number of elements added.
+     */
+    public float[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -1,87 +1,131 @@
 package com.milestone1;
-import com.opencsv.CSVReader;
 
 import java.io.*;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.Month;
 import java.util.*;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * Handles reading and writing of CSV files.
  */
 public class IOManager {
-    private static ArrayList<String> idCol = new ArrayList<>();
-    private static ArrayList<String> timestampCol = new ArrayList<>();
-    private static ArrayList<String> stationCol = new ArrayList<>();
-    private static ArrayList<Float> temperatureCol = new ArrayList<>();
-    private static ArrayList<Float> humidityCol = new ArrayList<>();
-    private static ArrayList<ArrayList<?>> data = new ArrayList<>();
-
-    public static ArrayList<ArrayList<?>> readCsv() {
-        CSVReader reader = null;
-        try {
-            //parsing a CSV file into CSVReader class constructor
-            reader = new CSVReader(new FileReader("SingaporeWeather.csv"));
+    private static final String NEW_PARTITION_DIRECTORY = PartitionManifest.DIRECTORY + ".new";
+    private static final String OLD_PARTITION_DIRECTORY = PartitionManifest.DIRECTORY + ".old";
+    private static final String[] PARTITION_COLUMNS = {"timestamp", "temperature", "humidity"};
+    private static final byte[] PARTITION_COLUMN_TYPES = {ColumnFile.TYPE_INT32, ColumnFile.TYPE_FLOAT32, ColumnFile.TYPE_FLOAT32};
+
+    public static ColumnData readCsv() {
+        return readCsv("SingaporeWeather.csv");
+    }
+
+    /**
+     * Reads the weather CSV file at filePath into columns and saves them to disk.
+     */
+    public static ColumnData readCsv(String filePath) {
+        StationDictionary stationDictionary = new StationDictionary();
+        int[] timestamps = new int[0];
+        short[] stations = new short[0];
+        float[] temperatures = new float[0];
+        float[] humidities = new float[0];
+        try {
             System.out.println("Reading CSV file..");
-            String[] nextLine;
-            //reads one line at a time
-            int nextCol = 0;
-            reader.readNext();
-            while ((nextLine = reader.readNext()) != null) {
-                for(String token : nextLine) {
-                    switch(nextCol) {
-                        case 0:
-                            idCol.add(token);
-                            nextCol++;
-                            break;
-                        case 1:
-                            timestampCol.add(token);
-                            nextCol++;
-                            break;
-                        case 2:
-                            stationCol.add(token);
-                            nextCol++;
-                            break;
-                        case 3:
-                            temperatureCol.add(Parser.stringToFloat(token));
-                            nextCol++;
-                            break;
-                        case 4:
-                            humidityCol.add(Parser.stringToFloat(token));
-                            nextCol = 0;
-                            break;
-                    }
-                }
-            }
-        }
-        catch (Exception e) {
-            e.printStackTrace();
+            CsvIngest ingest = CsvIngest.parse(filePath, stationDictionary);
+            System.out.println(ingest.getSummary());
+            timestamps = ingest.getTimestampCol();
+            stations = ingest.getStationCol();
+            temperatures = ingest.getTemperatureCol();
+            humidities = ingest.getHumidityCol();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
         }
-        Collections.addAll(data, idCol, timestampCol, stationCol, temperatureCol, humidityCol);
+        // building the derived structures of the columns, see ColumnData
+        IntBuffer timestampCol = IntBuffer.wrap(timestamps);
+        ShortBuffer stationCol = ShortBuffer.wrap(stations);
+        FloatBuffer temperatureCol = FloatBuffer.wrap(temperatures);
+        FloatBuffer humidityCol = FloatBuffer.wrap(humidities);
+        int rowCount = timestamps.length;
+        FloatBuffer[] metricCols = {temperatureCol, humidityCol};
+        ColumnData data = new ColumnData(timestampCol, stationCol, temperatureCol, humidityCol, stationDictionary,
+                ZoneMap.build(timestampCol, rowCount), ZoneMap.build(temperatureCol, rowCount), ZoneMap.build(humidityCol, rowCount),
+                MonthlyAggregateCube.build(timestampCol, stationCol, metricCols, rowCount),
+                MonthlyQuantileCube.build(timestampCol, stationCol, metricCols, rowCount),
+                StationIndex.build(stationCol, stationDictionary.size(), rowCount), TimestampIndex.build(timestampCol, rowCount),
+                ColumnStatistics.build(timestampCol, stationCol, stationDictionary.size(), rowCount), rowCount);
 
         // saving columns into disk for task 2
-        saveColumnAsTxt("timestamp", timestampCol);
-        saveColumnAsTxt("station", stationCol);
-        saveColumnAsTxt("temperature", temperatureCol);
-        saveColumnAsTxt("humidity", humidityCol);
+        saveColumnsToDisk(data);
 
         return data;
     }
 
+    /**
+     * Maps the column files saved by an earlier run into memory instead of parsing the CSV file. The columns are not
+     * copied onto the heap, they are read straight from the page cache of the operating system. Zone maps, monthly
+     * aggregates and sketches, indexes and statistics are read from disk as well, or rebuilt if they are out of date.
+     * Every file is read from the current version, see ColumnVersion. saveColumnsToDisk writes a new version instead of
+     * overwriting the files, so the mapping keeps reading the rows it was made from, and appending only extends the
+     * files past the mapped rows.
+     * @return mapped columns, or null if the column files could not be read
+     */
+    public static ColumnData mapColumnsFromDisk() {
+        try {
+            System.out.println("Mapping column files..");
+            ColumnVersion columnVersion = ColumnVersion.load();
+            IntBuffer timestampCol = ColumnFile.mapValues(columnVersion.getFileName("timestamp"), ColumnFile.TYPE_INT32).asIntBuffer();
+            ShortBuffer stationCol = ColumnFile.mapValues(columnVersion.getFileName("station"), ColumnFile.TYPE_INT16).asShortBuffer();
+            FloatBuffer temperatureCol = ColumnFile.mapValues(columnVersion.getFileName("temperature"), ColumnFile.TYPE_FLOAT32)
+                    .asFloatBuffer();
+            FloatBuffer humidityCol = ColumnFile.mapValues(columnVersion.getFileName("humidity"), ColumnFile.TYPE_FLOAT32)
+                    .asFloatBuffer();
+            int rowCount = timestampCol.capacity();
+            if (stationCol.capacity() != rowCount || temperatureCol.capacity() != rowCount || humidityCol.capacity() != rowCount) {
+                throw new IOException("Column files on disk have different row counts");
+            }
+            StationDictionary stationDictionary = StationDictionary.load(columnVersion.getFileName("station"));
+            ZoneMap timestampZoneMap = loadZoneMap(columnVersion, "timestamp", rowCount);
+            ZoneMap temperatureZoneMap = loadZoneMap(columnVersion, "temperature", rowCount);
+            ZoneMap humidityZoneMap = loadZoneMap(columnVersion, "humidity", rowCount);
+            MonthlyAggregateCube monthlyCube = getMonthlyCubeFromDisk(columnVersion, rowCount);
+            MonthlyQuantileCube monthlyQuantiles = loadMonthlyQuantiles(columnVersion, rowCount);
+            StationIndex stationIndex = loadStationIndex(columnVersion, rowCount);
+            TimestampIndex timestampIndex = loadTimestampIndex(columnVersion, rowCount);
+            ColumnStatistics statistics = loadColumnStatistics(columnVersion, rowCount);
+            System.out.println("Mapped " + rowCount + " rows");
+            FloatBuffer[] metricCols = {temperatureCol, humidityCol};
+            return new ColumnData(timestampCol, stationCol, temperatureCol, humidityCol, stationDictionary,
+                    timestampZoneMap != null ? timestampZoneMap : ZoneMap.build(timestampCol, rowCount),
+                    temperatureZoneMap != null ? temperatureZoneMap : ZoneMap.build(temperatureCol, rowCount),
+                    humidityZoneMap != null ? humidityZoneMap : ZoneMap.build(humidityCol, rowCount),
+                    monthlyCube != null ? monthlyCube : MonthlyAggregateCube.build(timestampCol, stationCol, metricCols, rowCount),
+                    monthlyQuantiles != null ? monthlyQuantiles
+                            : MonthlyQuantileCube.build(timestampCol, stationCol, metricCols, rowCount),
+                    stationIndex != null ? stationIndex : StationIndex.build(stationCol, stationDictionary.size(), rowCount),
+                    timestampIndex != null ? timestampIndex : TimestampIndex.build(timestampCol, rowCount),
+                    statistics != null ? statistics
+                            : ColumnStatistics.build(timestampCol, stationCol, stationDictionary.size(), rowCount),
+                    rowCount);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Creates blank CSV file with result headers.
      */
     public static void createOutputFilesWithHeaders() {
         try {
-            FileWriter writer1 = new FileWriter("ScanResult.csv");
-            writer1.append("Date,Station,Category,Value\n");
-            writer1.flush();
-
-            FileWriter writer2 = new FileWriter("ScanResult (Disk).csv");
-            writer2.append("Date,Station,Category,Value\n");
-            writer2.flush();
+            // a new sink writes the header, closing it right away leaves only the header
+            new CsvResultSink("ScanResult.csv", false).close();
+            new CsvResultSink("ScanResult (Disk).csv", false).close();
         } catch (IOException e) {
             System.out.println(e.getMessage());
         }
@@ -94,80 +138,660 @@ public class IOManager {
      */
     public static void processOutputResults(HashMap<String, HashMap<Month, ArrayList<RowEntry>>> results, String station, String fileName) {
         String filePath = fileName + ".csv";
-        try {
-            FileWriter writer = new FileWriter(filePath, true);
+        try (ResultSink sink = new CsvResultSink(filePath, true)) {
             System.out.println("Writing query results to " + filePath);
-            for (Map.Entry<String, HashMap<Month, ArrayList<RowEntry>>> entry : results.entrySet()) {
-                String category = entry.getKey();
-                HashMap<Month, ArrayList<RowEntry>> monthlyResults = entry.getValue();
-                for (ArrayList<RowEntry> monthlyOutputRows : monthlyResults.values()) {
-                    for (int i=0; i<monthlyOutputRows.size(); i++) {
-                        String value = monthlyOutputRows.get(i).getValue().toString();
-                        String date = monthlyOutputRows.get(i).getDate();
-                        writer.append(date + ",");
-                        writer.append(station + ",");
-                        writer.append(category + ",");
-                        writer.append(value + "\n");
-                    }
+            writeResults(results, station, sink);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Writes every row of a query result to the sink.
+     * @param station Location the results are of.
+     */
+    public static void writeResults(HashMap<String, HashMap<Month, ArrayList<RowEntry>>> results, String station,
+                                    ResultSink sink) throws IOException {
+        for (Map.Entry<String, HashMap<Month, ArrayList<RowEntry>>> entry : results.entrySet()) {
+            String category = entry.getKey();
+            for (ArrayList<RowEntry> monthlyOutputRows : entry.getValue().values()) {
+                for (RowEntry row : monthlyOutputRows) {
+                    sink.write(row.getEpochDay(), station, category, row.getValue());
                 }
             }
-            writer.flush();
+        }
+    }
+
+    /**
+     * Stores each column as a binary column file on disk, see ColumnFile for the format, together with its zone map.
+     * The columns are also stored partitioned by year and station, see savePartitionsToDisk.
+     * Writers of the files on disk are serialized, see appendEncodedRows.
+     *
+     * The files are written as a new version that replaces the current one once it is complete, see ColumnVersion, so
+     * queries read either every column of the old version or every column of the new one. The version before the new
+     * one is kept for queries that are still reading it and deleted by the next rewrite.
+     * @param data columns to be stored
+     */
+    public static synchronized void saveColumnsToDisk(ColumnData data) {
+        try {
+            ColumnVersion previous = getColumnVersionFromDisk();
+            ColumnVersion columnVersion = ColumnVersion.create();
+            ColumnFile.writeInts(columnVersion.getFileName("timestamp"), data.getTimestampCol(), data.getRowCount());
+            ColumnFile.writeShorts(columnVersion.getFileName("station"), data.getStationCol(), data.getRowCount(),
+                    ColumnFile.ENCODING_DICTIONARY);
+            ColumnFile.writeFloats(columnVersion.getFileName("temperature"), data.getTemperatureCol(), data.getRowCount());
+            ColumnFile.writeFloats(columnVersion.getFileName("humidity"), data.getHumidityCol(), data.getRowCount());
+            saveDerivedFilesToDisk(columnVersion, data, true);
+            columnVersion.publish();
+            deleteColumnVersions(columnVersion, previous);
+            savePartitionsToDisk(data);
         } catch (IOException e) {
             System.out.println(e.getMessage());
+        } finally {
+            // bumped after writing, so results of queries that read the old files are not cached
+            QueryResultCache.invalidate(QueryResultCache.Source.DISK);
         }
+    }
 
+    /**
+     * Parses a CSV file of new readings with the same header and layout as SingaporeWeather.csv and appends its rows to the
+     * columns in memory and on disk, see appendRows.
+     * @param filePath CSV file holding only the new rows
+     */
+    public static void appendCsv(String filePath) {
+        if (ColumnarMemory.getColumnData() == null) {
+            throw new IllegalStateException("Columns must be loaded into memory before appending");
+        }
+        try {
+            System.out.println("Appending CSV file " + filePath + "..");
+            // encoded with its own dictionary, so parsing does not modify the dictionary of the columns being queried
+            StationDictionary stationDictionary = new StationDictionary();
+            CsvIngest ingest = CsvIngest.parse(filePath, stationDictionary);
+            System.out.println(ingest.getSummary());
+            appendEncodedRows(ingest.getTimestampCol(), ingest.getStationCol(), stationDictionary, ingest.getTemperatureCol(),
+                    ingest.getHumidityCol(), ingest.getRowCount());
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
 
+    /**
+     * Appends rows to the columns in memory and on disk without rewriting the stored rows.
+     * The column files are extended in place, while zone maps, monthly aggregates and the station dictionary are
+     * updated for the new rows and saved again.
+     * @param timestamps epoch minutes, see Parser.timestampStringToEpochMinute
+     * @param stations station names, new names are added to the station dictionary
+     */
+    public static void appendRows(int[] timestamps, String[] stations, float[] temperatures, float[] humidities) {
+        if (ColumnarMemory.getColumnData() == null) {
+            throw new IllegalStateException("Columns must be loaded into memory before appending");
+        }
+        StationDictionary stationDictionary = new StationDictionary();
+        short[] stationCodes = new short[stations.length];
+        for (int i=0; i<stations.length; i++) {
+            stationCodes[i] = stationDictionary.encode(stations[i]);
+        }
+        appendEncodedRows(timestamps, stationCodes, stationDictionary, temperatures, humidities, timestamps.length);
     }
 
     /**
-     * Stores column of data as txt file on disk.
-     * @param fileName name of columnar file to be created
-     * @param columnArr column array of values to be stored
+     * Publishes the rows as a new snapshot of the columns in memory, then appends them to the files on disk.
+     * Appends are serialized with each other and with saveColumnsToDisk, so the files get the rows in the same order as
+     * memory and an append never interleaves with a rewrite of the same files.
+     * @param stationCodes codes of the rows in the stationDictionary of the new rows
      */
-    public static void saveColumnAsTxt(String fileName, ArrayList<?> columnArr) {
-        String filePath = fileName + ".txt";
-        File fout = new File(filePath);
-        try (FileOutputStream fos = new FileOutputStream(fout); BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fos));) {
-            for (Object item : columnArr) {
-                bw.write(item.toString());
-                bw.newLine();
+    private static synchronized void appendEncodedRows(int[] timestamps, short[] stationCodes, StationDictionary stationDictionary,
+                                                       float[] temperatures, float[] humidities, int count) {
+        ColumnData data = ColumnarMemory.update(previous -> {
+            // new stations are added to a copy, the dictionary of the previous snapshot may still be in use
+            StationDictionary dictionary = previous.getStationDictionary();
+            short[] codes = new short[stationDictionary.size()];
+            for (short code=0; code<codes.length; code++) {
+                String station = stationDictionary.decode(code);
+                if (dictionary.lookup(station) == StationDictionary.NOT_FOUND && dictionary == previous.getStationDictionary()) {
+                    dictionary = dictionary.copy();
+                }
+                codes[code] = dictionary.encode(station);
+            }
+            short[] encoded = new short[count];
+            for (int i=0; i<count; i++) {
+                encoded[i] = codes[stationCodes[i]];
             }
+            return previous.appendRows(timestamps, encoded, dictionary, temperatures, humidities, count);
+        });
+        appendColumnsToDisk(data, data.getRowCount() - count);
+        System.out.println("Appended " + count + " rows, " + data.getRowCount() + " rows in total");
+    }
+
+    /**
+     * Appends rows [firstNewRow, rowCount) of the columns to the column files on disk. If the files do not hold
+     * exactly the rows before firstNewRow, they are rewritten instead.
+     */
+    private static synchronized void appendColumnsToDisk(ColumnData data, int firstNewRow) {
+        ColumnVersion columnVersion = getColumnVersionFromDisk();
+        if (getRowCountFromDisk(columnVersion) != firstNewRow) {
+            System.out.println("Column files are out of date, rewriting them");
+            saveColumnsToDisk(data);
+            return;
+        }
+        try {
+            ColumnFile.appendInts(columnVersion.getFileName("timestamp"), data.getTimestampCol(), firstNewRow, data.getRowCount());
+            ColumnFile.appendShorts(columnVersion.getFileName("station"), data.getStationCol(), firstNewRow, data.getRowCount());
+            ColumnFile.appendFloats(columnVersion.getFileName("temperature"), data.getTemperatureCol(), firstNewRow, data.getRowCount());
+            ColumnFile.appendFloats(columnVersion.getFileName("humidity"), data.getHumidityCol(), firstNewRow, data.getRowCount());
+            // the indexes only cover the new rows if the append rebuilt them, otherwise the files on disk are current
+            saveDerivedFilesToDisk(columnVersion, data, data.getTimestampIndex().getRowCount() > firstNewRow);
+            appendPartitionsToDisk(data, firstNewRow);
         } catch (IOException e) {
             System.out.println(e.getMessage());
+        } finally {
+            QueryResultCache.invalidate(QueryResultCache.Source.DISK);
         }
     }
 
     /**
-     * Retrieves the entire column of data from the file on disk.
-     * @param fileName file to read
-     * @return List of values of the column
+     * Saves the station dictionary, zone maps, monthly aggregates and sketches, statistics and indexes that go with the
+     * column files into their version.
+     * @param saveIndexes false to keep the index files, which are large and unchanged by most appends
      */
-    public static List<String> getWholeColumnFromDisk(String fileName) {
-        String filePath = fileName + ".txt";
-        List<String> column = Collections.emptyList();
+    private static void saveDerivedFilesToDisk(ColumnVersion columnVersion, ColumnData data, boolean saveIndexes) throws IOException {
+        data.getStationDictionary().save(columnVersion.getFileName("station"));
+        data.getTimestampZoneMap().save(columnVersion.getFileName("timestamp"));
+        data.getTemperatureZoneMap().save(columnVersion.getFileName("temperature"));
+        data.getHumidityZoneMap().save(columnVersion.getFileName("humidity"));
+        data.getMonthlyCube().save(columnVersion.getFileName("monthly"));
+        data.getMonthlyQuantiles().save(columnVersion.getFileName("monthly"));
+        data.getStatistics().save(columnVersion.getFileName("columns"));
+        if (saveIndexes) {
+            data.getStationIndex().save(columnVersion.getFileName("station"));
+            data.getTimestampIndex().save(columnVersion);
+        }
+    }
+
+    /**
+     * Deletes the directory of every column version other than the two given ones, including versions left
+     * unpublished by an interrupted rewrite.
+     */
+    private static void deleteColumnVersions(ColumnVersion current, ColumnVersion previous) throws IOException {
+        for (ColumnVersion columnVersion : ColumnVersion.list()) {
+            if (columnVersion.getNumber() != current.getNumber() && columnVersion.getNumber() != previous.getNumber()) {
+                deleteDirectory(columnVersion.getDirectory());
+            }
+        }
+    }
+
+    /**
+     * Writes the columns partitioned by year and station, one directory of column files per partition, together with
+     * the partition manifest. The flat column files stay the complete copy of the columns, the partitions let a year
+     * and station query read only the rows of its year and station.
+     *
+     * The partitions are written to a new directory that replaces the old one once it is complete, so readers see
+     * either the old or the new partitions, or briefly none and scan the columns instead. Partitions whose rows did
+     * not change are linked from the old directory rather than written again, so reloading the same data only
+     * writes the manifest.
+     */
+    private static void savePartitionsToDisk(ColumnData data) throws IOException {
+        deleteDirectory(NEW_PARTITION_DIRECTORY);
+        deleteDirectory(OLD_PARTITION_DIRECTORY);
+        TreeMap<Long, IntVector> partitionRows = PartitionManifest.groupRows(data.getTimestampCol(), data.getStationCol(),
+                0, data.getRowCount());
+        PartitionManifest manifest = PartitionManifest.empty().addRows(partitionRows, data.getTimestampCol(),
+                data.getTemperatureCol(), data.getHumidityCol(), data.getRowCount());
+        PartitionManifest previous = loadPartitionManifest();
+        Files.createDirectories(Paths.get(NEW_PARTITION_DIRECTORY));
+        for (Map.Entry<Long, IntVector> partition : partitionRows.entrySet()) {
+            long key = partition.getKey();
+            if (previous != null && manifest.hasSameRows(previous, key) && isPartitionOnDisk(key, manifest.getPartitionRowCount(key))) {
+                linkPartition(key);
+            } else {
+                writePartition(NEW_PARTITION_DIRECTORY, key, partition.getValue(), data, false);
+            }
+        }
+        manifest.save(NEW_PARTITION_DIRECTORY);
+        // the new partition files take the names of the old ones, see BufferPool.beginReplace
+        Set<Long> keys = new HashSet<>(manifest.getPartitionKeys());
+        if (previous != null) {
+            keys.addAll(previous.getPartitionKeys());
+        }
+        List<String> fileNames = new ArrayList<>();
+        for (long key : keys) {
+            for (String column : PARTITION_COLUMNS) {
+                fileNames.add(PartitionManifest.getColumnFileName(PartitionManifest.DIRECTORY, key, column));
+            }
+        }
+        for (String fileName : fileNames) {
+            BufferPool.beginReplace(fileName);
+        }
+        try {
+            Path directory = Paths.get(PartitionManifest.DIRECTORY);
+            if (Files.exists(directory)) {
+                Files.move(directory, Paths.get(OLD_PARTITION_DIRECTORY), StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.move(Paths.get(NEW_PARTITION_DIRECTORY), directory, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            for (String fileName : fileNames) {
+                BufferPool.endReplace(fileName);
+            }
+        }
+        deleteDirectory(OLD_PARTITION_DIRECTORY);
+    }
+
+    /**
+     * Appends rows [firstNewRow, rowCount) of the columns to their partitions in place, creating the partitions of
+     * new years and stations, then saves the manifest. If the partitions do not hold exactly the rows before
+     * firstNewRow, they are rewritten instead.
+     */
+    private static void appendPartitionsToDisk(ColumnData data, int firstNewRow) throws IOException {
+        PartitionManifest manifest = loadPartitionManifest(firstNewRow);
+        if (manifest == null) {
+            System.out.println("Partitions are out of date, rewriting them");
+            savePartitionsToDisk(data);
+            return;
+        }
+        TreeMap<Long, IntVector> partitionRows = PartitionManifest.groupRows(data.getTimestampCol(), data.getStationCol(),
+                firstNewRow, data.getRowCount());
+        for (Map.Entry<Long, IntVector> partition : partitionRows.entrySet()) {
+            writePartition(PartitionManifest.DIRECTORY, partition.getKey(), partition.getValue(), data,
+                    manifest.getPartitionRowCount(partition.getKey()) > 0);
+        }
+        // saved last, so partitions are only read once they hold every row the manifest lists
+        manifest.addRows(partitionRows, data.getTimestampCol(), data.getTemperatureCol(), data.getHumidityCol(),
+                data.getRowCount()).save(PartitionManifest.DIRECTORY);
+    }
+
+    /**
+     * Writes the rows to the column files of a partition under the root directory.
+     * @param append true to append the rows to the existing files of the partition
+     */
+    private static void writePartition(String rootDirectory, long key, IntVector rows, ColumnData data, boolean append) throws IOException {
+        IntBuffer timestamps = IntBuffer.allocate(rows.size());
+        FloatBuffer temperatures = FloatBuffer.allocate(rows.size());
+        FloatBuffer humidities = FloatBuffer.allocate(rows.size());
+        for (int i=0; i<rows.size(); i++) {
+            timestamps.put(i, data.getTimestampCol().get(rows.get(i)));
+            temperatures.put(i, data.getTemperatureCol().get(rows.get(i)));
+            humidities.put(i, data.getHumidityCol().get(rows.get(i)));
+        }
+        String timestampFileName = PartitionManifest.getColumnFileName(rootDirectory, key, "timestamp");
+        String temperatureFileName = PartitionManifest.getColumnFileName(rootDirectory, key, "temperature");
+        String humidityFileName = PartitionManifest.getColumnFileName(rootDirectory, key, "humidity");
+        if (append) {
+            ColumnFile.appendInts(timestampFileName, timestamps, 0, rows.size());
+            ColumnFile.appendFloats(temperatureFileName, temperatures, 0, rows.size());
+            ColumnFile.appendFloats(humidityFileName, humidities, 0, rows.size());
+        } else {
+            Files.createDirectories(Paths.get(PartitionManifest.getDirectory(rootDirectory, key)));
+            ColumnFile.writeInts(timestampFileName, timestamps, rows.size());
+            ColumnFile.writeFloats(temperatureFileName, temperatures, rows.size());
+            ColumnFile.writeFloats(humidityFileName, humidities, rows.size());
+        }
+    }
+
+    /**
+     * Links the column files of a partition in the partition directory into the new partition directory, or copies
+     * them if the file system has no links.
+     */
+    private static void linkPartition(long key) throws IOException {
+        Files.createDirectories(Paths.get(PartitionManifest.getDirectory(NEW_PARTITION_DIRECTORY, key)));
+        for (String column : PARTITION_COLUMNS) {
+            Path existing = Paths.get(PartitionManifest.getColumnFileName(PartitionManifest.DIRECTORY, key, column) + ColumnFile.EXTENSION);
+            Path link = Paths.get(PartitionManifest.getColumnFileName(NEW_PARTITION_DIRECTORY, key, column) + ColumnFile.EXTENSION);
+            try {
+                Files.createLink(link, existing);
+            } catch (UnsupportedOperationException e) {
+                Files.copy(existing, link);
+            }
+        }
+    }
+
+    /**
+     * @return true if every column file of the partition in the partition directory holds exactly rowCount rows, so
+     * rows can be appended to it.
+     */
+    private static boolean isPartitionOnDisk(long key, int rowCount) {
+        for (int column=0; column<PARTITION_COLUMNS.length; column++) {
+            try (ColumnFile file = openPartitionColumnFromDisk(
+                    PartitionManifest.getColumnFileName(PartitionManifest.DIRECTORY, key, PARTITION_COLUMNS[column]),
+                    PARTITION_COLUMN_TYPES[column], rowCount)) {
+                if (file.getRowCount() != rowCount) {
+                    return false;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deletes a directory and everything in it, if it exists.
+     */
+    private static void deleteDirectory(String directoryName) throws IOException {
+        Path directory = Paths.get(directoryName);
+        if (!Files.exists(directory)) {
+            return;
+        }
+        // deepest paths first, so directories are empty when they are deleted
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Opens a column file of a partition for reading through the buffer pool, to be closed after use.
+     * @param fileName column file of the partition, see PartitionManifest.getColumnFileName
+     * @param rowCount rows of the partition listed in the manifest
+     * @throws IOException if the file is missing, has another type or holds fewer than rowCount rows
+     */
+    public static ColumnFile openPartitionColumnFromDisk(String fileName, byte type, int rowCount) throws IOException {
+        ColumnFile column = ColumnFile.open(fileName);
+        if (column.getType() != type || column.getRowCount() < rowCount) {
+            column.close();
+            throw new IOException(fileName + ColumnFile.EXTENSION + " does not hold the " + rowCount
+                    + " rows the partition manifest lists");
+        }
+        return column;
+    }
+
+    /**
+     * Resolves the version of the column files on disk that a query reads all of its files from, see ColumnVersion.
+     * @return current version, or version 0 without any files if it could not be read
+     */
+    public static ColumnVersion getColumnVersionFromDisk() {
         try {
-            column = Files.readAllLines(Paths.get(filePath));
+            return ColumnVersion.load();
         } catch (IOException e) {
             System.out.println(e.getMessage());
+            return ColumnVersion.empty();
+        }
+    }
+
+    /**
+     * @return number of rows of the column files of the version, 0 if they could not be read.
+     */
+    public static int getRowCountFromDisk(ColumnVersion columnVersion) {
+        try (ColumnFile timestampCol = getColumnFromDisk(columnVersion, "timestamp", ColumnFile.TYPE_INT32)) {
+            return timestampCol.getRowCount();
         }
-        return column;
     }
 
     /**
-     * Retrieves the value within the file at specified position.
-     * @param fileName file to read
-     * @param pos position of value
-     * @return String value from disk file
+     * Opens a column file of the version for positional reads through the buffer pool, to be closed after use.
+     * @param name column to read, e.g. "timestamp"
+     * @param type expected type of the column values
+     * @return column file, or an empty column if it could not be read
      */
-    public static String getValueFromDisk(String fileName, int pos) {
-        String filePath = fileName + ".txt";
-        String value = "";
-        try (Stream<String> lines = Files.lines(Paths.get(filePath))) {
-            value = lines.skip(pos).findFirst().get();
+    public static ColumnFile getColumnFromDisk(ColumnVersion columnVersion, String name, byte type) {
+        String fileName = columnVersion.getFileName(name);
+        try {
+            ColumnFile column = ColumnFile.open(fileName);
+            if (column.getType() != type) {
+                column.close();
+                throw new IOException(fileName + ColumnFile.EXTENSION + " has type " + column.getType() + " instead of " + type);
+            }
+            return column;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return ColumnFile.empty(type);
+        }
+    }
+
+    /**
+     * Opens a column file for a chunked scan with read-ahead, see ColumnChunkReader.
+     * @param type expected type of the column values
+     * @return reader of the column, or a reader without rows if it could not be read
+     */
+    public static ColumnChunkReader getColumnChunkReaderFromDisk(ColumnVersion columnVersion, String name, byte type) {
+        try {
+            return ColumnChunkReader.open(columnVersion.getFileName(name), type);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return ColumnChunkReader.empty(type);
+        }
+    }
+
+    /**
+     * Fetches the values of an int column at the given positions with a single sequential pass over the column file.
+     * @param name column to read
+     * @param sortedPositions row positions in ascending order
+     * @return values in the same order as the positions
+     */
+    public static int[] fetchIntsFromDisk(ColumnVersion columnVersion, String name, int[] sortedPositions) {
+        try (ColumnFile column = getColumnFromDisk(columnVersion, name, ColumnFile.TYPE_INT32)) {
+            return column.fetchInts(sortedPositions);
+        }
+    }
+
+    public static float[] fetchFloatsFromDisk(ColumnVersion columnVersion, String name, int[] sortedPositions) {
+        try (ColumnFile column = getColumnFromDisk(columnVersion, name, ColumnFile.TYPE_FLOAT32)) {
+            return column.fetchFloats(sortedPositions);
+        }
+    }
+
+    public static short[] fetchShortsFromDisk(ColumnVersion columnVersion, String name, int[] sortedPositions) {
+        try (ColumnFile column = getColumnFromDisk(columnVersion, name, ColumnFile.TYPE_INT16)) {
+            return column.fetchShorts(sortedPositions);
+        }
+    }
+
+    /**
+     * Reads the zone map stored next to a column file.
+     * @param name column the zone map belongs to
+     * @param rowCount number of rows in the column file
+     * @return zone map, or an unbounded zone map if it could not be read or does not match the column
+     */
+    public static ZoneMap getZoneMapFromDisk(ColumnVersion columnVersion, String name, int rowCount) {
+        String fileName = columnVersion.getFileName(name);
+        try {
+            ZoneMap zoneMap = ZoneMap.load(fileName);
+            if (zoneMap.getRowCount() == rowCount) {
+                return zoneMap;
+            }
+            System.out.println(fileName + ZoneMap.EXTENSION + " is out of date, scanning every row");
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+        return ZoneMap.unbounded(rowCount);
+    }
+
+    /**
+     * @return zone map stored on disk, or null if it is missing or does not cover exactly rowCount rows.
+     */
+    private static ZoneMap loadZoneMap(ColumnVersion columnVersion, String name, int rowCount) {
+        try {
+            ZoneMap zoneMap = ZoneMap.load(columnVersion.getFileName(name));
+            return zoneMap.getRowCount() == rowCount ? zoneMap : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the positions of one station from the inverted index stored on disk.
+     * @param rowCount row count of the column files of the version
+     * @return index holding the positions of the station, or null if it is missing or covers more than rowCount rows
+     */
+    public static StationIndex getStationIndexFromDisk(ColumnVersion columnVersion, short stationCode, int rowCount) {
+        try {
+            StationIndex index = StationIndex.load(columnVersion.getFileName("station"), stationCode);
+            if (index.getRowCount() <= rowCount) {
+                return index;
+            }
+            System.out.println(columnVersion.getFileName("station") + StationIndex.EXTENSION + " is out of date, scanning every row");
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Opens a file of the timestamp index stored on disk, see TimestampIndex.lookup.
+     * @param fileName TimestampIndex.KEY_FILE_NAME or TimestampIndex.ROW_FILE_NAME
+     * @param rowCount row count of the column files of the version
+     * @return index file, or an empty file if it could not be read or covers more than rowCount rows
+     */
+    public static ColumnFile getTimestampIndexFileFromDisk(ColumnVersion columnVersion, String fileName, int rowCount) {
+        ColumnFile file = getColumnFromDisk(columnVersion, fileName, ColumnFile.TYPE_INT32);
+        if (file.getRowCount() <= rowCount) {
+            return file;
+        }
+        file.close();
+        System.out.println(columnVersion.getFileName(fileName) + ColumnFile.EXTENSION + " is out of date, scanning every row");
+        return ColumnFile.empty(ColumnFile.TYPE_INT32);
+    }
+
+    /**
+     * @return station index stored on disk, or null if it is missing or covers more than rowCount rows.
+     */
+    private static StationIndex loadStationIndex(ColumnVersion columnVersion, int rowCount) {
+        try {
+            StationIndex index = StationIndex.load(columnVersion.getFileName("station"));
+            return index.getRowCount() <= rowCount ? index : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return number of rows covered by the station index stored on disk, or 0 if it is missing or covers more than
+     * rowCount rows.
+     */
+    public static int getStationIndexRowCountFromDisk(ColumnVersion columnVersion, int rowCount) {
+        try {
+            int indexRowCount = StationIndex.loadRowCount(columnVersion.getFileName("station"));
+            return indexRowCount <= rowCount ? indexRowCount : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return number of rows covered by the timestamp index stored on disk, or 0 if it is missing or covers more than
+     * rowCount rows.
+     */
+    public static int getTimestampIndexRowCountFromDisk(ColumnVersion columnVersion, int rowCount) {
+        try (ColumnFile keyFile = ColumnFile.open(columnVersion.getFileName(TimestampIndex.KEY_FILE_NAME));
+             ColumnFile rowFile = ColumnFile.open(columnVersion.getFileName(TimestampIndex.ROW_FILE_NAME))) {
+            int indexRowCount = Math.min(keyFile.getRowCount(), rowFile.getRowCount());
+            return indexRowCount <= rowCount ? indexRowCount : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static TimestampIndex loadTimestampIndex(ColumnVersion columnVersion, int rowCount) {
+        try {
+            TimestampIndex index = TimestampIndex.load(columnVersion);
+            return index.getRowCount() <= rowCount ? index : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the column statistics stored on disk.
+     * @param rowCount row count of the column files of the version
+     * @return statistics, or null if they are missing or do not cover exactly rowCount rows
+     */
+    public static ColumnStatistics getColumnStatisticsFromDisk(ColumnVersion columnVersion, int rowCount) {
+        ColumnStatistics statistics = loadColumnStatistics(columnVersion, rowCount);
+        if (statistics == null) {
+            System.out.println(columnVersion.getFileName("columns") + ColumnStatistics.EXTENSION + " is missing or out of date, planning without statistics");
+        }
+        return statistics;
+    }
+
+    private static ColumnStatistics loadColumnStatistics(ColumnVersion columnVersion, int rowCount) {
+        try {
+            ColumnStatistics statistics = ColumnStatistics.load(columnVersion.getFileName("columns"));
+            return statistics.getRowCount() == rowCount ? statistics : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the monthly aggregates stored on disk.
+     * @param rowCount row count of the column files of the version
+     * @return aggregates, or null if they are missing or do not cover exactly rowCount rows
+     */
+    public static MonthlyAggregateCube getMonthlyCubeFromDisk(ColumnVersion columnVersion, int rowCount) {
+        try {
+            MonthlyAggregateCube cube = MonthlyAggregateCube.load(columnVersion.getFileName("monthly"));
+            if (cube.getRowCount() == rowCount) {
+                return cube;
+            }
+            System.out.println(columnVersion.getFileName("monthly") + MonthlyAggregateCube.EXTENSION + " is out of date, scanning columns");
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Reads the monthly quantile sketches stored on disk.
+     * @param rowCount row count of the column files of the version
+     * @return sketches, or null if they are missing, do not cover exactly rowCount rows or were built with another k
+     * than MonthlyQuantileCube.getDefaultSketchK()
+     */
+    public static MonthlyQuantileCube getMonthlyQuantilesFromDisk(ColumnVersion columnVersion, int rowCount) {
+        MonthlyQuantileCube cube = loadMonthlyQuantiles(columnVersion, rowCount);
+        if (cube == null) {
+            System.out.println(columnVersion.getFileName("monthly") + MonthlyQuantileCube.EXTENSION + " is missing or out of date, scanning columns");
+        }
+        return cube;
+    }
+
+    private static MonthlyQuantileCube loadMonthlyQuantiles(ColumnVersion columnVersion, int rowCount) {
+        try {
+            MonthlyQuantileCube cube = MonthlyQuantileCube.load(columnVersion.getFileName("monthly"));
+            return cube.getRowCount() == rowCount && cube.getSketchK() == MonthlyQuantileCube.getDefaultSketchK() ? cube : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the manifest of the partitioned columns stored on disk.
+     * @param rowCount current row count of the column files on disk
+     * @return manifest, or null if it is missing or the partitions do not hold exactly rowCount rows
+     */
+    public static PartitionManifest getPartitionManifestFromDisk(int rowCount) {
+        PartitionManifest manifest = loadPartitionManifest(rowCount);
+        if (manifest == null) {
+            System.out.println("Partitions are missing or out of date, scanning columns");
+        }
+        return manifest;
+    }
+
+    private static PartitionManifest loadPartitionManifest(int rowCount) {
+        PartitionManifest manifest = loadPartitionManifest();
+        return manifest != null && manifest.getRowCount() == rowCount ? manifest : null;
+    }
+
+    private static PartitionManifest loadPartitionManifest() {
+        try {
+            return PartitionManifest.load();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the dictionary of the station column of the version.
+     * @return dictionary, or an empty dictionary if it could not be read
+     */
+    public static StationDictionary getStationDictionaryFromDisk(ColumnVersion columnVersion) {
+        try {
+            return StationDictionary.load(columnVersion.getFileName("station"));
         } catch (IOException e) {
             System.out.println(e.getMessage());
+            return new StationDictionary();
         }
-        return value;
     }
 
     public static void printExeSuccessMessage() {
@@ -0,0 +1,60 @@
+package com.milestone1;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive ints used to build columns without boxing.
+ */
+public class IntVector {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private int[] values;
+    private int size;
+
+    public IntVector() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntVector(int initialCapacity) {
+        values = new int[Math.max(initialCapacity, 1)];
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    public int get(int index) {
+        return values[index];
+    }
+
+    public void set(int index, int value) {
+        values[index] = value;
+    }
+
+    public boolean contains(int value) {
+        for (int i=0; i<size; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return copy of the values trimmed to the number of elements added.
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
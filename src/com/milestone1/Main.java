@@ -1,27 +1,29 @@
 package com.milestone1;
 
-import java.time.Month;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 public class Main {
 
     public static void main(String[] args) {
         ColumnarMemory.loadIntoMemory(IOManager.readCsv());
 
-        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> queryMemoryResult1 = QueryManager.getMinMaxValuesFromYearAndStation(2004, "Paya Lebar");
-        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> queryMemoryResult2 = QueryManager.getMinMaxValuesFromYearAndStation(2014, "Paya Lebar");
-
-        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> queryDiskResult1 = QueryManager.getMinMaxValuesFromYearAndStationDisk(2004, "Paya Lebar");
-        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> queryDiskResult2 = QueryManager.getMinMaxValuesFromYearAndStationDisk(2014, "Paya Lebar");
-
-        IOManager.createOutputFilesWithHeaders();
-
-        IOManager.processOutputResults(queryMemoryResult1, "Paya Lebar", "ScanResult");
-        IOManager.processOutputResults(queryMemoryResult2, "Paya Lebar", "ScanResult");
-
-        IOManager.processOutputResults(queryDiskResult1, "Paya Lebar", "ScanResult (Disk)");
-        IOManager.processOutputResults(queryDiskResult2, "Paya Lebar", "ScanResult (Disk)");
+        List<QueryRequest> requests = Arrays.asList(new QueryRequest(2004, "Paya Lebar"), new QueryRequest(2014, "Paya Lebar"));
+        for (QueryRequest request : requests) {
+            System.out.print(QueryManager.explain(request.getYear(), request.getStation(), QueryResultCache.Source.MEMORY));
+        }
+
+        // results are streamed straight from the query accumulators into the output files
+        try (ResultSink memorySink = ResultSink.open("ScanResult", ResultSink.Format.CSV);
+             ResultSink diskSink = ResultSink.open("ScanResult (Disk)", ResultSink.Format.CSV)) {
+            System.out.println("Writing query results to ScanResult.csv");
+            QueryManager.writeMinMaxValuesBatch(requests, memorySink);
+            System.out.println("Writing query results to ScanResult (Disk).csv");
+            QueryManager.writeMinMaxValuesBatchDisk(requests, diskSink);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
 
         IOManager.printExeSuccessMessage();
     }
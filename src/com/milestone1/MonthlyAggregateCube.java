@@ -0,0 +1,197 @@
+package com.milestone1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Materialized monthly aggregates of every metric per station and year: max and min with the dates they occur on,
+ * count and sum. Rows are added in column order, so the tie dates come out in the same order as a scan.
+ *
+ * The cube records how many rows it covers. A year and station query can only be answered from it when that matches
+ * the row count of the columns, any other query has to scan.
+ *
+ * A cube is not modified once it is shared with readers: appendRows returns a new cube that shares the cells the new
+ * rows do not touch with this one.
+ */
+public class MonthlyAggregateCube {
+    public static final String EXTENSION = ".cube";
+    private static final int FORMAT_VERSION = 1;
+
+    private final int metricCount;
+    private final HashMap<Long, MonthlyMinMaxAccumulator[]> cells = new HashMap<>();
+    // keys of cells still shared with the cube this one was appended to, copied before they are first modified
+    private final HashSet<Long> sharedCells = new HashSet<>();
+    private int rowCount;
+    // rows come in runs of the same station and year, so the cell of the previous row is usually the next one too
+    private long lastKey = -1;
+    private MonthlyMinMaxAccumulator[] lastCell;
+
+    public MonthlyAggregateCube(int metricCount) {
+        this.metricCount = metricCount;
+    }
+
+    /**
+     * Builds the cube over the first rowCount rows of the columns.
+     * @param metricCols one column per metric, in the order of the result categories
+     */
+    public static MonthlyAggregateCube build(IntBuffer timestampCol, ShortBuffer stationCol, FloatBuffer[] metricCols, int rowCount) {
+        MonthlyAggregateCube cube = new MonthlyAggregateCube(metricCols.length);
+        cube.addRows(timestampCol, stationCol, metricCols, 0, rowCount);
+        return cube;
+    }
+
+    /**
+     * Aggregates rows [from, to) of the columns, which must directly follow the rows already in the cube.
+     * @return cube over the rows of this cube and the new rows, this cube is not modified
+     */
+    public MonthlyAggregateCube appendRows(IntBuffer timestampCol, ShortBuffer stationCol, FloatBuffer[] metricCols, int from, int to) {
+        MonthlyAggregateCube cube = new MonthlyAggregateCube(metricCount);
+        cube.cells.putAll(cells);
+        cube.sharedCells.addAll(cells.keySet());
+        cube.rowCount = rowCount;
+        cube.addRows(timestampCol, stationCol, metricCols, from, to);
+        return cube;
+    }
+
+    private void addRows(IntBuffer timestampCol, ShortBuffer stationCol, FloatBuffer[] metricCols, int from, int to) {
+        for (int i=from; i<to; i++) {
+            int timestamp = timestampCol.get(i);
+            int packedDate = Parser.epochMinuteToPackedDate(timestamp);
+            MonthlyMinMaxAccumulator[] cell = getOrCreateCell(stationCol.get(i), Parser.packedYear(packedDate));
+            int month = Parser.packedMonth(packedDate);
+            int day = Math.floorDiv(timestamp, Parser.MINUTES_PER_DAY);
+            for (int metric=0; metric<metricCount; metric++) {
+                cell[metric].add(month, day, metricCols[metric].get(i));
+            }
+        }
+        rowCount += to - from;
+    }
+
+    /**
+     * @return number of rows aggregated into the cube.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getMetricCount() {
+        return metricCount;
+    }
+
+    /**
+     * @return monthly aggregates of the metric for the station and year, or null if no row has them.
+     */
+    public MonthlyMinMaxAccumulator getCell(short stationCode, int year, int metric) {
+        MonthlyMinMaxAccumulator[] cell = cells.get(key(stationCode, year));
+        return cell == null ? null : cell[metric];
+    }
+
+    /**
+     * Answers the monthly min and max query from the cube, in the same layout as QueryManager.getMonthlyMinMax.
+     * Stations or years without rows give empty months.
+     * @param metricNames result category names of each metric
+     */
+    public HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getMonthlyMinMax(short stationCode, int year, String[] metricNames) {
+        MonthlyMinMaxAccumulator[] cell = stationCode == StationDictionary.NOT_FOUND ? null : cells.get(key(stationCode, year));
+        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result = new HashMap<>();
+        for (int metric=0; metric<metricNames.length; metric++) {
+            MonthlyMinMaxAccumulator accumulator = cell == null ? new MonthlyMinMaxAccumulator() : cell[metric];
+            result.putAll(accumulator.toResult("Max " + metricNames[metric], "Min " + metricNames[metric]));
+        }
+        return result;
+    }
+
+    /**
+     * Streams the answer of getMonthlyMinMax to the sink without building the result maps.
+     * @param station name of the station written with every row
+     */
+    public void writeMonthlyMinMax(short stationCode, int year, String station, String[] metricNames, ResultSink sink)
+            throws IOException {
+        MonthlyMinMaxAccumulator[] cell = stationCode == StationDictionary.NOT_FOUND ? null : cells.get(key(stationCode, year));
+        if (cell == null) {
+            return;
+        }
+        for (int metric=0; metric<metricNames.length; metric++) {
+            cell[metric].writeTo(sink, station, "Max " + metricNames[metric], "Min " + metricNames[metric]);
+        }
+    }
+
+    public void save(String fileName) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName + EXTENSION)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(metricCount);
+            out.writeInt(rowCount);
+            out.writeInt(cells.size());
+            for (Map.Entry<Long, MonthlyMinMaxAccumulator[]> cell : cells.entrySet()) {
+                out.writeLong(cell.getKey());
+                for (MonthlyMinMaxAccumulator accumulator : cell.getValue()) {
+                    accumulator.write(out);
+                }
+            }
+        }
+    }
+
+    public static MonthlyAggregateCube load(String fileName) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName + EXTENSION)))) {
+            int formatVersion = in.readInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException(fileName + EXTENSION + " has unsupported version " + formatVersion);
+            }
+            MonthlyAggregateCube cube = new MonthlyAggregateCube(in.readInt());
+            cube.rowCount = in.readInt();
+            int cellCount = in.readInt();
+            for (int i=0; i<cellCount; i++) {
+                long key = in.readLong();
+                MonthlyMinMaxAccumulator[] cell = new MonthlyMinMaxAccumulator[cube.metricCount];
+                for (int metric=0; metric<cube.metricCount; metric++) {
+                    cell[metric] = MonthlyMinMaxAccumulator.read(in);
+                }
+                cube.cells.put(key, cell);
+            }
+            return cube;
+        }
+    }
+
+    private MonthlyMinMaxAccumulator[] getOrCreateCell(short stationCode, int year) {
+        long key = key(stationCode, year);
+        if (key == lastKey) {
+            return lastCell;
+        }
+        MonthlyMinMaxAccumulator[] cell = cells.get(key);
+        if (cell != null && sharedCells.remove(key)) {
+            MonthlyMinMaxAccumulator[] copy = new MonthlyMinMaxAccumulator[metricCount];
+            for (int metric=0; metric<metricCount; metric++) {
+                copy[metric] = new MonthlyMinMaxAccumulator();
+                copy[metric].merge(cell[metric]);
+            }
+            cell = copy;
+            cells.put(key, cell);
+        } else if (cell == null) {
+            cell = new MonthlyMinMaxAccumulator[metricCount];
+            for (int metric=0; metric<metricCount; metric++) {
+                cell[metric] = new MonthlyMinMaxAccumulator();
+            }
+            cells.put(key, cell);
+        }
+        lastKey = key;
+        lastCell = cell;
+        return cell;
+    }
+
+    private static long key(short stationCode, int year) {
+        return (long) stationCode << 32 | (year & 0xFFFFFFFFL);
+    }
+}
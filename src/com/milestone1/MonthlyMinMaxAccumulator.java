@@ -0,0 +1,235 @@
+package com.milestone1;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Running monthly maximum and minimum of one metric, together with every date on which they occur, and the count and
+ * sum of the available values. Partial accumulators over consecutive row ranges can be merged, giving the same result as a single pass.
+ */
+public class MonthlyMinMaxAccumulator {
+    private static final int MONTHS = 12;
+
+    private final float[] max = new float[MONTHS];
+    private final float[] min = new float[MONTHS];
+    // epoch days of the rows holding the max or min value, in order of first occurrence
+    private final IntVector[] maxDays = new IntVector[MONTHS];
+    private final IntVector[] minDays = new IntVector[MONTHS];
+    private final int[] count = new int[MONTHS];
+    private final double[] sum = new double[MONTHS];
+
+    /**
+     * Evaluates whether the value should replace the current max or min values of its month.
+     * Values equal to the current max or min are kept if they occur on a different date.
+     * @param timestamp epoch minute of the row
+     * @param value metric value, Float.MAX_VALUE marks a missing value and is ignored
+     */
+    public void add(int timestamp, float value) {
+        add(Parser.epochMinuteToMonthValue(timestamp), Math.floorDiv(timestamp, Parser.MINUTES_PER_DAY), value);
+    }
+
+    /**
+     * Version of add for callers that have already decoded the timestamp, so it is decoded once for several metrics.
+     * @param monthValue month of the row from 1 to 12
+     * @param day epoch day of the row
+     * @param value metric value, Float.MAX_VALUE marks a missing value and is ignored
+     */
+    public void add(int monthValue, int day, float value) {
+        if (value == Float.MAX_VALUE) {
+            return;
+        }
+        int month = monthValue - 1;
+        count[month]++;
+        sum[month] += value;
+        // first row of respective month with available data, so we set as max and min values
+        if (maxDays[month] == null) {
+            max[month] = value;
+            min[month] = value;
+            maxDays[month] = newDays(day);
+            minDays[month] = newDays(day);
+            return;
+        }
+        if (value > max[month]) { // new max value found
+            max[month] = value;
+            maxDays[month].clear();
+            maxDays[month].add(day);
+        } else if (value == max[month] && !maxDays[month].contains(day)) { // same max value on a different date found
+            maxDays[month].add(day);
+        }
+        if (value < min[month]) { // new min value found
+            min[month] = value;
+            minDays[month].clear();
+            minDays[month].add(day);
+        } else if (value == min[month] && !minDays[month].contains(day)) { // same min value on a different date found
+            minDays[month].add(day);
+        }
+    }
+
+    /**
+     * Merges the accumulator of the rows that directly follow the rows of this accumulator into this one.
+     */
+    public void merge(MonthlyMinMaxAccumulator later) {
+        for (int month=0; month<MONTHS; month++) {
+            if (later.maxDays[month] == null) {
+                continue;
+            }
+            count[month] += later.count[month];
+            sum[month] += later.sum[month];
+            if (maxDays[month] == null) {
+                max[month] = later.max[month];
+                min[month] = later.min[month];
+                maxDays[month] = copyDays(later.maxDays[month]);
+                minDays[month] = copyDays(later.minDays[month]);
+                continue;
+            }
+            if (later.max[month] > max[month]) {
+                max[month] = later.max[month];
+                maxDays[month] = copyDays(later.maxDays[month]);
+            } else if (later.max[month] == max[month]) {
+                appendNewDays(maxDays[month], later.maxDays[month]);
+            }
+            if (later.min[month] < min[month]) {
+                min[month] = later.min[month];
+                minDays[month] = copyDays(later.minDays[month]);
+            } else if (later.min[month] == min[month]) {
+                appendNewDays(minDays[month], later.minDays[month]);
+            }
+        }
+    }
+
+    /**
+     * @return number of available values in the month from 1 to 12.
+     */
+    public int getCount(int monthValue) {
+        return count[monthValue - 1];
+    }
+
+    public double getSum(int monthValue) {
+        return sum[monthValue - 1];
+    }
+
+    /**
+     * @return mean of the available values in the month from 1 to 12, or NaN if it has none.
+     */
+    public double getMean(int monthValue) {
+        return count[monthValue - 1] == 0 ? Double.NaN : sum[monthValue - 1] / count[monthValue - 1];
+    }
+
+    /**
+     * @return HashMap containing the max and min entries for each month under the given category names.
+     */
+    public HashMap<String, HashMap<Month, ArrayList<RowEntry>>> toResult(String maxCategory, String minCategory) {
+        HashMap<Month, ArrayList<RowEntry>> monthlyMaxResult = new HashMap<>();
+        HashMap<Month, ArrayList<RowEntry>> monthlyMinResult = new HashMap<>();
+        for (Month month : Month.values()) {
+            monthlyMaxResult.put(month, toEntries(maxDays[month.ordinal()], max[month.ordinal()]));
+            monthlyMinResult.put(month, toEntries(minDays[month.ordinal()], min[month.ordinal()]));
+        }
+        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result = new HashMap<>();
+        result.put(maxCategory, monthlyMaxResult);
+        result.put(minCategory, monthlyMinResult);
+        return result;
+    }
+
+    /**
+     * Streams the max and min entries of every month to the sink, the max entries of all months first.
+     * Gives the same rows as toResult without building the result maps.
+     */
+    public void writeTo(ResultSink sink, String station, String maxCategory, String minCategory) throws IOException {
+        for (int month=0; month<MONTHS; month++) {
+            writeDays(sink, station, maxCategory, maxDays[month], max[month]);
+        }
+        for (int month=0; month<MONTHS; month++) {
+            writeDays(sink, station, minCategory, minDays[month], min[month]);
+        }
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        for (int month=0; month<MONTHS; month++) {
+            out.writeInt(count[month]);
+            if (count[month] == 0) {
+                continue;
+            }
+            out.writeDouble(sum[month]);
+            out.writeFloat(max[month]);
+            out.writeFloat(min[month]);
+            writeDays(out, maxDays[month]);
+            writeDays(out, minDays[month]);
+        }
+    }
+
+    static MonthlyMinMaxAccumulator read(DataInputStream in) throws IOException {
+        MonthlyMinMaxAccumulator accumulator = new MonthlyMinMaxAccumulator();
+        for (int month=0; month<MONTHS; month++) {
+            accumulator.count[month] = in.readInt();
+            if (accumulator.count[month] == 0) {
+                continue;
+            }
+            accumulator.sum[month] = in.readDouble();
+            accumulator.max[month] = in.readFloat();
+            accumulator.min[month] = in.readFloat();
+            accumulator.maxDays[month] = readDays(in);
+            accumulator.minDays[month] = readDays(in);
+        }
+        return accumulator;
+    }
+
+    private static void writeDays(DataOutputStream out, IntVector days) throws IOException {
+        out.writeInt(days.size());
+        for (int i=0; i<days.size(); i++) {
+            out.writeInt(days.get(i));
+        }
+    }
+
+    private static IntVector readDays(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        IntVector days = new IntVector(size);
+        for (int i=0; i<size; i++) {
+            days.add(in.readInt());
+        }
+        return days;
+    }
+
+    private static void writeDays(ResultSink sink, String station, String category, IntVector days, float value) throws IOException {
+        if (days == null) {
+            return;
+        }
+        for (int i=0; i<days.size(); i++) {
+            sink.write(days.get(i), station, category, value);
+        }
+    }
+
+    private static ArrayList<RowEntry> toEntries(IntVector days, float value) {
+        ArrayList<RowEntry> entries = new ArrayList<>();
+        if (days != null) {
+            for (int i=0; i<days.size(); i++) {
+                entries.add(new RowEntry(days.get(i), value));
+            }
+        }
+        return entries;
+    }
+
+    private static IntVector newDays(int day) {
+        IntVector days = new IntVector(4);
+        days.add(day);
+        return days;
+    }
+
+    private static IntVector copyDays(IntVector days) {
+        IntVector copy = new IntVector(days.size());
+        appendNewDays(copy, days);
+        return copy;
+    }
+
+    private static void appendNewDays(IntVector days, IntVector laterDays) {
+        for (int i=0; i<laterDays.size(); i++) {
+            if (!days.contains(laterDays.get(i))) {
+                days.add(laterDays.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.milestone1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Quantile sketches of every metric per station, year and month, built at ingest alongside MonthlyAggregateCube.
+ * Percentiles over any range of years are answered by merging the sketches of the months, see mergeYears. Every
+ * sketch keeps a bounded number of values, so the cube grows with the number of months with readings rather than
+ * with the number of rows.
+ *
+ * Like MonthlyAggregateCube, a cube is not modified once it is shared with readers: appendRows returns a new cube
+ * that shares the cells the new rows do not touch with this one.
+ */
+public class MonthlyQuantileCube {
+    public static final String EXTENSION = ".quantiles";
+    private static final int FORMAT_VERSION = 1;
+    private static final int MONTHS = 12;
+
+    private static volatile int defaultSketchK = QuantileSketch.DEFAULT_K;
+
+    private final int metricCount;
+    private final int sketchK;
+    // sketches of a station and year by metric * MONTHS + month, null for months without readings
+    private final HashMap<Long, QuantileSketch[]> cells = new HashMap<>();
+    // keys of cells still shared with the cube this one was appended to, copied before they are first modified
+    private final HashSet<Long> sharedCells = new HashSet<>();
+    private int rowCount;
+    // rows come in runs of the same station and year, so the cell of the previous row is usually the next one too
+    private long lastKey = -1;
+    private QuantileSketch[] lastCell;
+
+    /**
+     * @param sketchK k of every sketch of the cube, see QuantileSketch
+     */
+    public MonthlyQuantileCube(int metricCount, int sketchK) {
+        this.metricCount = metricCount;
+        this.sketchK = sketchK;
+    }
+
+    /**
+     * Sets the k of the sketches of cubes built from now on, trading memory for accuracy: the rank error of a
+     * percentile shrinks in proportion to 1 / k, see QuantileSketch.getNormalizedRankError. Cubes stored on disk with
+     * another k are rebuilt when the columns are mapped.
+     */
+    public static void setDefaultSketchK(int k) {
+        if (k < QuantileSketch.MIN_K) {
+            throw new IllegalArgumentException("k must be at least " + QuantileSketch.MIN_K + ", not " + k);
+        }
+        defaultSketchK = k;
+    }
+
+    public static int getDefaultSketchK() {
+        return defaultSketchK;
+    }
+
+    /**
+     * Builds the cube over the first rowCount rows of the columns with the default k.
+     * @param metricCols one column per metric, in the order of the result categories
+     */
+    public static MonthlyQuantileCube build(IntBuffer timestampCol, ShortBuffer stationCol, FloatBuffer[] metricCols, int rowCount) {
+        MonthlyQuantileCube cube = new MonthlyQuantileCube(metricCols.length, defaultSketchK);
+        cube.addRows(timestampCol, stationCol, metricCols, 0, rowCount);
+        return cube;
+    }
+
+    /**
+     * Adds rows [from, to) of the columns, which must directly follow the rows already in the cube.
+     * @return cube over the rows of this cube and the new rows, this cube is not modified
+     */
+    public MonthlyQuantileCube appendRows(IntBuffer timestampCol, ShortBuffer stationCol, FloatBuffer[] metricCols, int from, int to) {
+        MonthlyQuantileCube cube = new MonthlyQuantileCube(metricCount, sketchK);
+        cube.cells.putAll(cells);
+        cube.sharedCells.addAll(cells.keySet());
+        cube.rowCount = rowCount;
+        cube.addRows(timestampCol, stationCol, metricCols, from, to);
+        return cube;
+    }
+
+    private void addRows(IntBuffer timestampCol, ShortBuffer stationCol, FloatBuffer[] metricCols, int from, int to) {
+        for (int i=from; i<to; i++) {
+            int packedDate = Parser.epochMinuteToPackedDate(timestampCol.get(i));
+            QuantileSketch[] cell = getOrCreateCell(stationCol.get(i), Parser.packedYear(packedDate));
+            int month = Parser.packedMonth(packedDate) - 1;
+            for (int metric=0; metric<metricCount; metric++) {
+                float value = metricCols[metric].get(i);
+                // missing values are not readings
+                if (value == Float.MAX_VALUE) {
+                    continue;
+                }
+                int sketch = metric * MONTHS + month;
+                if (cell[sketch] == null) {
+                    cell[sketch] = new QuantileSketch(sketchK);
+                }
+                cell[sketch].add(value);
+            }
+        }
+        rowCount += to - from;
+    }
+
+    /**
+     * @return number of rows added to the cube.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getMetricCount() {
+        return metricCount;
+    }
+
+    public int getSketchK() {
+        return sketchK;
+    }
+
+    /**
+     * @return sketch of the metric for the station, year and month, or null if there are no readings of it.
+     */
+    public QuantileSketch getSketch(short stationCode, int year, int monthValue, int metric) {
+        QuantileSketch[] cell = cells.get(key(stationCode, year));
+        return cell == null ? null : cell[metric * MONTHS + monthValue - 1];
+    }
+
+    /**
+     * Merges the sketches of the station over the years [fromYear, toYear] by month of the year.
+     * @return new sketches by metric * 12 + month - 1, empty for months without readings in the years
+     */
+    public QuantileSketch[] mergeYears(short stationCode, int fromYear, int toYear) {
+        QuantileSketch[] merged = new QuantileSketch[metricCount * MONTHS];
+        for (int sketch=0; sketch<merged.length; sketch++) {
+            merged[sketch] = new QuantileSketch(sketchK);
+        }
+        if (stationCode == StationDictionary.NOT_FOUND) {
+            return merged;
+        }
+        for (int year=fromYear; year<=toYear; year++) {
+            QuantileSketch[] cell = cells.get(key(stationCode, year));
+            if (cell == null) {
+                continue;
+            }
+            for (int sketch=0; sketch<merged.length; sketch++) {
+                if (cell[sketch] != null) {
+                    merged[sketch].merge(cell[sketch]);
+                }
+            }
+        }
+        return merged;
+    }
+
+    public void save(String fileName) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName + EXTENSION)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(metricCount);
+            out.writeInt(sketchK);
+            out.writeInt(rowCount);
+            out.writeInt(cells.size());
+            for (Map.Entry<Long, QuantileSketch[]> cell : cells.entrySet()) {
+                out.writeLong(cell.getKey());
+                for (QuantileSketch sketch : cell.getValue()) {
+                    out.writeBoolean(sketch != null);
+                    if (sketch != null) {
+                        sketch.write(out);
+                    }
+                }
+            }
+        }
+    }
+
+    public static MonthlyQuantileCube load(String fileName) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName + EXTENSION)))) {
+            int formatVersion = in.readInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException(fileName + EXTENSION + " has unsupported version " + formatVersion);
+            }
+            MonthlyQuantileCube cube = new MonthlyQuantileCube(in.readInt(), in.readInt());
+            cube.rowCount = in.readInt();
+            int cellCount = in.readInt();
+            for (int i=0; i<cellCount; i++) {
+                long key = in.readLong();
+                QuantileSketch[] cell = new QuantileSketch[cube.metricCount * MONTHS];
+                for (int sketch=0; sketch<cell.length; sketch++) {
+                    if (in.readBoolean()) {
+                        cell[sketch] = QuantileSketch.read(in, cube.sketchK);
+                    }
+                }
+                cube.cells.put(key, cell);
+            }
+            return cube;
+        }
+    }
+
+    private QuantileSketch[] getOrCreateCell(short stationCode, int year) {
+        long key = key(stationCode, year);
+        if (key == lastKey) {
+            return lastCell;
+        }
+        QuantileSketch[] cell = cells.get(key);
+        if (cell != null && sharedCells.remove(key)) {
+            QuantileSketch[] copy = new QuantileSketch[cell.length];
+            for (int sketch=0; sketch<cell.length; sketch++) {
+                copy[sketch] = cell[sketch] == null ? null : cell[sketch].copy();
+            }
+            cell = copy;
+            cells.put(key, cell);
+        } else if (cell == null) {
+            cell = new QuantileSketch[metricCount * MONTHS];
+            cells.put(key, cell);
+        }
+        lastKey = key;
+        lastCell = cell;
+        return cell;
+    }
+
+    private static long key(short stationCode, int year) {
+        return (long) stationCode << 32 | (year & 0xFFFFFFFFL);
+    }
+}
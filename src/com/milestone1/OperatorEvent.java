@@ -0,0 +1,44 @@
+package com.milestone1;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of one query operator, committed by QueryProfile.Operator.end.
+ * Recorded with e.g. java -XX:StartFlightRecording=filename=queries.jfr, the duration of the event is the wall time
+ * of the operator.
+ */
+@Name("com.milestone1.Operator")
+@Label("Query Operator")
+@Category({"Column Store", "Query"})
+@Description("Stage of a year and station query")
+@StackTrace(false)
+public class OperatorEvent extends Event {
+    @Label("Query")
+    String query;
+
+    @Label("Source")
+    String source;
+
+    @Label("Operator")
+    String operator;
+
+    @Label("Rows In")
+    long rowsIn;
+
+    @Label("Rows Out")
+    long rowsOut;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    @Label("Bytes Allocated")
+    @DataAmount
+    long allocatedBytes;
+}
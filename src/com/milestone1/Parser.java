@@ -1,11 +1,16 @@
 package com.milestone1;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
+import java.time.Month;
 
+/**
+ * Parses and formats CSV values. Timestamps are handled as epoch minutes with plain integer arithmetic,
+ * so the ingest and query paths decode them without allocating date objects.
+ */
 public class Parser {
+    // sentinel for timestamps that could not be parsed, lies outside every year range
+    public static final int INVALID_TIMESTAMP = Integer.MIN_VALUE;
+
+    public static final int MINUTES_PER_DAY = 24 * 60;
 
     public static float stringToFloat(String string) {
         try {
@@ -16,29 +21,195 @@ public class Parser {
     }
 
     /**
-     * Reads in the timestamp string and returns a Calendar object with date information.
-     * @param timestamp string from CSV data.
-     * @return Calendar object with date details.
+     * Reads in the timestamp string and returns the number of minutes since 1970-01-01 00:00.
+     * The timestamp is treated as wall clock time, so no time zone is applied.
+     * @param timestamp string from CSV data in the yyyy-MM-dd HH:mm layout.
+     * @return epoch minutes, or INVALID_TIMESTAMP if the string could not be parsed.
      */
-    public static Calendar timestampStringToDate(String timestamp) {
-        Calendar cal = Calendar.getInstance();
-        try {
-            SimpleDateFormat formatter = new SimpleDateFormat(("yyyy-MM-dd HH:mm"));
-            cal.setTime(formatter.parse(timestamp));
-        } catch (ParseException e) {
-            System.out.println(e.getMessage());
-            cal.setTime(new Date(Long.MIN_VALUE));
+    public static int timestampStringToEpochMinute(CharSequence timestamp) {
+        int epochMinute = parseTimestamp(timestamp, null, 0, timestamp.length());
+        if (epochMinute == INVALID_TIMESTAMP) {
+            System.out.println("Unparseable date: \"" + timestamp + "\"");
+        }
+        return epochMinute;
+    }
+
+    /**
+     * Byte version of timestampStringToEpochMinute for parsing straight from a CSV buffer.
+     * @return epoch minutes, or INVALID_TIMESTAMP if the bytes could not be parsed.
+     */
+    public static int timestampBytesToEpochMinute(byte[] bytes, int offset, int length) {
+        return parseTimestamp(null, bytes, offset, length);
+    }
+
+    /**
+     * converts epoch minutes back to the timestamp string format of the CSV data
+     */
+    public static String epochMinuteToTimestampString(int epochMinute) {
+        if (epochMinute == INVALID_TIMESTAMP) {
+            return "";
         }
-        return cal;
+        int packedDate = epochMinuteToPackedDate(epochMinute);
+        int minuteOfDay = Math.floorMod(epochMinute, MINUTES_PER_DAY);
+        StringBuilder builder = new StringBuilder(16);
+        builder.append(packedYear(packedDate)).append('-');
+        appendTwoDigits(builder, packedMonth(packedDate)).append('-');
+        appendTwoDigits(builder, packedDay(packedDate)).append(' ');
+        appendTwoDigits(builder, minuteOfDay / 60).append(':');
+        appendTwoDigits(builder, minuteOfDay % 60);
+        return builder.toString();
+    }
+
+    /**
+     * @return epoch minute of 1 January 00:00 of the given year.
+     */
+    public static int yearToEpochMinute(int year) {
+        return daysFromCivil(year, 1, 1) * MINUTES_PER_DAY;
+    }
+
+    public static int epochMinuteToYear(int epochMinute) {
+        return packedYear(epochMinuteToPackedDate(epochMinute));
+    }
+
+    /**
+     * @return month of the timestamp from 1 to 12.
+     */
+    public static int epochMinuteToMonthValue(int epochMinute) {
+        return packedMonth(epochMinuteToPackedDate(epochMinute));
+    }
+
+    public static Month epochMinuteToMonth(int epochMinute) {
+        return Month.of(epochMinuteToMonthValue(epochMinute));
+    }
+
+    /**
+     * Decodes epoch minutes into year, month and day packed into one int as year << 9 | month << 5 | day.
+     * Use packedYear, packedMonth and packedDay to read the fields.
+     */
+    public static int epochMinuteToPackedDate(int epochMinute) {
+        // civil from days, see http://howardhinnant.github.io/date_algorithms.html
+        int days = Math.floorDiv(epochMinute, MINUTES_PER_DAY) + 719468;
+        int era = Math.floorDiv(days, 146097);
+        int dayOfEra = days - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year << 9 | month << 5 | day;
+    }
+
+    public static int packedYear(int packedDate) {
+        return packedDate >> 9;
+    }
+
+    public static int packedMonth(int packedDate) {
+        return (packedDate >> 5) & 0xF;
+    }
+
+    public static int packedDay(int packedDate) {
+        return packedDate & 0x1F;
+    }
+
+    /**
+     * converts epoch minutes to date string to output to CSV
+     */
+    public static String epochMinuteToDateString(int epochMinute) {
+        int packedDate = epochMinuteToPackedDate(epochMinute);
+        return packedYear(packedDate) + "-" + packedMonth(packedDate) + "-" + packedDay(packedDate);
+    }
+
+    /**
+     * Days since 1970-01-01 of the given date, see http://howardhinnant.github.io/date_algorithms.html
+     */
+    public static int daysFromCivil(int year, int month, int day) {
+        int shiftedYear = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(shiftedYear, 400);
+        int yearOfEra = shiftedYear - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
     }
 
     /**
-     * converts the Calendar object back to date string to output to CSV
-      */
-    public static String dateToDateString(Calendar cal) {
-        int year = cal.get(Calendar.YEAR);
-        int month = cal.get(Calendar.MONTH) + 1; // Calendar.MONTH enum uses zero indexing
-        int date = cal.get(Calendar.DATE);
-        return year + "-" + month + "-" + date;
+     * Parses yyyy-MM-dd HH:mm from either a CharSequence or a byte range without allocating.
+     * Single digit month, day, hour and minute fields and trailing seconds are accepted as well.
+     */
+    private static int parseTimestamp(CharSequence chars, byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        int pos = offset;
+        int year = 0;
+        int digits = 0;
+        while (pos < end && isDigit(charAt(chars, bytes, pos)) && digits < 4) {
+            year = year * 10 + (charAt(chars, bytes, pos++) - '0');
+            digits++;
+        }
+        if (digits != 4 || pos >= end || charAt(chars, bytes, pos++) != '-') {
+            return INVALID_TIMESTAMP;
+        }
+        int month = 0;
+        int monthStart = pos;
+        while (pos < end && isDigit(charAt(chars, bytes, pos)) && pos - monthStart < 2) {
+            month = month * 10 + (charAt(chars, bytes, pos++) - '0');
+        }
+        if (pos == monthStart || pos >= end || charAt(chars, bytes, pos++) != '-') {
+            return INVALID_TIMESTAMP;
+        }
+        int day = 0;
+        int dayStart = pos;
+        while (pos < end && isDigit(charAt(chars, bytes, pos)) && pos - dayStart < 2) {
+            day = day * 10 + (charAt(chars, bytes, pos++) - '0');
+        }
+        if (pos == dayStart || pos >= end) {
+            return INVALID_TIMESTAMP;
+        }
+        char dateTimeSeparator = charAt(chars, bytes, pos++);
+        if (dateTimeSeparator != ' ' && dateTimeSeparator != 'T') {
+            return INVALID_TIMESTAMP;
+        }
+        int hour = 0;
+        int hourStart = pos;
+        while (pos < end && isDigit(charAt(chars, bytes, pos)) && pos - hourStart < 2) {
+            hour = hour * 10 + (charAt(chars, bytes, pos++) - '0');
+        }
+        if (pos == hourStart || pos >= end || charAt(chars, bytes, pos++) != ':') {
+            return INVALID_TIMESTAMP;
+        }
+        int minute = 0;
+        int minuteStart = pos;
+        while (pos < end && isDigit(charAt(chars, bytes, pos)) && pos - minuteStart < 2) {
+            minute = minute * 10 + (charAt(chars, bytes, pos++) - '0');
+        }
+        if (pos == minuteStart || (pos < end && charAt(chars, bytes, pos) != ':')) {
+            return INVALID_TIMESTAMP;
+        }
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour > 23 || minute > 59) {
+            return INVALID_TIMESTAMP;
+        }
+        return daysFromCivil(year, month, day) * MINUTES_PER_DAY + hour * 60 + minute;
+    }
+
+    private static char charAt(CharSequence chars, byte[] bytes, int pos) {
+        return chars != null ? chars.charAt(pos) : (char) bytes[pos];
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            boolean leapYear = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return leapYear ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder builder, int value) {
+        if (value < 10) {
+            builder.append('0');
+        }
+        return builder.append(value);
     }
 }
@@ -0,0 +1,215 @@
+package com.milestone1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Manifest of the columns partitioned by year and station on disk, see IOManager.savePartitionsToDisk.
+ *
+ * Every partition is a directory DIRECTORY/year/station code holding the timestamp, temperature and humidity column
+ * files of its rows, in row order. The station column is not stored, every row of a partition has its station. Rows
+ * without a valid timestamp belong to no year and are not partitioned.
+ *
+ * The manifest lists the row count and a checksum of the rows of every partition, and the number of rows of the flat
+ * column files it was written for, so partitions that are out of date are not read and partitions whose rows did not
+ * change are not written again.
+ */
+public class PartitionManifest {
+    public static final String DIRECTORY = "partitions";
+    private static final String FILE_NAME = "manifest";
+    private static final int FORMAT_VERSION = 2;
+    // 64-bit FNV-1a, continued over appended rows from the checksum of the rows before them
+    private static final long CHECKSUM_OFFSET = 0xCBF29CE484222325L;
+    private static final long CHECKSUM_PRIME = 0x100000001B3L;
+
+    private final int rowCount;
+    // rows of each partition by key(year, stationCode)
+    private final TreeMap<Long, Integer> partitionRowCounts;
+    private final TreeMap<Long, Long> partitionChecksums;
+
+    private PartitionManifest(int rowCount, TreeMap<Long, Integer> partitionRowCounts, TreeMap<Long, Long> partitionChecksums) {
+        this.rowCount = rowCount;
+        this.partitionRowCounts = partitionRowCounts;
+        this.partitionChecksums = partitionChecksums;
+    }
+
+    /**
+     * @return manifest without partitions.
+     */
+    public static PartitionManifest empty() {
+        return new PartitionManifest(0, new TreeMap<>(), new TreeMap<>());
+    }
+
+    /**
+     * Groups rows [from, to) of the columns by partition.
+     * @return positions of the rows of each partition in row order, by partition key
+     */
+    public static TreeMap<Long, IntVector> groupRows(IntBuffer timestampCol, ShortBuffer stationCol, int from, int to) {
+        TreeMap<Long, IntVector> partitionRows = new TreeMap<>();
+        // rows come in runs of the same station and year, so the partition of the previous row is usually the next one too
+        long lastKey = 0;
+        IntVector lastRows = null;
+        for (int i=from; i<to; i++) {
+            int timestamp = timestampCol.get(i);
+            if (timestamp == Parser.INVALID_TIMESTAMP) {
+                continue;
+            }
+            long key = key(Parser.epochMinuteToYear(timestamp), stationCol.get(i));
+            if (lastRows == null || key != lastKey) {
+                lastKey = key;
+                lastRows = partitionRows.computeIfAbsent(key, partition -> new IntVector());
+            }
+            lastRows.add(i);
+        }
+        return partitionRows;
+    }
+
+    /**
+     * @param partitionRows rows added to each partition, see groupRows
+     * @param newRowCount rows of the flat column files including the added rows
+     * @return manifest with the added rows, this manifest is not modified
+     */
+    public PartitionManifest addRows(Map<Long, IntVector> partitionRows, IntBuffer timestampCol, FloatBuffer temperatureCol,
+                                     FloatBuffer humidityCol, int newRowCount) {
+        TreeMap<Long, Integer> newPartitionRowCounts = new TreeMap<>(partitionRowCounts);
+        TreeMap<Long, Long> newPartitionChecksums = new TreeMap<>(partitionChecksums);
+        for (Map.Entry<Long, IntVector> partition : partitionRows.entrySet()) {
+            IntVector rows = partition.getValue();
+            long checksum = partitionChecksums.getOrDefault(partition.getKey(), CHECKSUM_OFFSET);
+            for (int i=0; i<rows.size(); i++) {
+                checksum = (checksum ^ timestampCol.get(rows.get(i))) * CHECKSUM_PRIME;
+                checksum = (checksum ^ Float.floatToRawIntBits(temperatureCol.get(rows.get(i)))) * CHECKSUM_PRIME;
+                checksum = (checksum ^ Float.floatToRawIntBits(humidityCol.get(rows.get(i)))) * CHECKSUM_PRIME;
+            }
+            newPartitionRowCounts.merge(partition.getKey(), rows.size(), Integer::sum);
+            newPartitionChecksums.put(partition.getKey(), checksum);
+        }
+        return new PartitionManifest(newRowCount, newPartitionRowCounts, newPartitionChecksums);
+    }
+
+    /**
+     * @return number of rows of the flat column files the partitions were written for.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getPartitionCount() {
+        return partitionRowCounts.size();
+    }
+
+    /**
+     * @param stationCode dictionary code, StationDictionary.NOT_FOUND has no partition
+     * @return number of rows of the partition, 0 if there is none
+     */
+    public int getPartitionRowCount(int year, short stationCode) {
+        return partitionRowCounts.getOrDefault(key(year, stationCode), 0);
+    }
+
+    /**
+     * @param partitionKey key of the partition, see groupRows
+     * @return row count of the partition, 0 if it is not in the manifest
+     */
+    public int getPartitionRowCount(long partitionKey) {
+        return partitionRowCounts.getOrDefault(partitionKey, 0);
+    }
+
+    /**
+     * @return true if the partition holds the same rows in both manifests, judged by row count and checksum.
+     */
+    public boolean hasSameRows(PartitionManifest other, long partitionKey) {
+        return getPartitionRowCount(partitionKey) == other.getPartitionRowCount(partitionKey)
+                && partitionChecksums.get(partitionKey) != null
+                && partitionChecksums.get(partitionKey).equals(other.partitionChecksums.get(partitionKey));
+    }
+
+    /**
+     * @return keys of the partitions in ascending order, see groupRows.
+     */
+    public Set<Long> getPartitionKeys() {
+        return partitionRowCounts.keySet();
+    }
+
+    /**
+     * @return name of a column file of the partition without extension, e.g. partitions/2004/1/timestamp
+     */
+    public static String getColumnFileName(int year, short stationCode, String column) {
+        return getDirectory(year, stationCode) + "/" + column;
+    }
+
+    /**
+     * Version of getColumnFileName for a partition key under another root directory than DIRECTORY, see groupRows.
+     */
+    public static String getColumnFileName(String rootDirectory, long partitionKey, String column) {
+        return getDirectory(rootDirectory, partitionKey) + "/" + column;
+    }
+
+    public static String getDirectory(String rootDirectory, long partitionKey) {
+        return rootDirectory + "/" + (int) partitionKey + "/" + (short) (partitionKey >> 32);
+    }
+
+    public static String getDirectory(int year, short stationCode) {
+        return DIRECTORY + "/" + year + "/" + stationCode;
+    }
+
+    /**
+     * Saves the manifest into the root directory of the partitions. It is written under a temporary name and renamed
+     * into place, so a reader never sees a partly written manifest.
+     */
+    public void save(String rootDirectory) throws IOException {
+        String fileName = rootDirectory + "/" + FILE_NAME;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName + ".tmp")))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(rowCount);
+            out.writeInt(partitionRowCounts.size());
+            for (Map.Entry<Long, Integer> partition : partitionRowCounts.entrySet()) {
+                out.writeLong(partition.getKey());
+                out.writeInt(partition.getValue());
+                out.writeLong(partitionChecksums.get(partition.getKey()));
+            }
+        }
+        Files.move(Paths.get(fileName + ".tmp"), Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the manifest of the partitions in DIRECTORY.
+     */
+    public static PartitionManifest load() throws IOException {
+        String fileName = DIRECTORY + "/" + FILE_NAME;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+            int formatVersion = in.readInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException(fileName + " has unsupported version " + formatVersion);
+            }
+            int rowCount = in.readInt();
+            int partitionCount = in.readInt();
+            TreeMap<Long, Integer> partitionRowCounts = new TreeMap<>();
+            TreeMap<Long, Long> partitionChecksums = new TreeMap<>();
+            for (int i=0; i<partitionCount; i++) {
+                long key = in.readLong();
+                partitionRowCounts.put(key, in.readInt());
+                partitionChecksums.put(key, in.readLong());
+            }
+            return new PartitionManifest(rowCount, partitionRowCounts, partitionChecksums);
+        }
+    }
+
+    private static long key(int year, short stationCode) {
+        return (long) stationCode << 32 | (year & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,555 @@
+package com.milestone1;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of row positions passed between query operators, laid out like a Roaring bitmap.
+ *
+ * Positions are split by their high 16 bits into chunks of 65536 rows. Each chunk is stored in a container
+ * holding the low 16 bits, either as a sorted array while it is sparse or as a bitmap once it is dense,
+ * so memory use stays at most 2 bytes per position and intersections work on whole words.
+ */
+public class PositionSet {
+    // containers switch between array and bitmap layouts at this cardinality, both then take 8KB
+    private static final int ARRAY_CONTAINER_MAX = 4096;
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final byte ARRAY = 0;
+    private static final byte BITMAP = 1;
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int containerCount;
+
+    /**
+     * Adds a position to the set. Adding positions in ascending order is the fast path used by the scan operators.
+     */
+    public void add(int pos) {
+        int index = getOrCreateContainer((char) (pos >>> 16));
+        containers[index] = containers[index].add((char) pos);
+    }
+
+    /**
+     * Adds every position in [start, end).
+     */
+    public void addRange(int start, int end) {
+        while (start < end) {
+            int chunkEnd = Math.min(end, ((start >>> 16) + 1) * CHUNK_SIZE);
+            int index = getOrCreateContainer((char) (start >>> 16));
+            containers[index] = containers[index].addRange(start & 0xFFFF, chunkEnd - (start & ~0xFFFF));
+            start = chunkEnd;
+        }
+    }
+
+    public boolean contains(int pos) {
+        int index = indexOf((char) (pos >>> 16));
+        return index >= 0 && containers[index].contains((char) pos);
+    }
+
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i=0; i<containerCount; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality() == 0;
+    }
+
+    /**
+     * @return positions in ascending order.
+     */
+    public int[] toArray() {
+        int[] positions = new int[cardinality()];
+        int[] next = {0};
+        forEach(pos -> positions[next[0]++] = pos);
+        return positions;
+    }
+
+    public void forEach(IntConsumer consumer) {
+        for (int i=0; i<containerCount; i++) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    public PositionIterator iterator() {
+        return new PositionIterator();
+    }
+
+    public static PositionSet of(int[] sortedPositions) {
+        PositionSet set = new PositionSet();
+        for (int pos : sortedPositions) {
+            set.add(pos);
+        }
+        return set;
+    }
+
+    /**
+     * @return set with the same positions that can be modified independently of this one.
+     */
+    public PositionSet copy() {
+        PositionSet copy = new PositionSet();
+        for (int i=0; i<containerCount; i++) {
+            copy.append(keys[i], containers[i].copy());
+        }
+        return copy;
+    }
+
+    /**
+     * Writes the set container by container, arrays as their 16-bit values and bitmaps as their words.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(containerCount);
+        for (int i=0; i<containerCount; i++) {
+            out.writeChar(keys[i]);
+            out.writeInt(containers[i].cardinality());
+            if (containers[i] instanceof BitmapContainer) {
+                out.writeByte(BITMAP);
+                for (long word : ((BitmapContainer) containers[i]).words) {
+                    out.writeLong(word);
+                }
+            } else {
+                out.writeByte(ARRAY);
+                ArrayContainer array = (ArrayContainer) containers[i];
+                for (int j=0; j<array.cardinality; j++) {
+                    out.writeChar(array.values[j]);
+                }
+            }
+        }
+    }
+
+    public static PositionSet read(DataInput in) throws IOException {
+        PositionSet set = new PositionSet();
+        int containerCount = in.readInt();
+        for (int i=0; i<containerCount; i++) {
+            char key = in.readChar();
+            int cardinality = in.readInt();
+            byte layout = in.readByte();
+            if (layout == BITMAP) {
+                long[] words = new long[CHUNK_SIZE / Long.SIZE];
+                for (int w=0; w<words.length; w++) {
+                    words[w] = in.readLong();
+                }
+                set.append(key, new BitmapContainer(words, cardinality));
+            } else if (layout == ARRAY && cardinality <= ARRAY_CONTAINER_MAX) {
+                char[] values = new char[Math.max(cardinality, 1)];
+                for (int j=0; j<cardinality; j++) {
+                    values[j] = in.readChar();
+                }
+                set.append(key, new ArrayContainer(values, cardinality));
+            } else {
+                throw new IOException("Invalid position set container " + layout + " of " + cardinality + " positions");
+            }
+        }
+        return set;
+    }
+
+    /**
+     * @return positions present in both sets.
+     */
+    public static PositionSet and(PositionSet a, PositionSet b) {
+        PositionSet result = new PositionSet();
+        int i = 0;
+        int j = 0;
+        while (i < a.containerCount && j < b.containerCount) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container container = a.containers[i].and(b.containers[j]);
+                if (container.cardinality() > 0) {
+                    result.append(a.keys[i], container);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return positions present in either set.
+     */
+    public static PositionSet or(PositionSet a, PositionSet b) {
+        PositionSet result = new PositionSet();
+        int i = 0;
+        int j = 0;
+        while (i < a.containerCount || j < b.containerCount) {
+            if (j == b.containerCount || (i < a.containerCount && a.keys[i] < b.keys[j])) {
+                result.append(a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (i == a.containerCount || a.keys[i] > b.keys[j]) {
+                result.append(b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                result.append(a.keys[i], a.containers[i].or(b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return index of the container for the chunk key, creating an empty container if needed.
+     */
+    private int getOrCreateContainer(char key) {
+        // positions mostly arrive in ascending order, so check the last container before searching
+        if (containerCount > 0 && keys[containerCount - 1] == key) {
+            return containerCount - 1;
+        }
+        int index = indexOf(key);
+        if (index >= 0) {
+            return index;
+        }
+        int insertAt = -index - 1;
+        ensureCapacity();
+        System.arraycopy(keys, insertAt, keys, insertAt + 1, containerCount - insertAt);
+        System.arraycopy(containers, insertAt, containers, insertAt + 1, containerCount - insertAt);
+        keys[insertAt] = key;
+        containers[insertAt] = new ArrayContainer();
+        containerCount++;
+        return insertAt;
+    }
+
+    private void append(char key, Container container) {
+        ensureCapacity();
+        keys[containerCount] = key;
+        containers[containerCount] = container;
+        containerCount++;
+    }
+
+    private int indexOf(char key) {
+        return Arrays.binarySearch(keys, 0, containerCount, key);
+    }
+
+    private void ensureCapacity() {
+        if (containerCount == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+            containers = Arrays.copyOf(containers, containers.length * 2);
+        }
+    }
+
+    /**
+     * Iterates over the positions in ascending order without boxing.
+     */
+    public class PositionIterator {
+        private int containerIndex = -1;
+        private int[] chunk = new int[0];
+        private int chunkSize;
+        private int chunkIndex;
+
+        public boolean hasNext() {
+            while (chunkIndex == chunkSize) {
+                if (++containerIndex >= containerCount) {
+                    return false;
+                }
+                Container container = containers[containerIndex];
+                if (chunk.length < container.cardinality()) {
+                    chunk = new int[container.cardinality()];
+                }
+                chunkSize = container.fill(keys[containerIndex] << 16, chunk);
+                chunkIndex = 0;
+            }
+            return true;
+        }
+
+        public int next() {
+            return chunk[chunkIndex++];
+        }
+    }
+
+    private abstract static class Container {
+        /**
+         * @return container holding the result, a new bitmap container once an array container becomes too dense.
+         */
+        abstract Container add(char value);
+
+        /**
+         * Adds every value in [start, end), end may be 65536.
+         */
+        abstract Container addRange(int start, int end);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        abstract void forEach(int high, IntConsumer consumer);
+
+        /**
+         * Writes the positions of the container into the array and returns how many were written.
+         */
+        abstract int fill(int high, int[] out);
+
+        abstract Container copy();
+
+        abstract BitmapContainer toBitmap();
+
+        Container and(Container other) {
+            if (this instanceof ArrayContainer) {
+                return ((ArrayContainer) this).andArray(other);
+            }
+            if (other instanceof ArrayContainer) {
+                return ((ArrayContainer) other).andArray(this);
+            }
+            return ((BitmapContainer) this).andBitmap((BitmapContainer) other);
+        }
+
+        Container or(Container other) {
+            BitmapContainer result = toBitmap();
+            if (result == this) {
+                result = (BitmapContainer) copy();
+            }
+            result.orInto(other);
+            return result.cardinality() <= ARRAY_CONTAINER_MAX ? result.toArrayContainer() : result;
+        }
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer() {
+            this(new char[16], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int index = cardinality;
+            if (cardinality > 0 && values[cardinality - 1] >= value) {
+                index = Arrays.binarySearch(values, 0, cardinality, value);
+                if (index >= 0) {
+                    return this;
+                }
+                index = -index - 1;
+            }
+            if (cardinality == ARRAY_CONTAINER_MAX) {
+                return toBitmap().add(value);
+            }
+            insertAt(index, value);
+            return this;
+        }
+
+        @Override
+        Container addRange(int start, int end) {
+            if (cardinality + (end - start) > ARRAY_CONTAINER_MAX) {
+                return toBitmap().addRange(start, end);
+            }
+            Container container = this;
+            for (int value=start; value<end; value++) {
+                container = container.add((char) value);
+            }
+            return container;
+        }
+
+        private void insertAt(int index, char value) {
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(values.length * 2, ARRAY_CONTAINER_MAX));
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = value;
+            cardinality++;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer consumer) {
+            for (int i=0; i<cardinality; i++) {
+                consumer.accept(high | values[i]);
+            }
+        }
+
+        @Override
+        int fill(int high, int[] out) {
+            for (int i=0; i<cardinality; i++) {
+                out[i] = high | values[i];
+            }
+            return cardinality;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i=0; i<cardinality; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+
+        Container andArray(Container other) {
+            char[] result = new char[cardinality];
+            int count = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i=0; i<cardinality; i++) {
+                    if (other.contains(values[i])) {
+                        result[count++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int cardinality;
+
+        BitmapContainer() {
+            this(new long[CHUNK_SIZE / Long.SIZE], 0);
+        }
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            long before = words[value >>> 6];
+            long after = before | (1L << value);
+            words[value >>> 6] = after;
+            if (before != after) {
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container addRange(int start, int end) {
+            // set whole words at a time
+            int value = start;
+            while (value < end) {
+                int word = value >>> 6;
+                int wordEnd = Math.min(end, (word + 1) << 6);
+                int bits = wordEnd - value;
+                long mask = bits == Long.SIZE ? -1L : ((1L << bits) - 1) << (value & 63);
+                cardinality += Long.bitCount(mask & ~words[word]);
+                words[word] |= mask;
+                value = wordEnd;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer consumer) {
+            for (int w=0; w<words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    consumer.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        int fill(int high, int[] out) {
+            int count = 0;
+            for (int w=0; w<words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    out[count++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            return this;
+        }
+
+        Container andBitmap(BitmapContainer other) {
+            long[] result = new long[words.length];
+            int count = 0;
+            for (int w=0; w<words.length; w++) {
+                result[w] = words[w] & other.words[w];
+                count += Long.bitCount(result[w]);
+            }
+            BitmapContainer bitmap = new BitmapContainer(result, count);
+            return count <= ARRAY_CONTAINER_MAX ? bitmap.toArrayContainer() : bitmap;
+        }
+
+        void orInto(Container other) {
+            if (other instanceof BitmapContainer) {
+                long[] otherWords = ((BitmapContainer) other).words;
+                int count = 0;
+                for (int w=0; w<words.length; w++) {
+                    words[w] |= otherWords[w];
+                    count += Long.bitCount(words[w]);
+                }
+                cardinality = count;
+            } else {
+                other.forEach(0, value -> add((char) value));
+            }
+        }
+
+        ArrayContainer toArrayContainer() {
+            char[] values = new char[Math.max(cardinality, 1)];
+            int count = 0;
+            for (int w=0; w<words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[count++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.milestone1;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch of a stream of float values, after the KLL sketch of Karnin, Lang and Liberty.
+ *
+ * Values are kept on levels, a value on level h stands for 2^h values of the stream. When the sketch is full, the
+ * lowest level over its capacity is sorted and every other value of it moves up a level, starting at a random one of
+ * the first two. The top level holds k values and every level below holds two thirds of the level above it, but at
+ * least 8, so a sketch keeps fewer than 3k + 8 * levels values however many it has seen.
+ *
+ * The rank of a quantile is off by at most about getNormalizedRankError() of the count, with 99% confidence. Larger
+ * k gives smaller errors in proportion, at the cost of memory. The smallest and largest values are exact. Merging two
+ * sketches of the same k gives the accuracy of a single sketch over both streams.
+ */
+public class QuantileSketch {
+    public static final int DEFAULT_K = 200;
+    public static final int MIN_K = 8;
+    private static final int MIN_LEVEL_CAPACITY = MIN_K;
+    private static final double LEVEL_CAPACITY_RATIO = 2.0 / 3.0;
+    // fixed seed, so the same rows always give the same sketch
+    private static final int RANDOM_SEED = 0x2545F491;
+
+    private final int k;
+    private float[][] levels;
+    private int[] levelSizes;
+    private int retainedCount;
+    private int maxRetainedCount;
+    private long count;
+    private float min = Float.POSITIVE_INFINITY;
+    private float max = Float.NEGATIVE_INFINITY;
+    private int random = RANDOM_SEED;
+
+    /**
+     * @param k capacity of the top level, at least MIN_K
+     */
+    public QuantileSketch(int k) {
+        if (k < MIN_K) {
+            throw new IllegalArgumentException("k must be at least " + MIN_K + ", not " + k);
+        }
+        this.k = k;
+        levels = new float[][] {new float[MIN_LEVEL_CAPACITY]};
+        levelSizes = new int[1];
+        maxRetainedCount = getMaxRetainedCount();
+    }
+
+    public void add(float value) {
+        append(0, value);
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        compress();
+    }
+
+    /**
+     * Adds the values seen by the other sketch to this one, the other sketch is not modified.
+     */
+    public void merge(QuantileSketch other) {
+        while (levels.length < other.levels.length) {
+            addLevel();
+        }
+        for (int level=0; level<other.levels.length; level++) {
+            for (int i=0; i<other.levelSizes[level]; i++) {
+                append(level, other.levels[level][i]);
+            }
+        }
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        compress();
+    }
+
+    public QuantileSketch copy() {
+        QuantileSketch copy = new QuantileSketch(k);
+        copy.merge(this);
+        copy.random = random;
+        return copy;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return number of values added to the sketch.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return number of values kept by the sketch, which bounds its memory use.
+     */
+    public int getRetainedCount() {
+        return retainedCount;
+    }
+
+    /**
+     * @return rank error of a quantile as a fraction of the count, with 99% confidence. Empirical bound measured
+     * for KLL sketches by the Apache DataSketches project, about 1.3% for the default k.
+     */
+    public double getNormalizedRankError() {
+        return 2.296 / Math.pow(k, 0.9723);
+    }
+
+    /**
+     * @param fraction rank of the quantile as a fraction of the count, 0.5 for the median
+     * @return value at the rank, or Float.NaN if the sketch is empty
+     */
+    public float getQuantile(double fraction) {
+        return getQuantiles(fraction)[0];
+    }
+
+    /**
+     * Version of getQuantile for several ranks, sorting the kept values once.
+     */
+    public float[] getQuantiles(double... fractions) {
+        float[] quantiles = new float[fractions.length];
+        if (count == 0) {
+            Arrays.fill(quantiles, Float.NaN);
+            return quantiles;
+        }
+        // value in the high half in an order preserving form, level in the low half, so sorting orders by value
+        long[] entries = new long[retainedCount];
+        int next = 0;
+        for (int level=0; level<levels.length; level++) {
+            for (int i=0; i<levelSizes[level]; i++) {
+                int bits = Float.floatToIntBits(levels[level][i]);
+                entries[next++] = (long) (bits ^ (bits >> 31 & Integer.MAX_VALUE)) << 32 | level;
+            }
+        }
+        Arrays.sort(entries);
+        for (int q=0; q<fractions.length; q++) {
+            if (fractions[q] <= 0) {
+                quantiles[q] = min;
+                continue;
+            }
+            if (fractions[q] >= 1) {
+                quantiles[q] = max;
+                continue;
+            }
+            double rank = fractions[q] * count;
+            long weight = 0;
+            int i = 0;
+            // every value weighs 2^level, the weights add up to the count
+            while (i < entries.length - 1 && (weight += 1L << (int) entries[i]) < rank) {
+                i++;
+            }
+            int bits = (int) (entries[i] >> 32);
+            quantiles[q] = Float.intBitsToFloat(bits ^ (bits >> 31 & Integer.MAX_VALUE));
+        }
+        return quantiles;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(count);
+        out.writeFloat(min);
+        out.writeFloat(max);
+        out.writeInt(random);
+        out.writeInt(levels.length);
+        for (int level=0; level<levels.length; level++) {
+            out.writeInt(levelSizes[level]);
+            for (int i=0; i<levelSizes[level]; i++) {
+                out.writeFloat(levels[level][i]);
+            }
+        }
+    }
+
+    static QuantileSketch read(DataInputStream in, int k) throws IOException {
+        QuantileSketch sketch = new QuantileSketch(k);
+        sketch.count = in.readLong();
+        sketch.min = in.readFloat();
+        sketch.max = in.readFloat();
+        sketch.random = in.readInt();
+        int levelCount = in.readInt();
+        while (sketch.levels.length < levelCount) {
+            sketch.addLevel();
+        }
+        for (int level=0; level<levelCount; level++) {
+            int size = in.readInt();
+            for (int i=0; i<size; i++) {
+                sketch.append(level, in.readFloat());
+            }
+        }
+        return sketch;
+    }
+
+    private void append(int level, float value) {
+        if (levelSizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+        }
+        levels[level][levelSizes[level]++] = value;
+        retainedCount++;
+    }
+
+    /**
+     * Compacts levels until the sketch is within its capacity.
+     */
+    private void compress() {
+        while (retainedCount >= maxRetainedCount) {
+            int level = 0;
+            // some level is at its capacity, since the levels together are
+            while (levelSizes[level] < getLevelCapacity(level)) {
+                level++;
+            }
+            compact(level);
+        }
+    }
+
+    /**
+     * Moves every other value of the level up to the next level, an odd value out stays on the level.
+     */
+    private void compact(int level) {
+        if (level == levels.length - 1) {
+            addLevel();
+        }
+        float[] values = levels[level];
+        int size = levelSizes[level];
+        Arrays.sort(values, 0, size);
+        int kept = size % 2;
+        for (int i=kept + nextRandomBit(); i<size; i+=2) {
+            append(level + 1, values[i]);
+        }
+        levelSizes[level] = kept;
+        retainedCount -= size - kept;
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, levels.length + 1);
+        levels[levels.length - 1] = new float[MIN_LEVEL_CAPACITY];
+        levelSizes = Arrays.copyOf(levelSizes, levels.length);
+        maxRetainedCount = getMaxRetainedCount();
+    }
+
+    private int getLevelCapacity(int level) {
+        int depth = levels.length - 1 - level;
+        return Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(k * Math.pow(LEVEL_CAPACITY_RATIO, depth)));
+    }
+
+    private int getMaxRetainedCount() {
+        int capacity = 0;
+        for (int level=0; level<levels.length; level++) {
+            capacity += getLevelCapacity(level);
+        }
+        return capacity;
+    }
+
+    private int nextRandomBit() {
+        // xorshift generator, cheaper than java.util.Random and enough to pick one of two offsets
+        random ^= random << 13;
+        random ^= random >>> 17;
+        random ^= random << 5;
+        return random & 1;
+    }
+}
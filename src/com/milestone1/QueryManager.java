@@ -1,15 +1,33 @@
 package com.milestone1;
 
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.time.Month;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
 
 /**
  * Handles processing of query
  */
 public class QueryManager {
+    // metric columns aggregated by the year and station queries, as result category names and column file names
+    private static final String[] METRIC_NAMES = {"Temperature", "Humidity"};
+    private static final String[] METRIC_FILE_NAMES = {"temperature", "humidity"};
+    private static final int MONTHS = 12;
+    // zone map blocks scanned by one fork-join task in the parallel execution mode
+    private static final int BLOCKS_PER_MORSEL = 16;
+
+    private static ForkJoinPool parallelPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private static boolean monthlyCubeEnabled = true;
 
     /**
      * Uses a column store search logic to filter rows satisfying query conditions.
@@ -18,528 +36,1255 @@ public class QueryManager {
      * @return HashMap containing monthly maximum and minimum temperature and humuidity results.
      */
     public static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getMinMaxValuesFromYearAndStation(int year, String station) {
-        System.out.println("Processing query for year: " + year + " at station: " + station + " with data from memory");
-        // filter year column first due to lower selectivity
-        ArrayList<Integer> yearPos = filterYearPos(year, ColumnarMemory.getTimestampCol());
-        ArrayList<Integer> yearAndStationPos = filterStationPos(station, ColumnarMemory.getStationCol(), yearPos);
-        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result;
-        result = getMonthlyMinMaxTemp(ColumnarMemory.getTemperatureCol(), ColumnarMemory.getTimestampCol(), yearAndStationPos);
-        result.putAll(getMonthlyMinMaxHumidity(ColumnarMemory.getHumidityCol(), ColumnarMemory.getTimestampCol(), yearAndStationPos));
+        QueryProfile profile = new QueryProfile("year: " + year + " at station: " + station, QueryResultCache.Source.MEMORY);
+        try {
+            long version = QueryResultCache.getVersion(QueryResultCache.Source.MEMORY);
+            HashMap<String, HashMap<Month, ArrayList<RowEntry>>> cachedResult = getCachedResult(year, station,
+                    QueryResultCache.Source.MEMORY, profile);
+            if (cachedResult != null) {
+                return cachedResult;
+            }
+            HashMap<String, HashMap<Month, ArrayList<RowEntry>>> cubeResult = getCubeResult(year, station,
+                    QueryResultCache.Source.MEMORY, profile);
+            if (cubeResult != null) {
+                QueryResultCache.put(QueryResultCache.Kind.MONTHLY_MIN_MAX, year, station, QueryResultCache.Source.MEMORY, version, cubeResult);
+                return cubeResult;
+            }
+            System.out.println("Processing query for year: " + year + " at station: " + station + " with data from memory");
+            // every operator reads the same snapshot, so rows appended meanwhile are not seen by some of them only
+            ColumnData data = ColumnarMemory.getColumnData();
+            short stationCode = data.getStationDictionary().lookup(station);
+            // the planner picks the predicate order and how each predicate reads its column
+            QueryPlan plan = QueryPlanner.plan(profile.getQuery(), year, stationCode, data);
+            profile.setPlan(plan);
+            PositionSet yearAndStationPos = executePlan(plan, data.getRowCount(), profile,
+                    (step, selectedPos) -> filter(step, year, stationCode, data, selectedPos));
+            int selectedRows = yearAndStationPos.cardinality();
 
-        return result;
+            QueryProfile.Operator operator = profile.start("aggregate");
+            HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result = getMonthlyMinMax(data.getTimestampCol(),
+                    yearAndStationPos, METRIC_NAMES, data.getTemperatureCol(), data.getHumidityCol());
+            operator.end(selectedRows, countEntries(result));
+            QueryResultCache.put(QueryResultCache.Kind.MONTHLY_MIN_MAX, year, station, QueryResultCache.Source.MEMORY, version, result);
+            return result;
+        } finally {
+            profile.finish();
+        }
     }
 
     public static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getMinMaxValuesFromYearAndStationDisk(int year, String station) {
-        System.out.println("Processing query for year: " + year + " at station: " + station + " with data from disk");
-        // filter year column first due to lower selectivity
-        ArrayList<Integer> yearPos = filterYearPosDisk(year);
-        ArrayList<Integer> yearAndStationPos = filterStationPosDisk(station, yearPos);
-        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result;
-        result = getMonthlyMinMaxTempDisk(yearAndStationPos);
-        result.putAll(getMonthlyMinMaxHumidityDisk(yearAndStationPos));
+        QueryProfile profile = new QueryProfile("year: " + year + " at station: " + station, QueryResultCache.Source.DISK);
+        try {
+            long version = QueryResultCache.getVersion(QueryResultCache.Source.DISK);
+            HashMap<String, HashMap<Month, ArrayList<RowEntry>>> cachedResult = getCachedResult(year, station,
+                    QueryResultCache.Source.DISK, profile);
+            if (cachedResult != null) {
+                return cachedResult;
+            }
+            HashMap<String, HashMap<Month, ArrayList<RowEntry>>> cubeResult = getCubeResult(year, station,
+                    QueryResultCache.Source.DISK, profile);
+            if (cubeResult != null) {
+                QueryResultCache.put(QueryResultCache.Kind.MONTHLY_MIN_MAX, year, station, QueryResultCache.Source.DISK, version, cubeResult);
+                return cubeResult;
+            }
+            System.out.println("Processing query for year: " + year + " at station: " + station + " with data from disk");
+            // every column file is read from this version, even if the columns are rewritten meanwhile
+            ColumnVersion columnVersion = IOManager.getColumnVersionFromDisk();
+            short stationCode = IOManager.getStationDictionaryFromDisk(columnVersion).lookup(station);
+            // the partition of the year and station holds exactly the selected rows, no other partition is opened
+            PartitionManifest manifest = IOManager.getPartitionManifestFromDisk(IOManager.getRowCountFromDisk(columnVersion));
+            if (manifest != null) {
+                QueryProfile.Operator operator = profile.start("partition pruning");
+                int partitionRowCount = manifest.getPartitionRowCount(year, stationCode);
+                operator.end(manifest.getPartitionCount(), partitionRowCount > 0 ? 1 : 0);
+                operator = profile.start("aggregate");
+                HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result = getMonthlyMinMaxPartitionDisk(year, stationCode,
+                        partitionRowCount);
+                if (result != null) {
+                    operator.end(partitionRowCount, countEntries(result));
+                    QueryResultCache.put(QueryResultCache.Kind.MONTHLY_MIN_MAX, year, station, QueryResultCache.Source.DISK, version, result);
+                    return result;
+                }
+                System.out.println("Partition " + PartitionManifest.getDirectory(year, stationCode) + " is incomplete, scanning columns");
+            }
+            QueryPlan plan = QueryPlanner.planDisk(columnVersion, profile.getQuery(), year, stationCode);
+            profile.setPlan(plan);
+            int[] yearAndStationPos = executePlan(plan, plan.getRowCount(), profile,
+                    (step, selectedPos) -> filterDisk(columnVersion, step, year, stationCode, selectedPos)).toArray();
 
-        return result;
+            // fetching the selected values of the metric columns is part of this operator, see its bytes read
+            QueryProfile.Operator operator = profile.start("aggregate");
+            HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result = getMonthlyMinMaxDisk(columnVersion, yearAndStationPos,
+                    METRIC_NAMES, METRIC_FILE_NAMES);
+            operator.end(yearAndStationPos.length, countEntries(result));
+            QueryResultCache.put(QueryResultCache.Kind.MONTHLY_MIN_MAX, year, station, QueryResultCache.Source.DISK, version, result);
+            return result;
+        } finally {
+            profile.finish();
+        }
     }
 
     /**
-     * Iterates through the timestamp column in memory and returns an array of row indexes with the corresponding year.
+     * Min and max of every metric of a station in a year over time windows, see WindowAggregator. The rows are
+     * selected as for getMinMaxValuesFromYearAndStation and aggregated in timestamp order in one pass over the
+     * columns in memory. Windows overlapping the start or end of the year only hold the rows within it.
+     * @param sizeMinutes length of a window, e.g. WindowAggregator.MINUTES_PER_HOUR or Parser.MINUTES_PER_DAY
+     * @param slideMinutes minutes between the starts of windows, sizeMinutes for tumbling windows
+     * @param offsetMinutes epoch minute a window starts at, e.g. 0 or WindowAggregator.MONDAY_WEEK_OFFSET
+     * @return windows holding rows by metric name, e.g. "Temperature", in order of their start
      */
-    public static ArrayList<Integer> filterYearPos(int year, ArrayList<String> timestampCol) {
-        ArrayList<Integer> yearPos = new ArrayList<>();
-        for (int i=0; i<timestampCol.size(); i++) {
-            Calendar cal = Parser.timestampStringToDate(timestampCol.get(i));
-            if (cal.get(Calendar.YEAR) == year) {
-                yearPos.add(i);
+    public static HashMap<String, List<WindowAggregator.Window>> getWindowedMinMax(int year, String station, int sizeMinutes,
+                                                                               int slideMinutes, int offsetMinutes) {
+        QueryProfile profile = new QueryProfile("windows of " + sizeMinutes + " minutes every " + slideMinutes
+                + " minutes in year: " + year + " at station: " + station, QueryResultCache.Source.MEMORY);
+        try {
+            ColumnData data = ColumnarMemory.getColumnData();
+            short stationCode = data.getStationDictionary().lookup(station);
+            QueryPlan plan = QueryPlanner.plan(profile.getQuery(), year, stationCode, data);
+            profile.setPlan(plan);
+            PositionSet yearAndStationPos = executePlan(plan, data.getRowCount(), profile,
+                    (step, selectedPos) -> filter(step, year, stationCode, data, selectedPos));
+
+            QueryProfile.Operator operator = profile.start("window aggregate");
+            int[] positions = getPositionsInTimeOrder(data.getTimestampCol(), yearAndStationPos);
+            FloatBuffer[] metricCols = {data.getTemperatureCol(), data.getHumidityCol()};
+            int[] timestamps = new int[positions.length];
+            float[] values = new float[positions.length];
+            HashMap<String, List<WindowAggregator.Window>> result = new HashMap<>();
+            int windowCount = 0;
+            for (int metric=0; metric<metricCols.length; metric++) {
+                int count = 0;
+                for (int position : positions) {
+                    float value = metricCols[metric].get(position);
+                    if (value != Float.MAX_VALUE) {
+                        timestamps[count] = data.getTimestampCol().get(position);
+                        values[count++] = value;
+                    }
+                }
+                List<WindowAggregator.Window> windows = WindowAggregator.aggregate(timestamps, values, count, sizeMinutes,
+                        slideMinutes, offsetMinutes);
+                result.put(METRIC_NAMES[metric], windows);
+                windowCount += windows.size();
             }
+            operator.end(positions.length, windowCount);
+            return result;
+        } finally {
+            profile.finish();
         }
-        return yearPos;
     }
 
-    public static ArrayList<Integer> filterYearPosDisk(int year) {
-        ArrayList<Integer> yearPos = new ArrayList<>();
-        List<String> timestampCol = IOManager.getWholeColumnFromDisk("timestamp");
-        for (int i=0; i<timestampCol.size(); i++) {
-            Calendar cal = Parser.timestampStringToDate(timestampCol.get(i));
-            if (cal.get(Calendar.YEAR) == year) {
-                yearPos.add(i);
+    /**
+     * @return the positions ordered by timestamp, ties in row order. Rows of a station are usually stored in time
+     * order already, then the positions are returned as they are.
+     */
+    private static int[] getPositionsInTimeOrder(IntBuffer timestampCol, PositionSet pos) {
+        int[] positions = pos.toArray();
+        for (int i=1; i<positions.length; i++) {
+            if (timestampCol.get(positions[i]) < timestampCol.get(positions[i - 1])) {
+                // timestamp in the high and position in the low half, so sorting the longs orders by timestamp and then row
+                long[] entries = new long[positions.length];
+                for (int j=0; j<positions.length; j++) {
+                    entries[j] = (long) timestampCol.get(positions[j]) << 32 | positions[j];
+                }
+                Arrays.sort(entries);
+                for (int j=0; j<positions.length; j++) {
+                    positions[j] = (int) entries[j];
+                }
+                break;
             }
         }
-        return yearPos;
+        return positions;
     }
 
     /**
-     * Iterates through the station column from filtered year positions and returns an array of row indexes with the corresponding station.
+     * Approximate monthly percentiles of temperature and humidity of a station in a year.
+     * @see #getMonthlyPercentiles(int, int, String, double...)
      */
-    public static ArrayList<Integer> filterStationPos(String station, ArrayList<String> stationCol, ArrayList<Integer> pos) {
-        ArrayList<Integer> yearAndStationPos = new ArrayList<>();
-        for (int i=0; i<pos.size(); i++) {
-            if (stationCol.get(pos.get(i)).equals(station)) {
-                yearAndStationPos.add(pos.get(i));
-            }
+    public static HashMap<String, HashMap<Month, Float>> getMonthlyPercentiles(int year, String station, double... percentiles) {
+        return getMonthlyPercentiles(year, year, station, percentiles);
+    }
+
+    /**
+     * Approximate monthly percentiles of temperature and humidity of a station over the years [fromYear, toYear].
+     * The quantile sketches of the station are merged by month of the year, so the cost grows with the number of
+     * years rather than the number of rows. The rank of each value is within the error of the sketches, see
+     * QuantileSketch.getNormalizedRankError and MonthlyQuantileCube.setDefaultSketchK.
+     * @param percentiles in percent, e.g. 50, 95 and 99
+     * @return values by category, e.g. "P95 Temperature", and month. Months without readings are left out.
+     */
+    public static HashMap<String, HashMap<Month, Float>> getMonthlyPercentiles(int fromYear, int toYear, String station,
+                                                                           double... percentiles) {
+        QueryProfile profile = new QueryProfile(getPercentileQuery(fromYear, toYear, station), QueryResultCache.Source.MEMORY);
+        try {
+            ColumnData data = ColumnarMemory.getColumnData();
+            short stationCode = data.getStationDictionary().lookup(station);
+            QueryProfile.Operator operator = profile.start("merge sketches");
+            QuantileSketch[] sketches = data.getMonthlyQuantiles().mergeYears(stationCode, fromYear, toYear);
+            operator.end(countValues(sketches), sketches.length);
+            return getPercentiles(sketches, percentiles, profile);
+        } finally {
+            profile.finish();
         }
-        return yearAndStationPos;
     }
 
-    public static ArrayList<Integer> filterStationPosDisk(String stationToQuery, ArrayList<Integer> pos) {
-        ArrayList<Integer> yearAndStationPos = new ArrayList<>();
-        for (int i=0; i<pos.size(); i++) {
-            String stationFromDisk = IOManager.getValueFromDisk("station", pos.get(i));
-            if (stationFromDisk.equals(stationToQuery)) {
-                yearAndStationPos.add(pos.get(i));
+    /**
+     * Disk version of getMonthlyPercentiles, merging the sketches stored on disk. If they are out of date, the rows
+     * of the station are fetched from the column files and sketched.
+     */
+    public static HashMap<String, HashMap<Month, Float>> getMonthlyPercentilesDisk(int fromYear, int toYear, String station,
+                                                                               double... percentiles) {
+        QueryProfile profile = new QueryProfile(getPercentileQuery(fromYear, toYear, station), QueryResultCache.Source.DISK);
+        try {
+            ColumnVersion columnVersion = IOManager.getColumnVersionFromDisk();
+            int rowCount = IOManager.getRowCountFromDisk(columnVersion);
+            MonthlyQuantileCube cube = IOManager.getMonthlyQuantilesFromDisk(columnVersion, rowCount);
+            short stationCode = IOManager.getStationDictionaryFromDisk(columnVersion).lookup(station);
+            QuantileSketch[] sketches;
+            if (cube != null) {
+                QueryProfile.Operator operator = profile.start("merge sketches");
+                sketches = cube.mergeYears(stationCode, fromYear, toYear);
+                operator.end(countValues(sketches), sketches.length);
+            } else {
+                QueryProfile.Operator operator = profile.start("filter station");
+                int[] stationPos = filterStationPosDisk(columnVersion, stationCode, QueryPlan.AccessMethod.INDEX).toArray();
+                operator.end(rowCount, stationPos.length);
+                operator = profile.start("build sketches");
+                sketches = getMonthlySketchesDisk(columnVersion, stationPos, fromYear, toYear);
+                operator.end(stationPos.length, sketches.length);
             }
+            return getPercentiles(sketches, percentiles, profile);
+        } finally {
+            profile.finish();
         }
-        return yearAndStationPos;
     }
 
     /**
-     * Iterates through the temperature column from filtered year and station positions to find max and min monthly temperatures
-     * @param temperatureCol in memory
-     * @param timestampCol in memory
-     * @param pos filtered positions by year and station
-     * @return Hashmap containing max and min temperatures for each month.
+     * Sketches the metric values of the rows at the positions within [fromYear, toYear] by month of the year, in the
+     * layout of MonthlyQuantileCube.mergeYears.
      */
-    public static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getMonthlyMinMaxTemp(ArrayList<Float> temperatureCol,
-                                                                                         ArrayList<String> timestampCol,
-                                                                                         ArrayList<Integer> pos) {
-
-        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> maxMinTempResult = new HashMap<>();
-        HashMap<Month, ArrayList<RowEntry>> monthlyMaxTempResult = new HashMap<>();
-        HashMap<Month, ArrayList<RowEntry>> monthlyMinTempResult = new HashMap<>();
-
-        for (Month month : Month.values()) {
-            monthlyMaxTempResult.put(month, new ArrayList<>());
-            monthlyMinTempResult.put(month, new ArrayList<>());
+    private static QuantileSketch[] getMonthlySketchesDisk(ColumnVersion columnVersion, int[] pos, int fromYear, int toYear) {
+        int rangeStart = Parser.yearToEpochMinute(fromYear);
+        int rangeEnd = Parser.yearToEpochMinute(toYear + 1) - 1;
+        int[] timestamps = IOManager.fetchIntsFromDisk(columnVersion, "timestamp", pos);
+        QuantileSketch[] sketches = new QuantileSketch[METRIC_FILE_NAMES.length * MONTHS];
+        for (int sketch=0; sketch<sketches.length; sketch++) {
+            sketches[sketch] = new QuantileSketch(MonthlyQuantileCube.getDefaultSketchK());
         }
+        for (int metric=0; metric<METRIC_FILE_NAMES.length; metric++) {
+            float[] values = IOManager.fetchFloatsFromDisk(columnVersion, METRIC_FILE_NAMES[metric], pos);
+            for (int i=0; i<pos.length; i++) {
+                if (timestamps[i] < rangeStart || timestamps[i] > rangeEnd || values[i] == Float.MAX_VALUE) {
+                    continue;
+                }
+                sketches[metric * MONTHS + Parser.epochMinuteToMonthValue(timestamps[i]) - 1].add(values[i]);
+            }
+        }
+        return sketches;
+    }
 
-        for (int i=0; i<pos.size(); i++) {
-            Calendar cal = Parser.timestampStringToDate(timestampCol.get(pos.get(i)));
-            Float temperatureValue = temperatureCol.get(pos.get(i));
-            evalEntryValue(monthlyMaxTempResult, monthlyMinTempResult, cal, temperatureValue);
+    /**
+     * Reads the percentiles off the monthly sketches of every metric.
+     */
+    private static HashMap<String, HashMap<Month, Float>> getPercentiles(QuantileSketch[] sketches, double[] percentiles,
+                                                                      QueryProfile profile) {
+        QueryProfile.Operator operator = profile.start("quantiles");
+        double[] fractions = new double[percentiles.length];
+        for (int i=0; i<percentiles.length; i++) {
+            fractions[i] = percentiles[i] / 100;
+        }
+        HashMap<String, HashMap<Month, Float>> result = new HashMap<>();
+        int entries = 0;
+        for (int metric=0; metric<METRIC_NAMES.length; metric++) {
+            for (int month=0; month<MONTHS; month++) {
+                QuantileSketch sketch = sketches[metric * MONTHS + month];
+                if (sketch.isEmpty()) {
+                    continue;
+                }
+                float[] quantiles = sketch.getQuantiles(fractions);
+                for (int i=0; i<percentiles.length; i++) {
+                    result.computeIfAbsent(getPercentileName(percentiles[i]) + " " + METRIC_NAMES[metric], category -> new HashMap<>())
+                            .put(Month.of(month + 1), quantiles[i]);
+                    entries++;
+                }
+            }
         }
+        operator.end(sketches.length, entries);
+        return result;
+    }
 
-        maxMinTempResult.put("Max Temperature", monthlyMaxTempResult);
-        maxMinTempResult.put("Min Temperature", monthlyMinTempResult);
-        return maxMinTempResult;
+    private static long countValues(QuantileSketch[] sketches) {
+        long count = 0;
+        for (QuantileSketch sketch : sketches) {
+            count += sketch.getCount();
+        }
+        return count;
     }
 
-    public static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getMonthlyMinMaxTempDisk(ArrayList<Integer> pos) {
+    private static String getPercentileQuery(int fromYear, int toYear, String station) {
+        String years = fromYear == toYear ? "year: " + fromYear : "years: " + fromYear + "-" + toYear;
+        return "percentiles of " + years + " at station: " + station;
+    }
 
-        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> maxMinTempResult = new HashMap<>();
-        HashMap<Month, ArrayList<RowEntry>> monthlyMaxTempResult = new HashMap<>();
-        HashMap<Month, ArrayList<RowEntry>> monthlyMinTempResult = new HashMap<>();
+    /**
+     * @return category prefix of a percentile, "P95" for 95 and "P99.9" for 99.9.
+     */
+    private static String getPercentileName(double percentile) {
+        return percentile == Math.rint(percentile) ? "P" + (long) percentile : "P" + percentile;
+    }
 
-        for (Month month : Month.values()) {
-            monthlyMaxTempResult.put(month, new ArrayList<>());
-            monthlyMinTempResult.put(month, new ArrayList<>());
+    /**
+     * @return plan printout of a year and station query, see QueryPlanner. The query is not run, and would be answered
+     * without the plan if its result is cached or the monthly aggregates are enabled. On disk, a query reading a
+     * partition only has no plan, the partition is printed instead.
+     */
+    public static String explain(int year, String station, QueryResultCache.Source source) {
+        String query = "year: " + year + " at station: " + station;
+        if (source == QueryResultCache.Source.MEMORY) {
+            ColumnData data = ColumnarMemory.getColumnData();
+            return QueryPlanner.plan(query, year, data.getStationDictionary().lookup(station), data).toString();
         }
+        ColumnVersion columnVersion = IOManager.getColumnVersionFromDisk();
+        short stationCode = IOManager.getStationDictionaryFromDisk(columnVersion).lookup(station);
+        int rowCount = IOManager.getRowCountFromDisk(columnVersion);
+        PartitionManifest manifest = IOManager.getPartitionManifestFromDisk(rowCount);
+        if (manifest != null) {
+            return String.format("Plan for %s with data from disk: %d rows, partition %s with %d rows%n", query, rowCount,
+                    PartitionManifest.getDirectory(year, stationCode), manifest.getPartitionRowCount(year, stationCode));
+        }
+        return QueryPlanner.planDisk(columnVersion, query, year, stationCode).toString();
+    }
 
-        for (int i=0; i<pos.size(); i++) {
-            String timestampFromDisk = IOManager.getValueFromDisk("timestamp", pos.get(i));
-            String temperatureFromDisk = IOManager.getValueFromDisk("temperature", pos.get(i));
+    /**
+     * Runs the filter steps of a plan in order, each as an operator of the profile. A step that is not a probe
+     * selects rows on its own, so its positions are intersected with the positions selected before it.
+     * @param filter evaluates a step given the positions selected by the steps before it, null for the first step
+     * @return positions of the rows satisfying every predicate of the plan
+     */
+    private static PositionSet executePlan(QueryPlan plan, int rowCount, QueryProfile profile,
+                                           BiFunction<QueryPlan.Step, PositionSet, PositionSet> filter) {
+        PositionSet selectedPos = null;
+        for (QueryPlan.Step step : plan.getSteps()) {
+            boolean probe = step.getAccessMethod() == QueryPlan.AccessMethod.PROBE;
+            QueryProfile.Operator operator = profile.start(step.getPredicate().getOperatorName());
+            PositionSet stepPos = filter.apply(step, selectedPos);
+            operator.end(probe ? selectedPos.cardinality() : rowCount, stepPos.cardinality());
+            if (selectedPos == null || probe) {
+                selectedPos = stepPos;
+                continue;
+            }
+            operator = profile.start("intersect");
+            PositionSet intersectedPos = PositionSet.and(selectedPos, stepPos);
+            operator.end(selectedPos.cardinality() + stepPos.cardinality(), intersectedPos.cardinality());
+            selectedPos = intersectedPos;
+        }
+        return selectedPos;
+    }
 
-            Calendar cal = Parser.timestampStringToDate(timestampFromDisk);
-            Float temperatureValue = Float.parseFloat(temperatureFromDisk);
+    /**
+     * Evaluates a step of a plan on a snapshot of the columns in memory.
+     * @param selectedPos positions selected by the steps before, probed by a PROBE step
+     */
+    private static PositionSet filter(QueryPlan.Step step, int year, short stationCode, ColumnData data, PositionSet selectedPos) {
+        if (step.getPredicate() == QueryPlan.Predicate.YEAR) {
+            switch (step.getAccessMethod()) {
+                case FULL_SCAN:
+                    return filterYearPos(year, data.getTimestampCol(), ZoneMap.unbounded(data.getRowCount()));
+                case ZONE_MAP:
+                    return filterYearPos(year, data.getTimestampCol(), data.getTimestampZoneMap());
+                case INDEX:
+                    return filterYearPos(year, data);
+                default:
+                    return probeYearPos(year, data.getTimestampCol(), selectedPos);
+            }
+        }
+        switch (step.getAccessMethod()) {
+            case INDEX:
+                return filterStationPos(stationCode, data);
+            case PROBE:
+                return probeStationPos(stationCode, data.getStationCol(), selectedPos);
+            default:
+                return filterStationPos(stationCode, data.getStationCol(), data.getRowCount());
+        }
+    }
 
-            evalEntryValue(monthlyMaxTempResult, monthlyMinTempResult, cal, temperatureValue);
+    /**
+     * Disk version of filter on the column files of a version.
+     */
+    private static PositionSet filterDisk(ColumnVersion columnVersion, QueryPlan.Step step, int year, short stationCode,
+                                          PositionSet selectedPos) {
+        if (step.getPredicate() == QueryPlan.Predicate.YEAR) {
+            return step.getAccessMethod() == QueryPlan.AccessMethod.PROBE ? probeYearPosDisk(columnVersion, year, selectedPos)
+                    : filterYearPosDisk(columnVersion, year, step.getAccessMethod());
         }
-        maxMinTempResult.put("Max Temperature", monthlyMaxTempResult);
-        maxMinTempResult.put("Min Temperature", monthlyMinTempResult);
-        return maxMinTempResult;
+        return step.getAccessMethod() == QueryPlan.AccessMethod.PROBE ? probeStationPosDisk(columnVersion, stationCode, selectedPos)
+                : filterStationPosDisk(columnVersion, stationCode, step.getAccessMethod());
     }
 
     /**
-     * Iterates through the humidity column from filtered year and station positions to find max and min monthly humidity values.
-     * @param humidityCol
-     * @param timestampCol
-     * @param pos filtered positions by year and station
-     * @return Hashmap containing max and min humidity values for each month.
+     * Answers a batch of year and station queries with one scan of each column in memory.
+     * Every row is routed to the accumulators of the query it satisfies, so the cost grows with the data size
+     * rather than with the data size times the number of queries.
+     * Queries with a cached result are answered from the result cache and left out of the scan.
+     * @param requests queries to answer, duplicates share one result.
+     * @return results of each query in request order.
      */
-    public static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getMonthlyMinMaxHumidity(ArrayList<Float> humidityCol,
-                                                                                                ArrayList<String> timestampCol,
-                                                                                                ArrayList<Integer> pos) {
+    public static LinkedHashMap<QueryRequest, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> getMinMaxValuesBatch(List<QueryRequest> requests) {
+        long version = QueryResultCache.getVersion(QueryResultCache.Source.MEMORY);
+        LinkedHashMap<QueryRequest, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> results = new LinkedHashMap<>();
+        List<QueryRequest> uncachedRequests = getCachedResults(requests, QueryResultCache.Source.MEMORY, results);
+        if (uncachedRequests.isEmpty()) {
+            return results;
+        }
+        ColumnData data = ColumnarMemory.getColumnData();
+        MonthlyAggregateCube cube = getMonthlyCube(data);
+        if (cube != null) {
+            System.out.println("Answering batch of " + uncachedRequests.size() + " queries from monthly aggregates with data from memory");
+            StationDictionary stationDictionary = data.getStationDictionary();
+            LinkedHashMap<QueryRequest, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> cubeResults = new LinkedHashMap<>();
+            for (QueryRequest request : uncachedRequests) {
+                cubeResults.put(request, cube.getMonthlyMinMax(stationDictionary.lookup(request.getStation()), request.getYear(), METRIC_NAMES));
+            }
+            return mergeBatchResults(requests, results, cubeResults, QueryResultCache.Source.MEMORY, version);
+        }
+        System.out.println("Processing batch of " + uncachedRequests.size() + " queries with data from memory");
+        return mergeBatchResults(requests, results, scanBatch(uncachedRequests, data).toResults(), QueryResultCache.Source.MEMORY, version);
+    }
 
-        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> maxMinHumidityResult = new HashMap<>();
-        HashMap<Month, ArrayList<RowEntry>> monthlyMaxHumidityResult = new HashMap<>();
-        HashMap<Month, ArrayList<RowEntry>> monthlyMinHumidityResult = new HashMap<>();
+    /**
+     * Streaming version of getMinMaxValuesBatch: the monthly max and min rows of each query are written to the sink in
+     * request order as soon as the scan is done, without building result maps. The result cache is not used.
+     */
+    public static void writeMinMaxValuesBatch(List<QueryRequest> requests, ResultSink sink) throws IOException {
+        ColumnData data = ColumnarMemory.getColumnData();
+        StationDictionary stationDictionary = data.getStationDictionary();
+        MonthlyAggregateCube cube = getMonthlyCube(data);
+        if (cube != null) {
+            System.out.println("Writing batch of " + requests.size() + " queries from monthly aggregates with data from memory");
+            for (QueryRequest request : requests) {
+                cube.writeMonthlyMinMax(stationDictionary.lookup(request.getStation()), request.getYear(), request.getStation(),
+                        METRIC_NAMES, sink);
+            }
+            return;
+        }
+        System.out.println("Writing batch of " + requests.size() + " queries with data from memory");
+        writeBatch(requests, scanBatch(requests, data), sink);
+    }
 
-        for (Month month : Month.values()) {
-            monthlyMaxHumidityResult.put(month, new ArrayList<>());
-            monthlyMinHumidityResult.put(month, new ArrayList<>());
+    /**
+     * Streams the aggregates of each request straight from its accumulators to the sink.
+     */
+    private static void writeBatch(List<QueryRequest> requests, BatchAccumulators batch, ResultSink sink) throws IOException {
+        for (QueryRequest request : requests) {
+            MonthlyMinMaxAccumulator[] accumulators = batch.get(request);
+            if (accumulators == null) {
+                continue;
+            }
+            for (int metric=0; metric<accumulators.length; metric++) {
+                accumulators[metric].writeTo(sink, request.getStation(), "Max " + METRIC_NAMES[metric], "Min " + METRIC_NAMES[metric]);
+            }
         }
+    }
 
-        for (int i=0; i<pos.size(); i++) {
-            Calendar cal = Parser.timestampStringToDate(timestampCol.get(pos.get(i)));
-            Float humidityValue = humidityCol.get(pos.get(i));
-            evalEntryValue(monthlyMaxHumidityResult, monthlyMinHumidityResult, cal, humidityValue);
+    /**
+     * Routes every row of the snapshot of the columns in memory to the accumulators of the query it satisfies.
+     */
+    private static BatchAccumulators scanBatch(List<QueryRequest> requests, ColumnData data) {
+        BatchAccumulators batch = new BatchAccumulators(requests, data.getStationDictionary());
+        IntBuffer timestampCol = data.getTimestampCol();
+        ShortBuffer stationCol = data.getStationCol();
+        FloatBuffer temperatureCol = data.getTemperatureCol();
+        FloatBuffer humidityCol = data.getHumidityCol();
+        ZoneMap timestampZoneMap = data.getTimestampZoneMap();
+        for (int block=0; block<timestampZoneMap.getBlockCount(); block++) {
+            if (!timestampZoneMap.mayContain(block, batch.firstMinute, batch.lastMinute)) {
+                continue;
+            }
+            int blockEnd = timestampZoneMap.getBlockEnd(block);
+            for (int i=timestampZoneMap.getBlockStart(block); i<blockEnd; i++) {
+                MonthlyMinMaxAccumulator[] accumulators = batch.find(timestampCol.get(i), stationCol.get(i));
+                if (accumulators != null) {
+                    batch.add(accumulators, timestampCol.get(i), temperatureCol.get(i), humidityCol.get(i));
+                }
+            }
         }
+        return batch;
+    }
 
-        maxMinHumidityResult.put("Max Humidity", monthlyMaxHumidityResult);
-        maxMinHumidityResult.put("Min Humidity", monthlyMinHumidityResult);
-        return maxMinHumidityResult;
+    /**
+     * Disk version of getMinMaxValuesBatch, see scanBatchDisk.
+     */
+    public static LinkedHashMap<QueryRequest, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> getMinMaxValuesBatchDisk(List<QueryRequest> requests) {
+        long version = QueryResultCache.getVersion(QueryResultCache.Source.DISK);
+        LinkedHashMap<QueryRequest, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> results = new LinkedHashMap<>();
+        List<QueryRequest> uncachedRequests = getCachedResults(requests, QueryResultCache.Source.DISK, results);
+        if (uncachedRequests.isEmpty()) {
+            return results;
+        }
+        ColumnVersion columnVersion = IOManager.getColumnVersionFromDisk();
+        MonthlyAggregateCube cube = getMonthlyCubeDisk(columnVersion);
+        if (cube != null) {
+            System.out.println("Answering batch of " + uncachedRequests.size() + " queries from monthly aggregates with data from disk");
+            StationDictionary stationDictionary = IOManager.getStationDictionaryFromDisk(columnVersion);
+            LinkedHashMap<QueryRequest, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> cubeResults = new LinkedHashMap<>();
+            for (QueryRequest request : uncachedRequests) {
+                cubeResults.put(request, cube.getMonthlyMinMax(stationDictionary.lookup(request.getStation()), request.getYear(), METRIC_NAMES));
+            }
+            return mergeBatchResults(requests, results, cubeResults, QueryResultCache.Source.DISK, version);
+        }
+        System.out.println("Processing batch of " + uncachedRequests.size() + " queries with data from disk");
+        return mergeBatchResults(requests, results, scanBatchDisk(columnVersion, uncachedRequests).toResults(), QueryResultCache.Source.DISK, version);
     }
 
-    public static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getMonthlyMinMaxHumidityDisk(ArrayList<Integer> pos) {
+    /**
+     * Disk version of writeMinMaxValuesBatch, streaming the rows of each query to the sink in the order of the requests.
+     * Results are neither read from nor added to the result cache.
+     */
+    public static void writeMinMaxValuesBatchDisk(List<QueryRequest> requests, ResultSink sink) throws IOException {
+        ColumnVersion columnVersion = IOManager.getColumnVersionFromDisk();
+        MonthlyAggregateCube cube = getMonthlyCubeDisk(columnVersion);
+        if (cube != null) {
+            System.out.println("Writing batch of " + requests.size() + " queries from monthly aggregates with data from disk");
+            StationDictionary stationDictionary = IOManager.getStationDictionaryFromDisk(columnVersion);
+            for (QueryRequest request : requests) {
+                cube.writeMonthlyMinMax(stationDictionary.lookup(request.getStation()), request.getYear(), request.getStation(),
+                        METRIC_NAMES, sink);
+            }
+            return;
+        }
+        System.out.println("Writing batch of " + requests.size() + " queries with data from disk");
+        writeBatch(requests, scanBatchDisk(columnVersion, requests), sink);
+    }
 
-        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> maxMinHumidityResult = new HashMap<>();
-        HashMap<Month, ArrayList<RowEntry>> monthlyMaxHumidityResult = new HashMap<>();
-        HashMap<Month, ArrayList<RowEntry>> monthlyMinHumidityResult = new HashMap<>();
+    /**
+     * Aggregates the requests in a single scan of the column files of a version. The timestamp and station column files
+     * are scanned once and the metric values are only read for rows that satisfy one of the queries.
+     */
+    private static BatchAccumulators scanBatchDisk(ColumnVersion columnVersion, List<QueryRequest> requests) {
+        BatchAccumulators batch = new BatchAccumulators(requests, IOManager.getStationDictionaryFromDisk(columnVersion));
+        // timestamps and stations are scanned in the same chunks, metric values are only fetched for matching rows
+        try (ColumnChunkReader timestampCol = IOManager.getColumnChunkReaderFromDisk(columnVersion, "timestamp", ColumnFile.TYPE_INT32);
+             ColumnChunkReader stationCol = IOManager.getColumnChunkReaderFromDisk(columnVersion, "station", ColumnFile.TYPE_INT16);
+             ColumnFile temperatureCol = IOManager.getColumnFromDisk(columnVersion, "temperature", ColumnFile.TYPE_FLOAT32);
+             ColumnFile humidityCol = IOManager.getColumnFromDisk(columnVersion, "humidity", ColumnFile.TYPE_FLOAT32)) {
+            // files of one version only differ in row count while rows are being appended to them, the rows present in
+            // every column file are the same rows in each
+            int rowCount = Math.min(Math.min(timestampCol.getRowCount(), stationCol.getRowCount()),
+                    Math.min(temperatureCol.getRowCount(), humidityCol.getRowCount()));
+            if (rowCount != timestampCol.getRowCount() || rowCount != stationCol.getRowCount()
+                    || rowCount != temperatureCol.getRowCount() || rowCount != humidityCol.getRowCount()) {
+                System.out.println("Column files on disk have different row counts, scanning the first " + rowCount + " rows");
+            }
+            ZoneMap timestampZoneMap = IOManager.getZoneMapFromDisk(columnVersion, "timestamp", rowCount);
+            for (int block=0; block<timestampZoneMap.getBlockCount(); block++) {
+                if (timestampZoneMap.mayContain(block, batch.firstMinute, batch.lastMinute)) {
+                    timestampCol.addRange(timestampZoneMap.getBlockStart(block), timestampZoneMap.getBlockEnd(block));
+                    stationCol.addRange(timestampZoneMap.getBlockStart(block), timestampZoneMap.getBlockEnd(block));
+                }
+            }
+            ColumnChunkReader.Chunk timestampChunk;
+            ColumnChunkReader.Chunk stationChunk;
+            while ((timestampChunk = timestampCol.next()) != null && (stationChunk = stationCol.next()) != null) {
+                for (int i=timestampChunk.getStartRow(); i<timestampChunk.getEndRow(); i++) {
+                    int timestamp = timestampChunk.getInt(i);
+                    MonthlyMinMaxAccumulator[] accumulators = batch.find(timestamp, stationChunk.getShort(i));
+                    if (accumulators != null) {
+                        batch.add(accumulators, timestamp, temperatureCol.getFloat(i), humidityCol.getFloat(i));
+                    }
+                }
+            }
+        }
+        return batch;
+    }
 
-        for (Month month : Month.values()) {
-            monthlyMaxHumidityResult.put(month, new ArrayList<>());
-            monthlyMinHumidityResult.put(month, new ArrayList<>());
+    /**
+     * Parallel version of getMinMaxValuesFromYearAndStation. The columns are split into morsels of zone map blocks
+     * that are filtered and aggregated on the fork-join pool, and the partial aggregates are merged in row order
+     * so the result is identical to the serial query, including ties on multiple dates.
+     * @param year period of query.
+     * @param station location of query.
+     * @return HashMap containing monthly maximum and minimum temperature and humidity results.
+     */
+    public static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getMinMaxValuesFromYearAndStationParallel(int year, String station) {
+        long version = QueryResultCache.getVersion(QueryResultCache.Source.MEMORY);
+        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> cachedResult = getCachedResult(year, station, QueryResultCache.Source.MEMORY);
+        if (cachedResult != null) {
+            return cachedResult;
         }
+        System.out.println("Processing query for year: " + year + " at station: " + station + " with data from memory using "
+                + parallelPool.getParallelism() + " threads");
+        // morsels all read the same snapshot, see ColumnarMemory
+        ColumnData data = ColumnarMemory.getColumnData();
+        MorselTask task = new MorselTask(data, Parser.yearToEpochMinute(year), Parser.yearToEpochMinute(year + 1) - 1,
+                data.getStationDictionary().lookup(station), 0, data.getTimestampZoneMap().getBlockCount());
+        MonthlyMinMaxAccumulator[] accumulators = parallelPool.invoke(task);
+        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result = toResult(accumulators, METRIC_NAMES);
+        QueryResultCache.put(QueryResultCache.Kind.MONTHLY_MIN_MAX, year, station, QueryResultCache.Source.MEMORY, version, result);
+        return result;
+    }
 
-        for (int i=0; i<pos.size(); i++) {
-            String timestampFromDisk = IOManager.getValueFromDisk("timestamp", pos.get(i));
-            String humidityFromDisk = IOManager.getValueFromDisk("humidity", pos.get(i));
+    /**
+     * Sets the number of threads used by getMinMaxValuesFromYearAndStationParallel.
+     */
+    public static void setParallelism(int threads) {
+        ForkJoinPool previousPool = parallelPool;
+        parallelPool = new ForkJoinPool(threads);
+        previousPool.shutdown();
+    }
 
-            Calendar cal = Parser.timestampStringToDate(timestampFromDisk);
-            Float humidityValue = Float.parseFloat(humidityFromDisk);
+    public static int getParallelism() {
+        return parallelPool.getParallelism();
+    }
 
-            evalEntryValue(monthlyMaxHumidityResult, monthlyMinHumidityResult, cal, humidityValue);
-        }
+    /**
+     * Iterates through the timestamp column in memory and returns the set of row indexes with the corresponding year.
+     * The year is checked as a range of epoch minutes so no timestamp has to be decoded, and blocks whose zone map
+     * lies outside the year are skipped.
+     */
+    public static PositionSet filterYearPos(int year, IntBuffer timestampCol, ZoneMap timestampZoneMap) {
+        PositionSet yearPos = new PositionSet();
+        scanYearPos(Parser.yearToEpochMinute(year), Parser.yearToEpochMinute(year + 1) - 1, timestampCol, timestampZoneMap,
+                0, yearPos);
+        return yearPos;
+    }
 
-        maxMinHumidityResult.put("Max Humidity", monthlyMaxHumidityResult);
-        maxMinHumidityResult.put("Min Humidity", monthlyMinHumidityResult);
-        return maxMinHumidityResult;
+    /**
+     * Version of filterYearPos that looks the year up in the sorted timestamp index of the snapshot. Only the rows
+     * appended after the index was built are scanned.
+     */
+    public static PositionSet filterYearPos(int year, ColumnData data) {
+        int yearStart = Parser.yearToEpochMinute(year);
+        int yearEnd = Parser.yearToEpochMinute(year + 1) - 1;
+        TimestampIndex timestampIndex = data.getTimestampIndex();
+        PositionSet yearPos = timestampIndex.lookup(yearStart, yearEnd);
+        scanYearPos(yearStart, yearEnd, data.getTimestampCol(), data.getTimestampZoneMap(), timestampIndex.getRowCount(), yearPos);
+        return yearPos;
     }
 
     /**
-     * function to evaluate whether the current value in the entry should replace the current max or min values when iterating through the necessary positions of the column.
+     * Adds the rows from fromRow on with timestamps within [yearStart, yearEnd] to yearPos, skipping blocks through
+     * the zone map.
      */
-    private static void evalEntryValue(HashMap<Month, ArrayList<RowEntry>> monthlyMaxResult, HashMap<Month, ArrayList<RowEntry>> monthlyMinResult, Calendar cal, Float value) {
-        int month = cal.get(Calendar.MONTH);
-        if (value == Float.MAX_VALUE) {
-            return;
-        }
-        switch (month) {
-            case Calendar.JANUARY:
-                // first row of respective month with available data, so we set as max or min values
-                if (monthlyMaxResult.get(Month.JANUARY).size() == 0) {
-                    String date = Parser.dateToDateString(cal);
-                    RowEntry firstMonthlyEntry = new RowEntry(date, value);
-                    monthlyMaxResult.get(Month.JANUARY).add(firstMonthlyEntry);
-                    monthlyMinResult.get(Month.JANUARY).add(firstMonthlyEntry);
-                } // new max value found
-                else if (value > monthlyMaxResult.get(Month.JANUARY).get(0).getValue()) {
-                    monthlyMaxResult.get(Month.JANUARY).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.JANUARY).add(newEntry);
-                } // new min value found
-                else if (value < monthlyMinResult.get(Month.JANUARY).get(0).getValue()) {
-                    monthlyMinResult.get(Month.JANUARY).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.JANUARY).add(newEntry);
-                } // same max value on a different date found
-                else if (value == monthlyMaxResult.get(Month.JANUARY).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.JANUARY).add(newEntry);
-                } // same min value on a different date found
-                else if (value == monthlyMinResult.get(Month.JANUARY).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.JANUARY).add(newEntry);
-                }
-                break;
-            case Calendar.FEBRUARY:
-                // first row of respective month with available data, so we set as max or min values
-                if (monthlyMaxResult.get(Month.FEBRUARY).size() == 0) {
-                    String date = Parser.dateToDateString(cal);
-                    RowEntry firstMonthlyEntry = new RowEntry(date, value);
-                    monthlyMaxResult.get(Month.FEBRUARY).add(firstMonthlyEntry);
-                    monthlyMinResult.get(Month.FEBRUARY).add(firstMonthlyEntry);
-                } // new max value found
-                else if (value > monthlyMaxResult.get(Month.FEBRUARY).get(0).getValue()) {
-                    monthlyMaxResult.get(Month.FEBRUARY).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.FEBRUARY).add(newEntry);
-                } // new min value found
-                else if (value < monthlyMinResult.get(Month.FEBRUARY).get(0).getValue()) {
-                    monthlyMinResult.get(Month.FEBRUARY).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.FEBRUARY).add(newEntry);
-                } // same max value on a different date found
-                else if (value == monthlyMaxResult.get(Month.FEBRUARY).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.FEBRUARY).add(newEntry);
-                } // same min value on a different date found
-                else if (value == monthlyMinResult.get(Month.FEBRUARY).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.FEBRUARY).add(newEntry);
-                }
-                break;
-            case Calendar.MARCH:
-                // first row of respective month with available data, so we set as max or min values
-                if (monthlyMaxResult.get(Month.MARCH).size() == 0) {
-                    String date = Parser.dateToDateString(cal);
-                    RowEntry firstMonthlyEntry = new RowEntry(date, value);
-                    monthlyMaxResult.get(Month.MARCH).add(firstMonthlyEntry);
-                    monthlyMinResult.get(Month.MARCH).add(firstMonthlyEntry);
-                } // new max value found
-                else if (value > monthlyMaxResult.get(Month.MARCH).get(0).getValue()) {
-                    monthlyMaxResult.get(Month.MARCH).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.MARCH).add(newEntry);
-                } // new min value found
-                else if (value < monthlyMinResult.get(Month.MARCH).get(0).getValue()) {
-                    monthlyMinResult.get(Month.MARCH).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.MARCH).add(newEntry);
-                } // same max value on a different date found
-                else if (value == monthlyMaxResult.get(Month.MARCH).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.MARCH).add(newEntry);
-                } // same min value on a different date found
-                else if (value == monthlyMinResult.get(Month.MARCH).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.MARCH).add(newEntry);
+    private static void scanYearPos(int yearStart, int yearEnd, IntBuffer timestampCol, ZoneMap timestampZoneMap,
+                                    int fromRow, PositionSet yearPos) {
+        for (int block=0; block<timestampZoneMap.getBlockCount(); block++) {
+            if (timestampZoneMap.getBlockEnd(block) <= fromRow || !timestampZoneMap.mayContain(block, yearStart, yearEnd)) {
+                continue;
+            }
+            int blockStart = Math.max(timestampZoneMap.getBlockStart(block), fromRow);
+            int blockEnd = timestampZoneMap.getBlockEnd(block);
+            if (timestampZoneMap.containedIn(block, yearStart, yearEnd)) {
+                yearPos.addRange(blockStart, blockEnd);
+                continue;
+            }
+            for (int i=blockStart; i<blockEnd; i++) {
+                int timestamp = timestampCol.get(i);
+                if (timestamp >= yearStart && timestamp <= yearEnd) {
+                    yearPos.add(i);
                 }
-                break;
-            case Calendar.APRIL:
-                // first row of respective month with available data, so we set as max or min values
-                if (monthlyMaxResult.get(Month.APRIL).size() == 0) {
-                    String date = Parser.dateToDateString(cal);
-                    RowEntry firstMonthlyEntry = new RowEntry(date, value);
-                    monthlyMaxResult.get(Month.APRIL).add(firstMonthlyEntry);
-                    monthlyMinResult.get(Month.APRIL).add(firstMonthlyEntry);
-                } // new max value found
-                else if (value > monthlyMaxResult.get(Month.APRIL).get(0).getValue()) {
-                    monthlyMaxResult.get(Month.APRIL).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.APRIL).add(newEntry);
-                } // new min value found
-                else if (value < monthlyMinResult.get(Month.APRIL).get(0).getValue()) {
-                    monthlyMinResult.get(Month.APRIL).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.APRIL).add(newEntry);
-                } // same max value on a different date found
-                else if (value == monthlyMaxResult.get(Month.APRIL).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.APRIL).add(newEntry);
-                } // same min value on a different date found
-                else if (value == monthlyMinResult.get(Month.APRIL).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.APRIL).add(newEntry);
+            }
+        }
+    }
+
+    /**
+     * Disk version of filterYearPos. The year is looked up in the timestamp index files, the rows appended after the
+     * index was built are checked through the zone map, so skipped blocks are never read from the column file.
+     * The blocks that have to be checked are scanned in chunks, reading ahead while the current chunk is filtered.
+     */
+    public static PositionSet filterYearPosDisk(int year) {
+        return filterYearPosDisk(IOManager.getColumnVersionFromDisk(), year, QueryPlan.AccessMethod.INDEX);
+    }
+
+    /**
+     * Version of filterYearPosDisk reading the column with the access method chosen by the planner: a full scan
+     * reads every row, a zone map skip leaves out the index and an index lookup uses both.
+     */
+    private static PositionSet filterYearPosDisk(ColumnVersion columnVersion, int year, QueryPlan.AccessMethod accessMethod) {
+        int yearStart = Parser.yearToEpochMinute(year);
+        int yearEnd = Parser.yearToEpochMinute(year + 1) - 1;
+        boolean useIndex = accessMethod == QueryPlan.AccessMethod.INDEX;
+        PositionSet containedPos;
+        PositionSet scannedPos = new PositionSet();
+        try (ColumnChunkReader timestampCol = IOManager.getColumnChunkReaderFromDisk(columnVersion, "timestamp", ColumnFile.TYPE_INT32);
+             ColumnFile indexKeys = useIndex ? IOManager.getTimestampIndexFileFromDisk(columnVersion, TimestampIndex.KEY_FILE_NAME,
+                     timestampCol.getRowCount()) : ColumnFile.empty(ColumnFile.TYPE_INT32);
+             ColumnFile indexRows = useIndex ? IOManager.getTimestampIndexFileFromDisk(columnVersion, TimestampIndex.ROW_FILE_NAME,
+                     timestampCol.getRowCount()) : ColumnFile.empty(ColumnFile.TYPE_INT32)) {
+            int indexedRowCount = Math.min(indexKeys.getRowCount(), indexRows.getRowCount());
+            containedPos = TimestampIndex.lookup(indexKeys, indexRows, yearStart, yearEnd);
+            ZoneMap timestampZoneMap = accessMethod == QueryPlan.AccessMethod.FULL_SCAN ? ZoneMap.unbounded(timestampCol.getRowCount())
+                    : IOManager.getZoneMapFromDisk(columnVersion, "timestamp", timestampCol.getRowCount());
+            for (int block=0; block<timestampZoneMap.getBlockCount(); block++) {
+                if (timestampZoneMap.getBlockEnd(block) <= indexedRowCount || !timestampZoneMap.mayContain(block, yearStart, yearEnd)) {
+                    continue;
                 }
-                break;
-            case Calendar.MAY:
-                // first row of respective month with available data, so we set as max or min values
-                if (monthlyMaxResult.get(Month.MAY).size() == 0) {
-                    String date = Parser.dateToDateString(cal);
-                    RowEntry firstMonthlyEntry = new RowEntry(date, value);
-                    monthlyMaxResult.get(Month.MAY).add(firstMonthlyEntry);
-                    monthlyMinResult.get(Month.MAY).add(firstMonthlyEntry);
-                } // new max value found
-                else if (value > monthlyMaxResult.get(Month.MAY).get(0).getValue()) {
-                    monthlyMaxResult.get(Month.MAY).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.MAY).add(newEntry);
-                } // new min value found
-                else if (value < monthlyMinResult.get(Month.MAY).get(0).getValue()) {
-                    monthlyMinResult.get(Month.MAY).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.MAY).add(newEntry);
-                } // same max value on a different date found
-                else if (value == monthlyMaxResult.get(Month.MAY).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.MAY).add(newEntry);
-                } // same min value on a different date found
-                else if (value == monthlyMinResult.get(Month.MAY).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.MAY).add(newEntry);
+                int blockStart = Math.max(timestampZoneMap.getBlockStart(block), indexedRowCount);
+                if (timestampZoneMap.containedIn(block, yearStart, yearEnd)) {
+                    containedPos.addRange(blockStart, timestampZoneMap.getBlockEnd(block));
+                } else {
+                    timestampCol.addRange(blockStart, timestampZoneMap.getBlockEnd(block));
                 }
-                break;
-            case Calendar.JUNE:
-                // first row of respective month with available data, so we set as max or min values
-                if (monthlyMaxResult.get(Month.JUNE).size() == 0) {
-                    String date = Parser.dateToDateString(cal);
-                    RowEntry firstMonthlyEntry = new RowEntry(date, value);
-                    monthlyMaxResult.get(Month.JUNE).add(firstMonthlyEntry);
-                    monthlyMinResult.get(Month.JUNE).add(firstMonthlyEntry);
-                } // new max value found
-                else if (value > monthlyMaxResult.get(Month.JUNE).get(0).getValue()) {
-                    monthlyMaxResult.get(Month.JUNE).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.JUNE).add(newEntry);
-                } // new min value found
-                else if (value < monthlyMinResult.get(Month.JUNE).get(0).getValue()) {
-                    monthlyMinResult.get(Month.JUNE).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.JUNE).add(newEntry);
-                } // same max value on a different date found
-                else if (value == monthlyMaxResult.get(Month.JUNE).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.JUNE).add(newEntry);
-                } // same min value on a different date found
-                else if (value == monthlyMinResult.get(Month.JUNE).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.JUNE).add(newEntry);
+            }
+            ColumnChunkReader.Chunk chunk;
+            while ((chunk = timestampCol.next()) != null) {
+                for (int i=chunk.getStartRow(); i<chunk.getEndRow(); i++) {
+                    int timestamp = chunk.getInt(i);
+                    if (timestamp >= yearStart && timestamp <= yearEnd) {
+                        scannedPos.add(i);
+                    }
                 }
-                break;
-            case Calendar.JULY:
-                // first row of respective month with available data, so we set as max or min values
-                if (monthlyMaxResult.get(Month.JULY).size() == 0) {
-                    String date = Parser.dateToDateString(cal);
-                    RowEntry firstMonthlyEntry = new RowEntry(date, value);
-                    monthlyMaxResult.get(Month.JULY).add(firstMonthlyEntry);
-                    monthlyMinResult.get(Month.JULY).add(firstMonthlyEntry);
-                } // new max value found
-                else if (value > monthlyMaxResult.get(Month.JULY).get(0).getValue()) {
-                    monthlyMaxResult.get(Month.JULY).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.JULY).add(newEntry);
-                } // new min value found
-                else if (value < monthlyMinResult.get(Month.JULY).get(0).getValue()) {
-                    monthlyMinResult.get(Month.JULY).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.JULY).add(newEntry);
-                } // same max value on a different date found
-                else if (value == monthlyMaxResult.get(Month.JULY).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.JULY).add(newEntry);
-                } // same min value on a different date found
-                else if (value == monthlyMinResult.get(Month.JULY).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.JULY).add(newEntry);
+            }
+        }
+        return PositionSet.or(containedPos, scannedPos);
+    }
+
+    /**
+     * Iterates through a metric column in memory and returns the set of row indexes with values within [low, high].
+     * Blocks whose zone map lies outside the range are skipped and missing values never match.
+     */
+    public static PositionSet filterValueRangePos(float low, float high, FloatBuffer valueCol, ZoneMap valueZoneMap) {
+        PositionSet valuePos = new PositionSet();
+        for (int block=0; block<valueZoneMap.getBlockCount(); block++) {
+            if (!valueZoneMap.mayContain(block, low, high)) {
+                continue;
+            }
+            int blockEnd = valueZoneMap.getBlockEnd(block);
+            for (int i=valueZoneMap.getBlockStart(block); i<blockEnd; i++) {
+                float value = valueCol.get(i);
+                if (value >= low && value <= high && value != Float.MAX_VALUE) {
+                    valuePos.add(i);
                 }
-                break;
-            case Calendar.AUGUST:
-                // first row of respective month with available data, so we set as max or min values
-                if (monthlyMaxResult.get(Month.AUGUST).size() == 0) {
-                    String date = Parser.dateToDateString(cal);
-                    RowEntry firstMonthlyEntry = new RowEntry(date, value);
-                    monthlyMaxResult.get(Month.AUGUST).add(firstMonthlyEntry);
-                    monthlyMinResult.get(Month.AUGUST).add(firstMonthlyEntry);
-                } // new max value found
-                else if (value > monthlyMaxResult.get(Month.AUGUST).get(0).getValue()) {
-                    monthlyMaxResult.get(Month.AUGUST).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.AUGUST).add(newEntry);
-                } // new min value found
-                else if (value < monthlyMinResult.get(Month.AUGUST).get(0).getValue()) {
-                    monthlyMinResult.get(Month.AUGUST).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.AUGUST).add(newEntry);
-                } // same max value on a different date found
-                else if (value == monthlyMaxResult.get(Month.AUGUST).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.AUGUST).add(newEntry);
-                } // same min value on a different date found
-                else if (value == monthlyMinResult.get(Month.AUGUST).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.AUGUST).add(newEntry);
+            }
+        }
+        return valuePos;
+    }
+
+    /**
+     * Disk version of filterValueRangePos for the temperature or humidity column file.
+     */
+    public static PositionSet filterValueRangePosDisk(String fileName, float low, float high) {
+        ColumnVersion columnVersion = IOManager.getColumnVersionFromDisk();
+        PositionSet valuePos = new PositionSet();
+        try (ColumnChunkReader valueCol = IOManager.getColumnChunkReaderFromDisk(columnVersion, fileName, ColumnFile.TYPE_FLOAT32)) {
+            ZoneMap valueZoneMap = IOManager.getZoneMapFromDisk(columnVersion, fileName, valueCol.getRowCount());
+            for (int block=0; block<valueZoneMap.getBlockCount(); block++) {
+                if (valueZoneMap.mayContain(block, low, high)) {
+                    valueCol.addRange(valueZoneMap.getBlockStart(block), valueZoneMap.getBlockEnd(block));
                 }
-                break;
-            case Calendar.SEPTEMBER:
-                // first row of respective month with available data, so we set as max or min values
-                if (monthlyMaxResult.get(Month.SEPTEMBER).size() == 0) {
-                    String date = Parser.dateToDateString(cal);
-                    RowEntry firstMonthlyEntry = new RowEntry(date, value);
-                    monthlyMaxResult.get(Month.SEPTEMBER).add(firstMonthlyEntry);
-                    monthlyMinResult.get(Month.SEPTEMBER).add(firstMonthlyEntry);
-                } // new max value found
-                else if (value > monthlyMaxResult.get(Month.SEPTEMBER).get(0).getValue()) {
-                    monthlyMaxResult.get(Month.SEPTEMBER).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.SEPTEMBER).add(newEntry);
-                } // new min value found
-                else if (value < monthlyMinResult.get(Month.SEPTEMBER).get(0).getValue()) {
-                    monthlyMinResult.get(Month.SEPTEMBER).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.SEPTEMBER).add(newEntry);
-                } // same max value on a different date found
-                else if (value == monthlyMaxResult.get(Month.SEPTEMBER).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.SEPTEMBER).add(newEntry);
-                } // same min value on a different date found
-                else if (value == monthlyMinResult.get(Month.SEPTEMBER).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.SEPTEMBER).add(newEntry);
+            }
+            ColumnChunkReader.Chunk chunk;
+            while ((chunk = valueCol.next()) != null) {
+                for (int i=chunk.getStartRow(); i<chunk.getEndRow(); i++) {
+                    float value = chunk.getFloat(i);
+                    if (value >= low && value <= high && value != Float.MAX_VALUE) {
+                        valuePos.add(i);
+                    }
                 }
-                break;
-            case Calendar.OCTOBER:
-                // first row of respective month with available data, so we set as max or min values
-                if (monthlyMaxResult.get(Month.OCTOBER).size() == 0) {
-                    String date = Parser.dateToDateString(cal);
-                    RowEntry firstMonthlyEntry = new RowEntry(date, value);
-                    monthlyMaxResult.get(Month.OCTOBER).add(firstMonthlyEntry);
-                    monthlyMinResult.get(Month.OCTOBER).add(firstMonthlyEntry);
-                } // new max value found
-                else if (value > monthlyMaxResult.get(Month.OCTOBER).get(0).getValue()) {
-                    monthlyMaxResult.get(Month.OCTOBER).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.OCTOBER).add(newEntry);
-                } // new min value found
-                else if (value < monthlyMinResult.get(Month.OCTOBER).get(0).getValue()) {
-                    monthlyMinResult.get(Month.OCTOBER).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.OCTOBER).add(newEntry);
-                } // same max value on a different date found
-                else if (value == monthlyMaxResult.get(Month.OCTOBER).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.OCTOBER).add(newEntry);
-                } // same min value on a different date found
-                else if (value == monthlyMinResult.get(Month.OCTOBER).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.OCTOBER).add(newEntry);
+            }
+        }
+        return valuePos;
+    }
+
+    /**
+     * Iterates through the station column and returns the set of row indexes with the corresponding station.
+     * @param stationCode dictionary code of the station, StationDictionary.NOT_FOUND matches no rows.
+     */
+    public static PositionSet filterStationPos(short stationCode, ShortBuffer stationCol, int rowCount) {
+        PositionSet stationPos = new PositionSet();
+        scanStationPos(stationCode, stationCol, 0, rowCount, stationPos);
+        return stationPos;
+    }
+
+    /**
+     * Version of filterStationPos that takes the positions of the station from the inverted index of the snapshot.
+     * Only the rows appended after the index was built are scanned.
+     */
+    public static PositionSet filterStationPos(short stationCode, ColumnData data) {
+        StationIndex stationIndex = data.getStationIndex();
+        PositionSet stationPos = stationIndex.getPositions(stationCode);
+        scanStationPos(stationCode, data.getStationCol(), stationIndex.getRowCount(), data.getRowCount(), stationPos);
+        return stationPos;
+    }
+
+    private static void scanStationPos(short stationCode, ShortBuffer stationCol, int fromRow, int toRow, PositionSet stationPos) {
+        for (int i=fromRow; i<toRow; i++) {
+            if (stationCol.get(i) == stationCode) {
+                stationPos.add(i);
+            }
+        }
+    }
+
+    /**
+     * Disk version of filterStationPos. The positions of the station are read from the inverted index file, only
+     * the rows appended after the index was built are read from the column file.
+     */
+    public static PositionSet filterStationPosDisk(String stationToQuery) {
+        ColumnVersion columnVersion = IOManager.getColumnVersionFromDisk();
+        return filterStationPosDisk(columnVersion, IOManager.getStationDictionaryFromDisk(columnVersion).lookup(stationToQuery),
+                QueryPlan.AccessMethod.INDEX);
+    }
+
+    /**
+     * Version of filterStationPosDisk reading the column with the access method chosen by the planner, every row is
+     * read unless it is an index lookup.
+     */
+    private static PositionSet filterStationPosDisk(ColumnVersion columnVersion, short stationCode,
+                                                    QueryPlan.AccessMethod accessMethod) {
+        try (ColumnChunkReader stationCol = IOManager.getColumnChunkReaderFromDisk(columnVersion, "station", ColumnFile.TYPE_INT16)) {
+            StationIndex stationIndex = accessMethod == QueryPlan.AccessMethod.INDEX
+                    ? IOManager.getStationIndexFromDisk(columnVersion, stationCode, stationCol.getRowCount()) : null;
+            PositionSet stationPos = stationIndex != null ? stationIndex.getPositions(stationCode) : new PositionSet();
+            stationCol.addRange(stationIndex != null ? stationIndex.getRowCount() : 0, stationCol.getRowCount());
+            ColumnChunkReader.Chunk chunk;
+            while ((chunk = stationCol.next()) != null) {
+                for (int i=chunk.getStartRow(); i<chunk.getEndRow(); i++) {
+                    if (chunk.getShort(i) == stationCode) {
+                        stationPos.add(i);
+                    }
                 }
-                break;
-            case Calendar.NOVEMBER:
-                // first row of respective month with available data, so we set as max or min values
-                if (monthlyMaxResult.get(Month.NOVEMBER).size() == 0) {
-                    String date = Parser.dateToDateString(cal);
-                    RowEntry firstMonthlyEntry = new RowEntry(date, value);
-                    monthlyMaxResult.get(Month.NOVEMBER).add(firstMonthlyEntry);
-                    monthlyMinResult.get(Month.NOVEMBER).add(firstMonthlyEntry);
-                } // new max value found
-                else if (value > monthlyMaxResult.get(Month.NOVEMBER).get(0).getValue()) {
-                    monthlyMaxResult.get(Month.NOVEMBER).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.NOVEMBER).add(newEntry);
-                } // new min value found
-                else if (value < monthlyMinResult.get(Month.NOVEMBER).get(0).getValue()) {
-                    monthlyMinResult.get(Month.NOVEMBER).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.NOVEMBER).add(newEntry);
-                } // same max value on a different date found
-                else if (value == monthlyMaxResult.get(Month.NOVEMBER).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.NOVEMBER).add(newEntry);
-                } // same min value on a different date found
-                else if (value == monthlyMinResult.get(Month.NOVEMBER).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.NOVEMBER).add(newEntry);
+            }
+            return stationPos;
+        }
+    }
+
+    /**
+     * Returns the positions in pos whose timestamps lie in the year, only the timestamps of those rows are read.
+     */
+    public static PositionSet probeYearPos(int year, IntBuffer timestampCol, PositionSet pos) {
+        int yearStart = Parser.yearToEpochMinute(year);
+        int yearEnd = Parser.yearToEpochMinute(year + 1) - 1;
+        PositionSet yearPos = new PositionSet();
+        PositionSet.PositionIterator positions = pos.iterator();
+        while (positions.hasNext()) {
+            int position = positions.next();
+            int timestamp = timestampCol.get(position);
+            if (timestamp >= yearStart && timestamp <= yearEnd) {
+                yearPos.add(position);
+            }
+        }
+        return yearPos;
+    }
+
+    /**
+     * Disk version of probeYearPos, fetching the timestamps of the positions from the column file.
+     */
+    private static PositionSet probeYearPosDisk(ColumnVersion columnVersion, int year, PositionSet pos) {
+        int yearStart = Parser.yearToEpochMinute(year);
+        int yearEnd = Parser.yearToEpochMinute(year + 1) - 1;
+        int[] positions = pos.toArray();
+        int[] timestamps = IOManager.fetchIntsFromDisk(columnVersion, "timestamp", positions);
+        PositionSet yearPos = new PositionSet();
+        for (int i=0; i<positions.length; i++) {
+            if (timestamps[i] >= yearStart && timestamps[i] <= yearEnd) {
+                yearPos.add(positions[i]);
+            }
+        }
+        return yearPos;
+    }
+
+    /**
+     * Returns the positions in pos with the station, only the station codes of those rows are read.
+     */
+    public static PositionSet probeStationPos(short stationCode, ShortBuffer stationCol, PositionSet pos) {
+        PositionSet stationPos = new PositionSet();
+        PositionSet.PositionIterator positions = pos.iterator();
+        while (positions.hasNext()) {
+            int position = positions.next();
+            if (stationCol.get(position) == stationCode) {
+                stationPos.add(position);
+            }
+        }
+        return stationPos;
+    }
+
+    private static PositionSet probeStationPosDisk(ColumnVersion columnVersion, short stationCode, PositionSet pos) {
+        int[] positions = pos.toArray();
+        short[] stationCodes = IOManager.fetchShortsFromDisk(columnVersion, "station", positions);
+        PositionSet stationPos = new PositionSet();
+        for (int i=0; i<positions.length; i++) {
+            if (stationCodes[i] == stationCode) {
+                stationPos.add(positions[i]);
+            }
+        }
+        return stationPos;
+    }
+
+    /**
+     * Fused aggregation of several metric columns in a single pass over the filtered positions.
+     * Each timestamp is decoded once and the monthly accumulators of all metrics are updated together.
+     * @param timestampCol in memory
+     * @param pos filtered positions by year and station
+     * @param metricNames category names of the metrics, results are stored under "Max name" and "Min name"
+     * @param metricCols metric columns in memory in the same order as metricNames
+     * @return Hashmap containing max and min values of every metric for each month.
+     */
+    public static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getMonthlyMinMax(IntBuffer timestampCol, PositionSet pos,
+                                                                                     String[] metricNames,
+                                                                                     FloatBuffer... metricCols) {
+        MonthlyMinMaxAccumulator[] accumulators = newAccumulators(metricCols.length);
+        PositionSet.PositionIterator positions = pos.iterator();
+        while (positions.hasNext()) {
+            int position = positions.next();
+            int timestamp = timestampCol.get(position);
+            int month = Parser.epochMinuteToMonthValue(timestamp);
+            int day = Math.floorDiv(timestamp, Parser.MINUTES_PER_DAY);
+            for (int metric=0; metric<metricCols.length; metric++) {
+                accumulators[metric].add(month, day, metricCols[metric].get(position));
+            }
+        }
+        return toResult(accumulators, metricNames);
+    }
+
+    /**
+     * Disk version of getMonthlyMinMax. The timestamp and each metric column file are read once with a batched fetch.
+     * @param columnVersion version of the column files the positions were filtered from
+     * @param pos filtered positions by year and station in ascending order
+     * @param metricNames category names of the metrics
+     * @param metricFileNames column files of the metrics in the same order as metricNames
+     */
+    public static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getMonthlyMinMaxDisk(ColumnVersion columnVersion, int[] pos,
+                                                                                         String[] metricNames,
+                                                                                         String[] metricFileNames) {
+        int[] timestamps = IOManager.fetchIntsFromDisk(columnVersion, "timestamp", pos);
+        float[][] metricValues = new float[metricFileNames.length][];
+        for (int metric=0; metric<metricFileNames.length; metric++) {
+            metricValues[metric] = IOManager.fetchFloatsFromDisk(columnVersion, metricFileNames[metric], pos);
+        }
+        return getMonthlyMinMax(timestamps, metricValues, metricNames);
+    }
+
+    /**
+     * Aggregates fetched rows by month.
+     * @param metricValues values of each metric, in the same order as the timestamps
+     */
+    private static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getMonthlyMinMax(int[] timestamps, float[][] metricValues,
+                                                                                      String[] metricNames) {
+        MonthlyMinMaxAccumulator[] accumulators = newAccumulators(metricValues.length);
+        for (int i=0; i<timestamps.length; i++) {
+            int month = Parser.epochMinuteToMonthValue(timestamps[i]);
+            int day = Math.floorDiv(timestamps[i], Parser.MINUTES_PER_DAY);
+            for (int metric=0; metric<metricValues.length; metric++) {
+                accumulators[metric].add(month, day, metricValues[metric][i]);
+            }
+        }
+        return toResult(accumulators, metricNames);
+    }
+
+    /**
+     * Aggregates every row of the partition of the year and station, see PartitionManifest.
+     * @param partitionRowCount rows of the partition listed in the manifest, 0 if there is no partition
+     * @return result, or null if a column file of the partition is missing or holds fewer rows than the manifest lists
+     */
+    private static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getMonthlyMinMaxPartitionDisk(int year, short stationCode,
+                                                                                                   int partitionRowCount) {
+        if (partitionRowCount == 0) {
+            return toResult(newAccumulators(METRIC_NAMES.length), METRIC_NAMES);
+        }
+        int[] pos = new int[partitionRowCount];
+        for (int i=0; i<partitionRowCount; i++) {
+            pos[i] = i;
+        }
+        try (ColumnFile timestampCol = IOManager.openPartitionColumnFromDisk(
+                     PartitionManifest.getColumnFileName(year, stationCode, "timestamp"), ColumnFile.TYPE_INT32, partitionRowCount);
+             ColumnFile temperatureCol = IOManager.openPartitionColumnFromDisk(
+                     PartitionManifest.getColumnFileName(year, stationCode, "temperature"), ColumnFile.TYPE_FLOAT32, partitionRowCount);
+             ColumnFile humidityCol = IOManager.openPartitionColumnFromDisk(
+                     PartitionManifest.getColumnFileName(year, stationCode, "humidity"), ColumnFile.TYPE_FLOAT32, partitionRowCount)) {
+            float[][] metricValues = {temperatureCol.fetchFloats(pos), humidityCol.fetchFloats(pos)};
+            return getMonthlyMinMax(timestampCol.fetchInts(pos), metricValues, METRIC_NAMES);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Filters a range of zone map blocks by year and station and aggregates the qualifying rows.
+     * Ranges larger than a morsel are split in half and the halves merged in row order.
+     * The result holds the temperature accumulator followed by the humidity accumulator.
+     */
+    private static class MorselTask extends RecursiveTask<MonthlyMinMaxAccumulator[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final ColumnData data;
+        private final int yearStart;
+        private final int yearEnd;
+        private final short stationCode;
+        private final int fromBlock;
+        private final int toBlock;
+
+        MorselTask(ColumnData data, int yearStart, int yearEnd, short stationCode, int fromBlock, int toBlock) {
+            this.data = data;
+            this.yearStart = yearStart;
+            this.yearEnd = yearEnd;
+            this.stationCode = stationCode;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+        }
+
+        @Override
+        protected MonthlyMinMaxAccumulator[] compute() {
+            if (toBlock - fromBlock > BLOCKS_PER_MORSEL) {
+                int middleBlock = (fromBlock + toBlock) >>> 1;
+                MorselTask left = new MorselTask(data, yearStart, yearEnd, stationCode, fromBlock, middleBlock);
+                MorselTask right = new MorselTask(data, yearStart, yearEnd, stationCode, middleBlock, toBlock);
+                left.fork();
+                MonthlyMinMaxAccumulator[] rightResult = right.compute();
+                MonthlyMinMaxAccumulator[] leftResult = left.join();
+                leftResult[0].merge(rightResult[0]);
+                leftResult[1].merge(rightResult[1]);
+                return leftResult;
+            }
+            IntBuffer timestampCol = data.getTimestampCol();
+            ShortBuffer stationCol = data.getStationCol();
+            FloatBuffer temperatureCol = data.getTemperatureCol();
+            FloatBuffer humidityCol = data.getHumidityCol();
+            ZoneMap timestampZoneMap = data.getTimestampZoneMap();
+            MonthlyMinMaxAccumulator temperatureAccumulator = new MonthlyMinMaxAccumulator();
+            MonthlyMinMaxAccumulator humidityAccumulator = new MonthlyMinMaxAccumulator();
+            for (int block=fromBlock; block<toBlock; block++) {
+                if (!timestampZoneMap.mayContain(block, yearStart, yearEnd)) {
+                    continue;
                 }
-                break;
-            case Calendar.DECEMBER:
-                // first row of respective month with available data, so we set as max or min values
-                if (monthlyMaxResult.get(Month.DECEMBER).size() == 0) {
-                    String date = Parser.dateToDateString(cal);
-                    RowEntry firstMonthlyEntry = new RowEntry(date, value);
-                    monthlyMaxResult.get(Month.DECEMBER).add(firstMonthlyEntry);
-                    monthlyMinResult.get(Month.DECEMBER).add(firstMonthlyEntry);
-                } // new max value found
-                else if (value > monthlyMaxResult.get(Month.DECEMBER).get(0).getValue()) {
-                    monthlyMaxResult.get(Month.DECEMBER).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.DECEMBER).add(newEntry);
-                } // new min value found
-                else if (value < monthlyMinResult.get(Month.DECEMBER).get(0).getValue()) {
-                    monthlyMinResult.get(Month.DECEMBER).clear();
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.DECEMBER).add(newEntry);
-                } // same max value on a different date found
-                else if (value == monthlyMaxResult.get(Month.DECEMBER).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMaxResult.get(Month.DECEMBER).add(newEntry);
-                } // same min value on a different date found
-                else if (value == monthlyMinResult.get(Month.DECEMBER).get(0).getValue()) {
-                    RowEntry newEntry = new RowEntry(Parser.dateToDateString(cal), value);
-                    monthlyMinResult.get(Month.DECEMBER).add(newEntry);
+                int blockEnd = timestampZoneMap.getBlockEnd(block);
+                for (int i=timestampZoneMap.getBlockStart(block); i<blockEnd; i++) {
+                    int timestamp = timestampCol.get(i);
+                    if (timestamp >= yearStart && timestamp <= yearEnd && stationCol.get(i) == stationCode) {
+                        int month = Parser.epochMinuteToMonthValue(timestamp);
+                        int day = Math.floorDiv(timestamp, Parser.MINUTES_PER_DAY);
+                        temperatureAccumulator.add(month, day, temperatureCol.get(i));
+                        humidityAccumulator.add(month, day, humidityCol.get(i));
+                    }
                 }
-                break;
+            }
+            return new MonthlyMinMaxAccumulator[] {temperatureAccumulator, humidityAccumulator};
         }
     }
 
+    private static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getCachedResult(int year, String station,
+                                                                                       QueryResultCache.Source source) {
+        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result = QueryResultCache.get(QueryResultCache.Kind.MONTHLY_MIN_MAX,
+                year, station, source);
+        if (result != null) {
+            System.out.println("Using cached result for year: " + year + " at station: " + station + " with data from "
+                    + source.name().toLowerCase());
+        }
+        return result;
+    }
 
-}
+    private static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getCachedResult(int year, String station,
+                                                                                       QueryResultCache.Source source,
+                                                                                       QueryProfile profile) {
+        QueryProfile.Operator operator = profile.start("result cache");
+        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result = getCachedResult(year, station, source);
+        operator.end(1, result == null ? 0 : countEntries(result));
+        return result;
+    }
+
+    /**
+     * Year and station queries are answered from the monthly aggregate cube whenever it covers every row.
+     * Disabling it makes them scan the columns, e.g. to compare both.
+     */
+    public static void setMonthlyCubeEnabled(boolean enabled) {
+        monthlyCubeEnabled = enabled;
+    }
 
+    /**
+     * @return monthly aggregates covering every row of the column files of the version, or null if queries have to scan.
+     */
+    private static MonthlyAggregateCube getMonthlyCubeDisk(ColumnVersion columnVersion) {
+        if (!monthlyCubeEnabled) {
+            return null;
+        }
+        return IOManager.getMonthlyCubeFromDisk(columnVersion, IOManager.getRowCountFromDisk(columnVersion));
+    }
+
+    /**
+     * @return monthly aggregates covering every row of the snapshot, or null if queries have to scan.
+     */
+    private static MonthlyAggregateCube getMonthlyCube(ColumnData data) {
+        if (!monthlyCubeEnabled) {
+            return null;
+        }
+        MonthlyAggregateCube cube = data.getMonthlyCube();
+        return cube != null && cube.getRowCount() == data.getRowCount() ? cube : null;
+    }
+
+    private static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getCubeResult(int year, String station,
+                                                                                    QueryResultCache.Source source) {
+        ColumnData data = source == QueryResultCache.Source.MEMORY ? ColumnarMemory.getColumnData() : null;
+        ColumnVersion columnVersion = data == null ? IOManager.getColumnVersionFromDisk() : null;
+        MonthlyAggregateCube cube = data != null ? getMonthlyCube(data) : getMonthlyCubeDisk(columnVersion);
+        if (cube == null) {
+            return null;
+        }
+        System.out.println("Answering query for year: " + year + " at station: " + station + " from monthly aggregates with data from "
+                + source.name().toLowerCase());
+        StationDictionary stationDictionary = data != null ? data.getStationDictionary()
+                : IOManager.getStationDictionaryFromDisk(columnVersion);
+        return cube.getMonthlyMinMax(stationDictionary.lookup(station), year, METRIC_NAMES);
+    }
+
+    private static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> getCubeResult(int year, String station,
+                                                                                    QueryResultCache.Source source,
+                                                                                    QueryProfile profile) {
+        QueryProfile.Operator operator = profile.start("monthly cube");
+        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result = getCubeResult(year, station, source);
+        operator.end(1, result == null ? 0 : countEntries(result));
+        return result;
+    }
+
+    /**
+     * @return number of result rows, the dates of every monthly max and min.
+     */
+    private static int countEntries(HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result) {
+        int count = 0;
+        for (HashMap<Month, ArrayList<RowEntry>> months : result.values()) {
+            for (ArrayList<RowEntry> entries : months.values()) {
+                count += entries.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Puts the cached results of the requests into results.
+     * @return requests without a cached result, each listed once.
+     */
+    private static List<QueryRequest> getCachedResults(List<QueryRequest> requests, QueryResultCache.Source source,
+                                                       HashMap<QueryRequest, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> results) {
+        List<QueryRequest> uncachedRequests = new ArrayList<>();
+        for (QueryRequest request : requests) {
+            if (results.containsKey(request) || uncachedRequests.contains(request)) {
+                continue;
+            }
+            HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result = getCachedResult(request.getYear(), request.getStation(), source);
+            if (result != null) {
+                results.put(request, result);
+            } else {
+                uncachedRequests.add(request);
+            }
+        }
+        return uncachedRequests;
+    }
+
+    /**
+     * Caches the scanned results and combines them with the cached ones in request order.
+     */
+    private static LinkedHashMap<QueryRequest, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> mergeBatchResults(
+            List<QueryRequest> requests, HashMap<QueryRequest, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> cachedResults,
+            HashMap<QueryRequest, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> scannedResults,
+            QueryResultCache.Source source, long version) {
+        for (Map.Entry<QueryRequest, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> entry : scannedResults.entrySet()) {
+            QueryResultCache.put(QueryResultCache.Kind.MONTHLY_MIN_MAX, entry.getKey().getYear(), entry.getKey().getStation(),
+                    source, version, entry.getValue());
+        }
+        LinkedHashMap<QueryRequest, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> results = new LinkedHashMap<>();
+        for (QueryRequest request : requests) {
+            results.put(request, scannedResults.containsKey(request) ? scannedResults.get(request) : cachedResults.get(request));
+        }
+        return results;
+    }
+
+    private static MonthlyMinMaxAccumulator[] newAccumulators(int metricCount) {
+        MonthlyMinMaxAccumulator[] accumulators = new MonthlyMinMaxAccumulator[metricCount];
+        for (int metric=0; metric<metricCount; metric++) {
+            accumulators[metric] = new MonthlyMinMaxAccumulator();
+        }
+        return accumulators;
+    }
+
+    private static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> toResult(MonthlyMinMaxAccumulator[] accumulators,
+                                                                             String[] metricNames) {
+        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result = new HashMap<>();
+        for (int metric=0; metric<accumulators.length; metric++) {
+            result.putAll(accumulators[metric].toResult("Max " + metricNames[metric], "Min " + metricNames[metric]));
+        }
+        return result;
+    }
+
+    /**
+     * Accumulators of a query batch, indexed by year and station code in a dense table so that routing a row
+     * to its query is an array lookup.
+     */
+    private static class BatchAccumulators {
+        private final List<QueryRequest> requests;
+        private final StationDictionary stationDictionary;
+        private final int firstYear;
+        private final int stationCount;
+        private final MonthlyMinMaxAccumulator[][] table;
+        private final int firstMinute;
+        private final int lastMinute;
+        // year boundaries of the last row, rows are mostly in time order so the year rarely has to be decoded
+        private int currentYear;
+        private int currentYearStart = 1;
+        private int currentYearEnd = 0;
+
+        BatchAccumulators(List<QueryRequest> requests, StationDictionary stationDictionary) {
+            this.requests = requests;
+            this.stationDictionary = stationDictionary;
+            int minYear = Integer.MAX_VALUE;
+            int maxYear = Integer.MIN_VALUE;
+            for (QueryRequest request : requests) {
+                minYear = Math.min(minYear, request.getYear());
+                maxYear = Math.max(maxYear, request.getYear());
+            }
+            if (requests.isEmpty()) {
+                minYear = 0;
+                maxYear = -1;
+            }
+            firstYear = minYear;
+            stationCount = stationDictionary.size();
+            table = new MonthlyMinMaxAccumulator[(maxYear - minYear + 1) * stationCount][];
+            for (QueryRequest request : requests) {
+                short stationCode = stationDictionary.lookup(request.getStation());
+                int index = (request.getYear() - firstYear) * stationCount + stationCode;
+                if (stationCode != StationDictionary.NOT_FOUND && table[index] == null) {
+                    table[index] = newAccumulators(METRIC_NAMES.length);
+                }
+            }
+            firstMinute = requests.isEmpty() ? 0 : Parser.yearToEpochMinute(minYear);
+            lastMinute = requests.isEmpty() ? -1 : Parser.yearToEpochMinute(maxYear + 1) - 1;
+        }
+
+        /**
+         * @return accumulators of the query the row satisfies, or null if it satisfies none.
+         */
+        MonthlyMinMaxAccumulator[] find(int timestamp, short stationCode) {
+            if (timestamp < firstMinute || timestamp > lastMinute) {
+                return null;
+            }
+            if (timestamp < currentYearStart || timestamp > currentYearEnd) {
+                currentYear = Parser.epochMinuteToYear(timestamp);
+                currentYearStart = Parser.yearToEpochMinute(currentYear);
+                currentYearEnd = Parser.yearToEpochMinute(currentYear + 1) - 1;
+            }
+            return table[(currentYear - firstYear) * stationCount + stationCode];
+        }
+
+        void add(MonthlyMinMaxAccumulator[] accumulators, int timestamp, float temperature, float humidity) {
+            int month = Parser.epochMinuteToMonthValue(timestamp);
+            int day = Math.floorDiv(timestamp, Parser.MINUTES_PER_DAY);
+            accumulators[0].add(month, day, temperature);
+            accumulators[1].add(month, day, humidity);
+        }
+
+        /**
+         * @return accumulators of the request, or null if its station is unknown.
+         */
+        MonthlyMinMaxAccumulator[] get(QueryRequest request) {
+            short stationCode = stationDictionary.lookup(request.getStation());
+            return stationCode == StationDictionary.NOT_FOUND ? null
+                    : table[(request.getYear() - firstYear) * stationCount + stationCode];
+        }
+
+        LinkedHashMap<QueryRequest, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> toResults() {
+            LinkedHashMap<QueryRequest, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> results = new LinkedHashMap<>();
+            for (QueryRequest request : requests) {
+                MonthlyMinMaxAccumulator[] accumulators = get(request);
+                results.put(request, toResult(accumulators == null ? newAccumulators(METRIC_NAMES.length) : accumulators,
+                        METRIC_NAMES));
+            }
+            return results;
+        }
+    }
+}
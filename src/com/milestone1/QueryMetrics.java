@@ -0,0 +1,123 @@
+package com.milestone1;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-process registry of query metrics, totals per data source and operator over every profiled query since the last
+ * reset. With setExplainAnalyze(true) each query also prints its QueryProfile.explainAnalyze summary.
+ */
+public class QueryMetrics {
+    private static final TreeMap<String, Totals> operatorTotals = new TreeMap<>();
+    private static long queryCount;
+    private static long queryNanos;
+    private static QueryProfile lastProfile;
+    private static boolean explainAnalyze;
+
+    /**
+     * Running totals of one operator.
+     */
+    public static class Totals {
+        private long count;
+        private long wallNanos;
+        private long rowsIn;
+        private long rowsOut;
+        private long bytesRead;
+        private long allocatedBytes;
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        public long getRowsIn() {
+            return rowsIn;
+        }
+
+        public long getRowsOut() {
+            return rowsOut;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+    }
+
+    public static synchronized void setExplainAnalyze(boolean enabled) {
+        explainAnalyze = enabled;
+    }
+
+    static synchronized void recordOperator(QueryResultCache.Source source, QueryProfile.OperatorStats operator) {
+        Totals totals = operatorTotals.computeIfAbsent(key(source, operator.getName()), name -> new Totals());
+        totals.count++;
+        totals.wallNanos += operator.getWallNanos();
+        totals.rowsIn += operator.getRowsIn();
+        totals.rowsOut += operator.getRowsOut();
+        totals.bytesRead += operator.getBytesRead();
+        totals.allocatedBytes += Math.max(0, operator.getAllocatedBytes());
+    }
+
+    static void recordQuery(QueryProfile profile) {
+        boolean print;
+        synchronized (QueryMetrics.class) {
+            queryCount++;
+            queryNanos += profile.getElapsedNanos();
+            lastProfile = profile;
+            print = explainAnalyze;
+        }
+        if (print) {
+            System.out.print(profile.explainAnalyze());
+        }
+    }
+
+    /**
+     * @return totals of the operator on the source, or null if it has not run since the last reset.
+     */
+    public static synchronized Totals getOperatorTotals(QueryResultCache.Source source, String operator) {
+        return operatorTotals.get(key(source, operator));
+    }
+
+    /**
+     * @return profile of the most recent query, or null if none has run.
+     */
+    public static synchronized QueryProfile getLastProfile() {
+        return lastProfile;
+    }
+
+    public static synchronized long getQueryCount() {
+        return queryCount;
+    }
+
+    public static synchronized void reset() {
+        operatorTotals.clear();
+        queryCount = 0;
+        queryNanos = 0;
+        lastProfile = null;
+    }
+
+    /**
+     * @return the registry as text, one line per source and operator.
+     */
+    public static synchronized String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Query metrics: %d queries, %.3f ms%n", queryCount, queryNanos / 1e6));
+        for (Map.Entry<String, Totals> entry : operatorTotals.entrySet()) {
+            Totals totals = entry.getValue();
+            builder.append(String.format("  %-24s calls=%d time=%.3f ms rows in=%d out=%d read=%d bytes allocated=%d bytes%n",
+                    entry.getKey(), totals.count, totals.wallNanos / 1e6, totals.rowsIn, totals.rowsOut,
+                    totals.bytesRead, totals.allocatedBytes));
+        }
+        return builder.toString();
+    }
+
+    private static String key(QueryResultCache.Source source, String operator) {
+        return source.name().toLowerCase() + " " + operator;
+    }
+}
@@ -0,0 +1,140 @@
+package com.milestone1;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plan of a year and station query chosen by QueryPlanner: the predicates in the order they are evaluated, each with
+ * its access method and the estimated number of rows and cost. toString gives the plan printout.
+ */
+public class QueryPlan {
+
+    public enum Predicate {
+        YEAR("filter year"),
+        STATION("filter station");
+
+        private final String operatorName;
+
+        Predicate(String operatorName) {
+            this.operatorName = operatorName;
+        }
+
+        /**
+         * @return name of the operator evaluating the predicate in query profiles.
+         */
+        public String getOperatorName() {
+            return operatorName;
+        }
+    }
+
+    public enum AccessMethod {
+        // reads every row of the column
+        FULL_SCAN("full scan"),
+        // reads only the blocks whose zone map may hold matching values
+        ZONE_MAP("zone map skip"),
+        // looks the rows up in the station or timestamp index and scans the rows appended after it was built
+        INDEX("index lookup"),
+        // checks only the rows selected by the previous predicate
+        PROBE("probe");
+
+        private final String description;
+
+        AccessMethod(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * Evaluation of one predicate.
+     */
+    public static class Step {
+        private final Predicate predicate;
+        private final AccessMethod accessMethod;
+        private final long estimatedRows;
+        private final double cost;
+
+        Step(Predicate predicate, AccessMethod accessMethod, long estimatedRows, double cost) {
+            this.predicate = predicate;
+            this.accessMethod = accessMethod;
+            this.estimatedRows = estimatedRows;
+            this.cost = cost;
+        }
+
+        public Predicate getPredicate() {
+            return predicate;
+        }
+
+        public AccessMethod getAccessMethod() {
+            return accessMethod;
+        }
+
+        /**
+         * @return estimated number of rows selected after this step, by this predicate and every one before it.
+         */
+        public long getEstimatedRows() {
+            return estimatedRows;
+        }
+
+        /**
+         * @return estimated cost of the step in rows read, including intersecting with the previous steps.
+         */
+        public double getCost() {
+            return cost;
+        }
+    }
+
+    private final String query;
+    private final QueryResultCache.Source source;
+    private final int rowCount;
+    private final boolean usesStatistics;
+    private final ArrayList<Step> steps = new ArrayList<>();
+
+    QueryPlan(String query, QueryResultCache.Source source, int rowCount, boolean usesStatistics, List<Step> steps) {
+        this.query = query;
+        this.source = source;
+        this.rowCount = rowCount;
+        this.usesStatistics = usesStatistics;
+        this.steps.addAll(steps);
+    }
+
+    /**
+     * @return number of rows of the columns the plan was made for.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    public double getCost() {
+        double cost = 0;
+        for (Step step : steps) {
+            cost += step.cost;
+        }
+        return cost;
+    }
+
+    /**
+     * @return plan printout with one line per step in evaluation order.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Plan for %s with data from %s: %d rows, %s, cost=%.0f%n", query,
+                source.name().toLowerCase(), rowCount, usesStatistics ? "estimated from statistics" : "no statistics",
+                getCost()));
+        for (int i=0; i<steps.size(); i++) {
+            Step step = steps.get(i);
+            builder.append(String.format("  %d. %-16s %-14s est. rows=%d cost=%.0f%n", i + 1,
+                    step.predicate.getOperatorName(), step.accessMethod.getDescription(), step.estimatedRows, step.cost));
+        }
+        return builder.toString();
+    }
+}
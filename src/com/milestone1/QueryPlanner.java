@@ -0,0 +1,152 @@
+package com.milestone1;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Small cost-based optimizer for year and station queries.
+ *
+ * The number of rows each predicate selects is estimated from the ColumnStatistics, and each predicate gets the
+ * cheapest of its access methods: a full scan, a zone map skip (year only) or an index lookup. Both predicate orders
+ * are costed. The second predicate either probes the rows selected by the first one or is evaluated on its own and
+ * intersected with them, whichever is cheaper. So a rare station is filtered first even when the year would
+ * usually be the more selective predicate.
+ *
+ * Costs are counted in rows read by a sequential scan, the other operations are weighted relative to it.
+ */
+public class QueryPlanner {
+    private static final double SCAN_ROW_COST = 1;
+    // reading a row out of order, for probes and binary search steps
+    private static final double RANDOM_ROW_COST = 2;
+    // reading a position of the timestamp index, sorting it into row order and adding it to a position set
+    private static final double TIMESTAMP_INDEX_ROW_COST = 2;
+    // copying or intersecting one position of a position set, which holds dense runs as bitmaps
+    private static final double POSITION_COST = 0.25;
+    // selectivity assumed for a predicate when there are no statistics
+    private static final double DEFAULT_SELECTIVITY = 0.1;
+
+    /**
+     * Plans a query on a snapshot of the columns in memory.
+     * @param stationCode dictionary code of the station in the snapshot
+     */
+    public static QueryPlan plan(String query, int year, short stationCode, ColumnData data) {
+        return plan(query, QueryResultCache.Source.MEMORY, year, stationCode, data.getRowCount(), data.getStatistics(),
+                data.getTimestampZoneMap(), data.getTimestampIndex().getRowCount(), data.getStationIndex().getRowCount());
+    }
+
+    /**
+     * Plans a query on the column files of a version, with the statistics, zone map and indexes stored next to them.
+     * @param stationCode dictionary code of the station in the dictionary of the version
+     */
+    public static QueryPlan planDisk(ColumnVersion columnVersion, String query, int year, short stationCode) {
+        int rowCount = IOManager.getRowCountFromDisk(columnVersion);
+        return plan(query, QueryResultCache.Source.DISK, year, stationCode, rowCount,
+                IOManager.getColumnStatisticsFromDisk(columnVersion, rowCount),
+                IOManager.getZoneMapFromDisk(columnVersion, "timestamp", rowCount),
+                IOManager.getTimestampIndexRowCountFromDisk(columnVersion, rowCount),
+                IOManager.getStationIndexRowCountFromDisk(columnVersion, rowCount));
+    }
+
+    /**
+     * @param statistics statistics of the columns, ignored unless they cover exactly rowCount rows
+     * @param timestampIndexRowCount rows covered by the timestamp index, 0 if there is none
+     * @param stationIndexRowCount rows covered by the station index, 0 if there is none
+     */
+    static QueryPlan plan(String query, QueryResultCache.Source source, int year, short stationCode, int rowCount,
+                          ColumnStatistics statistics, ZoneMap timestampZoneMap, int timestampIndexRowCount,
+                          int stationIndexRowCount) {
+        boolean usesStatistics = statistics != null && statistics.getRowCount() == rowCount;
+        long yearRows = usesStatistics ? statistics.getYearRowCount(year) : Math.round(rowCount * DEFAULT_SELECTIVITY);
+        long stationRows = stationCode == StationDictionary.NOT_FOUND ? 0
+                : usesStatistics ? statistics.getStationRowCount(stationCode) : Math.round(rowCount * DEFAULT_SELECTIVITY);
+        int yearStart = Parser.yearToEpochMinute(year);
+        int yearEnd = Parser.yearToEpochMinute(year + 1) - 1;
+
+        // cheapest way to evaluate each predicate on its own
+        QueryPlan.AccessMethod yearMethod = QueryPlan.AccessMethod.FULL_SCAN;
+        double yearCost = rowCount * SCAN_ROW_COST;
+        double zoneMapCost = zoneMapCost(yearStart, yearEnd, timestampZoneMap, 0);
+        if (zoneMapCost < yearCost) {
+            yearMethod = QueryPlan.AccessMethod.ZONE_MAP;
+            yearCost = zoneMapCost;
+        }
+        if (timestampIndexRowCount > 0) {
+            double indexedYearRows = rowCount == 0 ? 0 : (double) yearRows * timestampIndexRowCount / rowCount;
+            double indexCost = 2 * log2(timestampIndexRowCount) * RANDOM_ROW_COST + indexedYearRows * TIMESTAMP_INDEX_ROW_COST
+                    + zoneMapCost(yearStart, yearEnd, timestampZoneMap, timestampIndexRowCount);
+            if (indexCost < yearCost) {
+                yearMethod = QueryPlan.AccessMethod.INDEX;
+                yearCost = indexCost;
+            }
+        }
+        QueryPlan.AccessMethod stationMethod = QueryPlan.AccessMethod.FULL_SCAN;
+        double stationCost = rowCount * SCAN_ROW_COST;
+        if (stationIndexRowCount > 0) {
+            double indexCost = stationRows * POSITION_COST + (rowCount - stationIndexRowCount) * SCAN_ROW_COST;
+            if (indexCost < stationCost) {
+                stationMethod = QueryPlan.AccessMethod.INDEX;
+                stationCost = indexCost;
+            }
+        }
+
+        long selectedRows = rowCount == 0 ? 0 : Math.round((double) yearRows * stationRows / rowCount);
+        List<QueryPlan.Step> yearFirst = order(QueryPlan.Predicate.YEAR, yearMethod, yearCost, yearRows,
+                QueryPlan.Predicate.STATION, stationMethod, stationCost, stationRows, selectedRows);
+        List<QueryPlan.Step> stationFirst = order(QueryPlan.Predicate.STATION, stationMethod, stationCost, stationRows,
+                QueryPlan.Predicate.YEAR, yearMethod, yearCost, yearRows, selectedRows);
+        // ties keep the year first, the order used before there were statistics
+        List<QueryPlan.Step> steps = cost(stationFirst) < cost(yearFirst) ? stationFirst : yearFirst;
+        return new QueryPlan(query, source, rowCount, usesStatistics, steps);
+    }
+
+    /**
+     * @return steps evaluating the first predicate and then the second one, probing the rows of the first one if
+     * that is cheaper than evaluating the second predicate on its own and intersecting.
+     */
+    private static List<QueryPlan.Step> order(QueryPlan.Predicate first, QueryPlan.AccessMethod firstMethod, double firstCost,
+                                              long firstRows, QueryPlan.Predicate second, QueryPlan.AccessMethod secondMethod,
+                                              double secondCost, long secondRows, long selectedRows) {
+        List<QueryPlan.Step> steps = new ArrayList<>();
+        steps.add(new QueryPlan.Step(first, firstMethod, firstRows, firstCost));
+        double probeCost = firstRows * RANDOM_ROW_COST;
+        double intersectCost = secondCost + (firstRows + secondRows) * POSITION_COST;
+        if (probeCost <= intersectCost) {
+            steps.add(new QueryPlan.Step(second, QueryPlan.AccessMethod.PROBE, selectedRows, probeCost));
+        } else {
+            steps.add(new QueryPlan.Step(second, secondMethod, selectedRows, intersectCost));
+        }
+        return steps;
+    }
+
+    private static double cost(List<QueryPlan.Step> steps) {
+        double cost = 0;
+        for (QueryPlan.Step step : steps) {
+            cost += step.getCost();
+        }
+        return cost;
+    }
+
+    /**
+     * @return cost of finding the rows from fromRow on within [yearStart, yearEnd] through the zone map: blocks
+     * outside the range are skipped, blocks inside it are taken whole and the others are scanned.
+     */
+    private static double zoneMapCost(int yearStart, int yearEnd, ZoneMap timestampZoneMap, int fromRow) {
+        double cost = 0;
+        for (int block=0; block<timestampZoneMap.getBlockCount(); block++) {
+            int blockEnd = timestampZoneMap.getBlockEnd(block);
+            if (blockEnd <= fromRow || !timestampZoneMap.mayContain(block, yearStart, yearEnd)) {
+                continue;
+            }
+            if (timestampZoneMap.containedIn(block, yearStart, yearEnd)) {
+                cost += SCAN_ROW_COST;
+            } else {
+                cost += (blockEnd - Math.max(timestampZoneMap.getBlockStart(block), fromRow)) * SCAN_ROW_COST;
+            }
+        }
+        return cost;
+    }
+
+    private static double log2(int value) {
+        return Math.log(Math.max(value, 1)) / Math.log(2);
+    }
+}
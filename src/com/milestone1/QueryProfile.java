@@ -0,0 +1,200 @@
+package com.milestone1;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Per-operator measurements of one query: wall time, rows in and out, bytes read from disk through the buffer pool
+ * and bytes allocated by the query thread. Every finished operator is committed as an OperatorEvent and added to
+ * QueryMetrics, explainAnalyze formats the whole query together with the plan chosen for it, if any.
+ *
+ * Bytes read are taken from the buffer pool counters, so concurrent disk queries are counted against each other.
+ */
+public class QueryProfile {
+    private static final com.sun.management.ThreadMXBean threadBean = getAllocationBean();
+
+    private final String query;
+    private final QueryResultCache.Source source;
+    private final long startTime = System.nanoTime();
+    private final ArrayList<OperatorStats> operators = new ArrayList<>();
+    private long elapsedNanos = -1;
+    private QueryPlan plan;
+
+    public QueryProfile(String query, QueryResultCache.Source source) {
+        this.query = query;
+        this.source = source;
+    }
+
+    /**
+     * Measurements of an operator that has finished.
+     */
+    public static class OperatorStats {
+        private final String name;
+        private final long wallNanos;
+        private final long rowsIn;
+        private final long rowsOut;
+        private final long bytesRead;
+        private final long allocatedBytes;
+
+        OperatorStats(String name, long wallNanos, long rowsIn, long rowsOut, long bytesRead, long allocatedBytes) {
+            this.name = name;
+            this.wallNanos = wallNanos;
+            this.rowsIn = rowsIn;
+            this.rowsOut = rowsOut;
+            this.bytesRead = bytesRead;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        public long getRowsIn() {
+            return rowsIn;
+        }
+
+        public long getRowsOut() {
+            return rowsOut;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * @return bytes allocated on the heap by the query thread, or -1 if the JVM does not measure allocations.
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+    }
+
+    /**
+     * Operator that is running, finished with end.
+     */
+    public class Operator {
+        private final String name;
+        private final OperatorEvent event = new OperatorEvent();
+        private final long startTime;
+        private final long startBytesRead;
+        private final long startAllocatedBytes;
+
+        private Operator(String name) {
+            this.name = name;
+            startBytesRead = BufferPool.getBytesRead();
+            startAllocatedBytes = getAllocatedBytes();
+            event.begin();
+            startTime = System.nanoTime();
+        }
+
+        public void end(long rowsIn, long rowsOut) {
+            long wallNanos = System.nanoTime() - startTime;
+            event.end();
+            long bytesRead = BufferPool.getBytesRead() - startBytesRead;
+            long allocatedBytes = startAllocatedBytes < 0 ? -1 : getAllocatedBytes() - startAllocatedBytes;
+            if (event.shouldCommit()) {
+                event.query = query;
+                event.source = source.name();
+                event.operator = name;
+                event.rowsIn = rowsIn;
+                event.rowsOut = rowsOut;
+                event.bytesRead = bytesRead;
+                event.allocatedBytes = allocatedBytes;
+                event.commit();
+            }
+            OperatorStats stats = new OperatorStats(name, wallNanos, rowsIn, rowsOut, bytesRead, allocatedBytes);
+            operators.add(stats);
+            QueryMetrics.recordOperator(source, stats);
+        }
+    }
+
+    /**
+     * Starts measuring an operator of this query. Operators run one after the other on the query thread.
+     */
+    public Operator start(String name) {
+        return new Operator(name);
+    }
+
+    /**
+     * Ends the query and records it in QueryMetrics.
+     */
+    public void finish() {
+        elapsedNanos = System.nanoTime() - startTime;
+        QueryMetrics.recordQuery(this);
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public QueryResultCache.Source getSource() {
+        return source;
+    }
+
+    /**
+     * @return wall time of the whole query, or -1 while it is running.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Attaches the plan the operators of this query execute.
+     */
+    public void setPlan(QueryPlan plan) {
+        this.plan = plan;
+    }
+
+    /**
+     * @return plan of the query, or null if it was answered without one, e.g. from the result cache.
+     */
+    public QueryPlan getPlan() {
+        return plan;
+    }
+
+    public List<OperatorStats> getOperators() {
+        return Collections.unmodifiableList(operators);
+    }
+
+    /**
+     * @return the plan followed by one line per operator in execution order with what it did, in the spirit of
+     * EXPLAIN ANALYZE.
+     */
+    public String explainAnalyze() {
+        StringBuilder builder = new StringBuilder();
+        if (plan != null) {
+            builder.append(plan);
+        }
+        builder.append(String.format("Query %s with data from %s: %.3f ms%n", query, source.name().toLowerCase(),
+                elapsedNanos / 1e6));
+        for (OperatorStats operator : operators) {
+            builder.append(String.format("  -> %-16s time=%.3f ms rows in=%d out=%d read=%d bytes allocated=%s%n",
+                    operator.name, operator.wallNanos / 1e6, operator.rowsIn, operator.rowsOut, operator.bytesRead,
+                    operator.allocatedBytes < 0 ? "n/a" : operator.allocatedBytes + " bytes"));
+        }
+        return builder.toString();
+    }
+
+    private static long getAllocatedBytes() {
+        return threadBean == null ? -1 : threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean getAllocationBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+        if (!allocationBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+        return allocationBean;
+    }
+}
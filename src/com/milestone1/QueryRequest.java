@@ -0,0 +1,46 @@
+package com.milestone1;
+
+import java.util.Objects;
+
+/**
+ * Year and station of a monthly min/max query, used to submit several queries as one batch.
+ */
+public class QueryRequest {
+    private final int year;
+    private final String station;
+
+    public QueryRequest(int year, String station) {
+        this.year = year;
+        this.station = station;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public String getStation() {
+        return station;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof QueryRequest)) {
+            return false;
+        }
+        QueryRequest other = (QueryRequest) o;
+        return year == other.year && station.equals(other.station);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(year, station);
+    }
+
+    @Override
+    public String toString() {
+        return "year: " + year + " at station: " + station;
+    }
+}
@@ -0,0 +1,188 @@
+package com.milestone1;
+
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded cache of query results with least recently used eviction.
+ *
+ * Entries are keyed by query kind, year, station and data source. Each source has a version that is bumped whenever
+ * its columns change (ColumnarMemory.loadIntoMemory for memory, IOManager.saveColumnsToDisk for disk), which drops
+ * the entries of that source only. A result computed against an older version is not stored, so a query racing with
+ * a reload cannot put a stale result back. Results are copied on the way in and out, callers may modify them freely.
+ */
+public class QueryResultCache {
+    public static final int DEFAULT_CAPACITY = 64;
+
+    public enum Kind {
+        MONTHLY_MIN_MAX
+    }
+
+    public enum Source {
+        MEMORY,
+        DISK
+    }
+
+    private static int capacity = DEFAULT_CAPACITY;
+    private static final long[] versions = new long[Source.values().length];
+    // access ordered, so the eldest entry is the least recently used one
+    private static final LinkedHashMap<CacheKey, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> entries =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<CacheKey, HashMap<String, HashMap<Month, ArrayList<RowEntry>>>> eldest) {
+                    if (size() > capacity) {
+                        evictionCount++;
+                        return true;
+                    }
+                    return false;
+                }
+            };
+    private static long hitCount;
+    private static long missCount;
+    private static long evictionCount;
+
+    /**
+     * @return copy of the cached result, or null if the query has not been cached for the current version of the source.
+     */
+    public static synchronized HashMap<String, HashMap<Month, ArrayList<RowEntry>>> get(Kind kind, int year, String station, Source source) {
+        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result = entries.get(new CacheKey(kind, year, station, source));
+        if (result == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return copy(result);
+    }
+
+    /**
+     * Stores a copy of the result unless the source has changed since version was read with getVersion.
+     */
+    public static synchronized void put(Kind kind, int year, String station, Source source, long version,
+                                        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result) {
+        if (version != versions[source.ordinal()] || capacity == 0) {
+            return;
+        }
+        entries.put(new CacheKey(kind, year, station, source), copy(result));
+    }
+
+    /**
+     * @return version of the source, to be read before a query starts reading its columns.
+     */
+    public static synchronized long getVersion(Source source) {
+        return versions[source.ordinal()];
+    }
+
+    /**
+     * Drops every result of the source and bumps its version, called when the columns of the source change.
+     */
+    public static synchronized void invalidate(Source source) {
+        versions[source.ordinal()]++;
+        Iterator<CacheKey> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().source == source) {
+                keys.remove();
+            }
+        }
+    }
+
+    public static synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Sets the maximum number of cached results, evicting the least recently used ones above it. 0 disables caching.
+     */
+    public static synchronized void setCapacity(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("Cache capacity must not be negative: " + maxEntries);
+        }
+        capacity = maxEntries;
+        Iterator<CacheKey> keys = entries.keySet().iterator();
+        while (entries.size() > capacity) {
+            keys.next();
+            keys.remove();
+            evictionCount++;
+        }
+    }
+
+    public static synchronized int getCapacity() {
+        return capacity;
+    }
+
+    public static synchronized int size() {
+        return entries.size();
+    }
+
+    public static synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public static synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public static synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public static synchronized void resetStats() {
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+    }
+
+    public static synchronized String getSummary() {
+        long lookups = hitCount + missCount;
+        return String.format("Result cache: %d/%d entries, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                entries.size(), capacity, hitCount, missCount, lookups == 0 ? 0.0 : hitCount * 100.0 / lookups, evictionCount);
+    }
+
+    private static HashMap<String, HashMap<Month, ArrayList<RowEntry>>> copy(HashMap<String, HashMap<Month, ArrayList<RowEntry>>> result) {
+        // RowEntry is immutable, so copying the maps and lists is enough
+        HashMap<String, HashMap<Month, ArrayList<RowEntry>>> copy = new HashMap<>();
+        for (Map.Entry<String, HashMap<Month, ArrayList<RowEntry>>> category : result.entrySet()) {
+            HashMap<Month, ArrayList<RowEntry>> months = new HashMap<>();
+            for (Map.Entry<Month, ArrayList<RowEntry>> month : category.getValue().entrySet()) {
+                months.put(month.getKey(), new ArrayList<>(month.getValue()));
+            }
+            copy.put(category.getKey(), months);
+        }
+        return copy;
+    }
+
+    private static class CacheKey {
+        private final Kind kind;
+        private final int year;
+        private final String station;
+        private final Source source;
+
+        CacheKey(Kind kind, int year, String station, Source source) {
+            this.kind = kind;
+            this.year = year;
+            this.station = station;
+            this.source = source;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return kind == other.kind && year == other.year && station.equals(other.station) && source == other.source;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, year, station, source);
+        }
+    }
+}
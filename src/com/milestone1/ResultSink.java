@@ -0,0 +1,51 @@
+package com.milestone1;
+
+import java.io.IOException;
+
+/**
+ * Destination of query result rows, the date, station, category and value of every monthly max and min.
+ * Rows are written one at a time as they are produced, so results can be streamed without holding them in full.
+ * Sinks buffer their output and have to be closed to flush it.
+ */
+public interface ResultSink extends AutoCloseable {
+
+    enum Format {
+        CSV(".csv"),
+        BINARY(".bin"),
+        COLUMNAR(".colres");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * @param epochDay days since 1970-01-01 of the row
+     */
+    void write(int epochDay, String station, String category, float value) throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Creates a new result file in the format, replacing any existing file.
+     * @param fileName name of the file without the extension of the format
+     */
+    static ResultSink open(String fileName, Format format) throws IOException {
+        String filePath = fileName + format.getExtension();
+        switch (format) {
+            case BINARY:
+                return new BinaryResultSink(filePath);
+            case COLUMNAR:
+                return new ColumnarResultSink(filePath);
+            default:
+                return new CsvResultSink(filePath, false);
+        }
+    }
+}
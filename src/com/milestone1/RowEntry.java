@@ -4,14 +4,23 @@ package com.milestone1;
  * Data object to store date and category values.
  */
 public class RowEntry {
-    private String date;
-    private Float value;
+    private final int epochDay;
+    private final String date;
+    private final Float value;
 
-    public RowEntry(String date, Float value) {
-        this.date = date;
+    /**
+     * @param epochDay days since 1970-01-01 of the row
+     */
+    public RowEntry(int epochDay, Float value) {
+        this.epochDay = epochDay;
+        this.date = Parser.epochMinuteToDateString(epochDay * Parser.MINUTES_PER_DAY);
         this.value = value;
     }
 
+    public int getEpochDay() {
+        return epochDay;
+    }
+
     public String getDate() {
         return date;
     }
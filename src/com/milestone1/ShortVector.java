@@ -0,0 +1,43 @@
+package com.milestone1;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive shorts used to build columns without boxing.
+ */
+public class ShortVector {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private short[] values;
+    private int size;
+
+    public ShortVector() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ShortVector(int initialCapacity) {
+        values = new short[Math.max(initialCapacity, 1)];
+    }
+
+    public void add(short value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    public short get(int index) {
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return copy of the values trimmed to the number of elements added.
+     */
+    public short[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
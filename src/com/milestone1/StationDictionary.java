@@ -0,0 +1,83 @@
+package com.milestone1;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Dictionary encoding for the station column. Each distinct station name is stored once and rows refer to it by code.
+ * A dictionary is not modified once its columns are shared with readers, new stations are encoded into a copy.
+ */
+public class StationDictionary {
+    public static final short NOT_FOUND = -1;
+    public static final String EXTENSION = ".dict";
+
+    private final ArrayList<String> names = new ArrayList<>();
+    private final HashMap<String, Short> codes = new HashMap<>();
+
+    /**
+     * Returns the code of the station, adding it to the dictionary if it has not been seen before.
+     */
+    public short encode(String station) {
+        Short code = codes.get(station);
+        if (code == null) {
+            if (names.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many distinct stations for short dictionary codes");
+            }
+            code = (short) names.size();
+            names.add(station);
+            codes.put(station, code);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code of the station without modifying the dictionary, or NOT_FOUND if it is not present.
+     */
+    public short lookup(String station) {
+        Short code = codes.get(station);
+        return code == null ? NOT_FOUND : code;
+    }
+
+    /**
+     * @return dictionary with the same codes, to which new stations can be added without affecting this one.
+     */
+    public StationDictionary copy() {
+        StationDictionary copy = new StationDictionary();
+        copy.names.addAll(names);
+        copy.codes.putAll(codes);
+        return copy;
+    }
+
+    public String decode(short code) {
+        return names.get(code);
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Stores the dictionary next to the dictionary encoded column file, codes are implied by the order of the names.
+     * @param fileName name of the column without extension
+     */
+    public void save(String fileName) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName + EXTENSION)))) {
+            out.writeInt(names.size());
+            for (String name : names) {
+                out.writeUTF(name);
+            }
+        }
+    }
+
+    public static StationDictionary load(String fileName) throws IOException {
+        StationDictionary dictionary = new StationDictionary();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName + EXTENSION)))) {
+            int size = in.readInt();
+            for (int i=0; i<size; i++) {
+                dictionary.encode(in.readUTF());
+            }
+        }
+        return dictionary;
+    }
+}
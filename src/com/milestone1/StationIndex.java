@@ -0,0 +1,149 @@
+package com.milestone1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Inverted index of the station column: the positions of the rows of every station as a compressed PositionSet,
+ * so the rows of one station are found without reading the station column.
+ *
+ * The index covers the first getRowCount() rows of the column. Rows appended after it was built are not in it and
+ * have to be scanned, see QueryManager.filterStationPos.
+ *
+ * File layout: format version, row count and station count, the byte length of the positions of every station in
+ * code order, then the positions of every station, see PositionSet.write. A single station is read by skipping the
+ * positions of the stations before it.
+ */
+public class StationIndex {
+    public static final String EXTENSION = ".index";
+    private static final int FORMAT_VERSION = 1;
+
+    // positions of each station by dictionary code, null if the station is not loaded
+    private final PositionSet[] positions;
+    private final int rowCount;
+
+    private StationIndex(PositionSet[] positions, int rowCount) {
+        this.positions = positions;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Indexes the first rowCount rows of the station column.
+     * @param stationCount number of codes in the station dictionary
+     */
+    public static StationIndex build(ShortBuffer stationCol, int stationCount, int rowCount) {
+        PositionSet[] positions = new PositionSet[stationCount];
+        for (int code=0; code<stationCount; code++) {
+            positions[code] = new PositionSet();
+        }
+        // rows are visited in order, so every set takes the fast path of ascending adds
+        for (int i=0; i<rowCount; i++) {
+            positions[stationCol.get(i)].add(i);
+        }
+        return new StationIndex(positions, rowCount);
+    }
+
+    /**
+     * @return number of rows covered by the index.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @param stationCode dictionary code of the station, StationDictionary.NOT_FOUND has no rows
+     * @return copy of the positions of the station among the indexed rows, which the caller may modify
+     */
+    public PositionSet getPositions(short stationCode) {
+        if (stationCode < 0 || stationCode >= positions.length || positions[stationCode] == null) {
+            return new PositionSet();
+        }
+        return positions[stationCode].copy();
+    }
+
+    public void save(String fileName) throws IOException {
+        ByteArrayOutputStream[] encoded = new ByteArrayOutputStream[positions.length];
+        for (int code=0; code<positions.length; code++) {
+            encoded[code] = new ByteArrayOutputStream();
+            positions[code].write(new DataOutputStream(encoded[code]));
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName + EXTENSION)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(rowCount);
+            out.writeInt(positions.length);
+            for (ByteArrayOutputStream station : encoded) {
+                out.writeInt(station.size());
+            }
+            for (ByteArrayOutputStream station : encoded) {
+                station.writeTo(out);
+            }
+        }
+    }
+
+    public static StationIndex load(String fileName) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName + EXTENSION)))) {
+            int rowCount = readHeader(in, fileName);
+            PositionSet[] positions = new PositionSet[in.readInt()];
+            for (int code=0; code<positions.length; code++) {
+                in.readInt();
+            }
+            for (int code=0; code<positions.length; code++) {
+                positions[code] = PositionSet.read(in);
+            }
+            return new StationIndex(positions, rowCount);
+        }
+    }
+
+    /**
+     * Reads the positions of one station only, the positions of the other stations are skipped.
+     * @return index holding only the positions of the station
+     */
+    public static StationIndex load(String fileName, short stationCode) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName + EXTENSION), StandardOpenOption.READ)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            int rowCount = readHeader(in, fileName);
+            PositionSet[] positions = new PositionSet[in.readInt()];
+            if (stationCode < 0 || stationCode >= positions.length) {
+                return new StationIndex(positions, rowCount);
+            }
+            long offset = 3 * Integer.BYTES + (long) positions.length * Integer.BYTES;
+            for (int code=0; code<positions.length; code++) {
+                int length = in.readInt();
+                if (code < stationCode) {
+                    offset += length;
+                }
+            }
+            channel.position(offset);
+            positions[stationCode] = PositionSet.read(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel))));
+            return new StationIndex(positions, rowCount);
+        }
+    }
+
+    /**
+     * @return number of rows covered by the index in the file, read from its header only.
+     */
+    public static int loadRowCount(String fileName) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(fileName + EXTENSION))) {
+            return readHeader(in, fileName);
+        }
+    }
+
+    private static int readHeader(DataInputStream in, String fileName) throws IOException {
+        int formatVersion = in.readInt();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException(fileName + EXTENSION + " has unsupported version " + formatVersion);
+        }
+        return in.readInt();
+    }
+}
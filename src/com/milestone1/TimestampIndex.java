@@ -0,0 +1,131 @@
+package com.milestone1;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Sorted index of the timestamp column: the timestamps of the rows in ascending order, ties in row order, together
+ * with the position of each row. The rows of a year or any other range of epoch minutes are found with two binary
+ * searches and read as one contiguous slice, however the rows are ordered in the column.
+ *
+ * The index covers the first getRowCount() rows of the column. Rows appended after it was built are not in it and
+ * have to be scanned, see QueryManager.filterYearPos.
+ *
+ * The sorted timestamps and the row positions are stored as two int column files, so on disk a range is looked up
+ * through the buffer pool, reading only the pages on the search path and the pages of the matching slice.
+ */
+public class TimestampIndex {
+    public static final String KEY_FILE_NAME = "timestamp_sorted";
+    public static final String ROW_FILE_NAME = "timestamp_sorted_rows";
+
+    private final IntBuffer keys;
+    private final IntBuffer rows;
+    private final int rowCount;
+
+    private TimestampIndex(IntBuffer keys, IntBuffer rows, int rowCount) {
+        this.keys = keys;
+        this.rows = rows;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Indexes the first rowCount rows of the timestamp column.
+     */
+    public static TimestampIndex build(IntBuffer timestampCol, int rowCount) {
+        // timestamp in the high and row in the low half, so sorting the longs orders by timestamp and then row
+        long[] entries = new long[rowCount];
+        for (int i=0; i<rowCount; i++) {
+            entries[i] = (long) timestampCol.get(i) << 32 | i;
+        }
+        Arrays.sort(entries);
+        int[] keys = new int[rowCount];
+        int[] rows = new int[rowCount];
+        for (int i=0; i<rowCount; i++) {
+            keys[i] = (int) (entries[i] >> 32);
+            rows[i] = (int) entries[i];
+        }
+        return new TimestampIndex(IntBuffer.wrap(keys), IntBuffer.wrap(rows), rowCount);
+    }
+
+    /**
+     * @return number of rows covered by the index.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return positions of the indexed rows with timestamps within [low, high].
+     */
+    public PositionSet lookup(int low, int high) {
+        return lookup(keys::get, rows::get, rowCount, low, high);
+    }
+
+    /**
+     * Disk version of lookup on the index files opened from KEY_FILE_NAME and ROW_FILE_NAME.
+     */
+    public static PositionSet lookup(ColumnFile keyFile, ColumnFile rowFile, int low, int high) {
+        return lookup(keyFile::getInt, rowFile::getInt, Math.min(keyFile.getRowCount(), rowFile.getRowCount()), low, high);
+    }
+
+    /**
+     * Saves the index files into the column version.
+     */
+    public void save(ColumnVersion columnVersion) throws IOException {
+        ColumnFile.writeInts(columnVersion.getFileName(KEY_FILE_NAME), keys, rowCount);
+        ColumnFile.writeInts(columnVersion.getFileName(ROW_FILE_NAME), rows, rowCount);
+    }
+
+    /**
+     * Reads the index files of the column version onto the heap. They are not mapped, since they are rewritten
+     * whenever the index is rebuilt.
+     */
+    public static TimestampIndex load(ColumnVersion columnVersion) throws IOException {
+        String keyFileName = columnVersion.getFileName(KEY_FILE_NAME);
+        String rowFileName = columnVersion.getFileName(ROW_FILE_NAME);
+        IntBuffer keys = copyToHeap(ColumnFile.mapValues(keyFileName, ColumnFile.TYPE_INT32).asIntBuffer());
+        IntBuffer rows = copyToHeap(ColumnFile.mapValues(rowFileName, ColumnFile.TYPE_INT32).asIntBuffer());
+        if (keys.capacity() != rows.capacity()) {
+            throw new IOException(keyFileName + ColumnFile.EXTENSION + " and " + rowFileName + ColumnFile.EXTENSION
+                    + " have different row counts");
+        }
+        return new TimestampIndex(keys, rows, keys.capacity());
+    }
+
+    private static PositionSet lookup(IntUnaryOperator keys, IntUnaryOperator rows, int rowCount, int low, int high) {
+        int from = lowerBound(keys, rowCount, low);
+        int to = high == Integer.MAX_VALUE ? rowCount : lowerBound(keys, rowCount, high + 1);
+        int[] positions = new int[Math.max(to - from, 0)];
+        for (int i=0; i<positions.length; i++) {
+            positions[i] = rows.applyAsInt(from + i);
+        }
+        // rows of a range are in timestamp order, which is row order already when the column is sorted by time
+        Arrays.sort(positions);
+        return PositionSet.of(positions);
+    }
+
+    /**
+     * @return index of the first key not less than the key, or rowCount if there is none.
+     */
+    private static int lowerBound(IntUnaryOperator keys, int rowCount, int key) {
+        int low = 0;
+        int high = rowCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys.applyAsInt(middle) < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static IntBuffer copyToHeap(IntBuffer values) {
+        IntBuffer copy = IntBuffer.allocate(values.capacity());
+        copy.duplicate().put(values.duplicate());
+        return copy;
+    }
+}
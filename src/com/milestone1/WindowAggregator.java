@@ -0,0 +1,138 @@
+package com.milestone1;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Min and max of a metric over time windows, at any granularity: hourly, daily or weekly tumbling windows, or
+ * sliding windows such as every 24 hours starting every hour.
+ *
+ * Windows are [start, start + size) in epoch minutes, starting at offset + n * slide. Tumbling windows have
+ * slide == size, sliding windows overlap with slide < size. Rows are taken in timestamp order in a single pass: each
+ * row enters the window that first holds it and leaves the window after the last, and the min and max are kept in
+ * monotonic deques, so each row is pushed and popped at most once per deque whatever the overlap of the windows.
+ */
+public class WindowAggregator {
+    public static final int MINUTES_PER_HOUR = 60;
+    public static final int MINUTES_PER_WEEK = 7 * Parser.MINUTES_PER_DAY;
+    // epoch day 0 is a Thursday, so weeks starting on Monday are offset by four days
+    public static final int MONDAY_WEEK_OFFSET = 4 * Parser.MINUTES_PER_DAY;
+
+    /**
+     * Aggregates of the rows of one window.
+     */
+    public static class Window {
+        private final int start;
+        private final int size;
+        private final float min;
+        private final float max;
+        private final int count;
+
+        Window(int start, int size, float min, float max, int count) {
+            this.start = start;
+            this.size = size;
+            this.min = min;
+            this.max = max;
+            this.count = count;
+        }
+
+        /**
+         * @return first epoch minute of the window.
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * @return epoch minute after the window.
+         */
+        public int getEnd() {
+            return start + size;
+        }
+
+        public float getMin() {
+            return min;
+        }
+
+        public float getMax() {
+            return max;
+        }
+
+        /**
+         * @return number of rows in the window.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return Parser.epochMinuteToTimestampString(start) + " min=" + min + " max=" + max + " rows=" + count;
+        }
+    }
+
+    /**
+     * Aggregates rows in timestamp order over the windows, leaving out windows without rows.
+     * @param timestamps epoch minutes in ascending order
+     * @param values metric value of each row, without missing values
+     * @param count number of rows
+     * @param size length of a window in minutes
+     * @param slide minutes between the starts of consecutive windows, at most size
+     * @param offset start of a window in epoch minutes, e.g. MONDAY_WEEK_OFFSET for weeks starting on Monday
+     * @return windows with rows in order of their start
+     */
+    public static List<Window> aggregate(int[] timestamps, float[] values, int count, int size, int slide, int offset) {
+        if (size <= 0 || slide <= 0 || slide > size) {
+            throw new IllegalArgumentException("Window size " + size + " and slide " + slide + " must be positive with slide <= size");
+        }
+        List<Window> windows = new ArrayList<>();
+        // positions of rows in the window whose values are decreasing (maxDeque) or increasing (minDeque), so the
+        // front holds the max or min and rows behind a larger or smaller value can never be the max or min again
+        int[] maxDeque = new int[count];
+        int[] minDeque = new int[count];
+        int maxFront = 0;
+        int maxBack = 0;
+        int minFront = 0;
+        int minBack = 0;
+        int next = 0;
+        int first = 0;
+        long start = count == 0 ? 0 : firstStart(timestamps[0], size, slide, offset);
+        while (first < count) {
+            long end = start + size;
+            for (; next < count && timestamps[next] < end; next++) {
+                while (maxBack > maxFront && values[maxDeque[maxBack - 1]] <= values[next]) {
+                    maxBack--;
+                }
+                maxDeque[maxBack++] = next;
+                while (minBack > minFront && values[minDeque[minBack - 1]] >= values[next]) {
+                    minBack--;
+                }
+                minDeque[minBack++] = next;
+            }
+            for (; first < next && timestamps[first] < start; first++) {
+                if (maxDeque[maxFront] == first) {
+                    maxFront++;
+                }
+                if (minDeque[minFront] == first) {
+                    minFront++;
+                }
+            }
+            if (first < next) {
+                windows.add(new Window((int) start, size, values[minDeque[minFront]], values[maxDeque[maxFront]], next - first));
+                start += slide;
+            } else if (next < count) {
+                // no rows left in the window, so the empty windows up to the next row are skipped
+                start = Math.max(start + slide, firstStart(timestamps[next], size, slide, offset));
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * @return start of the first window holding the timestamp.
+     */
+    private static long firstStart(int timestamp, int size, int slide, int offset) {
+        long earliest = (long) timestamp - size + 1;
+        return offset + Math.floorDiv(earliest - offset + slide - 1, slide) * (long) slide;
+    }
+}
@@ -0,0 +1,179 @@
+package com.milestone1;
+
+import java.io.*;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Min/max statistics for fixed-size blocks of rows in a column, used to skip blocks that cannot satisfy a range predicate.
+ * Missing values (Float.MAX_VALUE and Parser.INVALID_TIMESTAMP) are left out of the statistics.
+ */
+public class ZoneMap {
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    public static final String EXTENSION = ".zone";
+
+    private final int blockSize;
+    private final int rowCount;
+    private final double[] blockMin;
+    private final double[] blockMax;
+    // number of non-missing values in each block
+    private final int[] blockValueCount;
+
+    private ZoneMap(int blockSize, int rowCount, double[] blockMin, double[] blockMax, int[] blockValueCount) {
+        this.blockSize = blockSize;
+        this.rowCount = rowCount;
+        this.blockMin = blockMin;
+        this.blockMax = blockMax;
+        this.blockValueCount = blockValueCount;
+    }
+
+    public static ZoneMap build(IntBuffer values, int rowCount) {
+        ZoneMap zoneMap = emptyBlocks(DEFAULT_BLOCK_SIZE, rowCount);
+        for (int i=0; i<rowCount; i++) {
+            int value = values.get(i);
+            if (value != Parser.INVALID_TIMESTAMP) {
+                zoneMap.include(i / zoneMap.blockSize, value);
+            }
+        }
+        return zoneMap;
+    }
+
+    public static ZoneMap build(FloatBuffer values, int rowCount) {
+        ZoneMap zoneMap = emptyBlocks(DEFAULT_BLOCK_SIZE, rowCount);
+        for (int i=0; i<rowCount; i++) {
+            float value = values.get(i);
+            if (value != Float.MAX_VALUE) {
+                zoneMap.include(i / zoneMap.blockSize, value);
+            }
+        }
+        return zoneMap;
+    }
+
+    /**
+     * @return zone map of the column after the rows from getRowCount() up to newRowCount were appended to values.
+     * Only the blocks receiving new rows are updated, this zone map is left unchanged.
+     */
+    public ZoneMap extend(IntBuffer values, int newRowCount) {
+        ZoneMap zoneMap = grow(newRowCount);
+        for (int i=rowCount; i<newRowCount; i++) {
+            int value = values.get(i);
+            if (value != Parser.INVALID_TIMESTAMP) {
+                zoneMap.include(i / blockSize, value);
+            }
+        }
+        return zoneMap;
+    }
+
+    public ZoneMap extend(FloatBuffer values, int newRowCount) {
+        ZoneMap zoneMap = grow(newRowCount);
+        for (int i=rowCount; i<newRowCount; i++) {
+            float value = values.get(i);
+            if (value != Float.MAX_VALUE) {
+                zoneMap.include(i / blockSize, value);
+            }
+        }
+        return zoneMap;
+    }
+
+    /**
+     * @return zone map with a single block that may contain any value, used when no statistics are available.
+     */
+    public static ZoneMap unbounded(int rowCount) {
+        return new ZoneMap(Math.max(rowCount, 1), rowCount, new double[] {Double.NEGATIVE_INFINITY},
+                new double[] {Double.POSITIVE_INFINITY}, new int[1]);
+    }
+
+    /**
+     * @return false if no value in the block lies within [low, high], true if some value might.
+     */
+    public boolean mayContain(int block, double low, double high) {
+        return blockMax[block] >= low && blockMin[block] <= high;
+    }
+
+    /**
+     * @return true if every value in the block lies within [low, high], so the rows need not be checked one by one.
+     * Blocks with missing values are never fully contained.
+     */
+    public boolean containedIn(int block, double low, double high) {
+        return blockValueCount[block] == getBlockRowCount(block) && blockMin[block] >= low && blockMax[block] <= high;
+    }
+
+    public int getBlockCount() {
+        return blockMin.length;
+    }
+
+    public int getBlockStart(int block) {
+        return block * blockSize;
+    }
+
+    public int getBlockEnd(int block) {
+        return Math.min(rowCount, (block + 1) * blockSize);
+    }
+
+    public int getBlockRowCount(int block) {
+        return getBlockEnd(block) - getBlockStart(block);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public void save(String fileName) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName + EXTENSION)))) {
+            out.writeInt(blockSize);
+            out.writeInt(rowCount);
+            out.writeInt(blockMin.length);
+            for (int block=0; block<blockMin.length; block++) {
+                out.writeDouble(blockMin[block]);
+                out.writeDouble(blockMax[block]);
+                out.writeInt(blockValueCount[block]);
+            }
+        }
+    }
+
+    public static ZoneMap load(String fileName) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName + EXTENSION)))) {
+            int blockSize = in.readInt();
+            int rowCount = in.readInt();
+            int blockCount = in.readInt();
+            double[] blockMin = new double[blockCount];
+            double[] blockMax = new double[blockCount];
+            int[] blockValueCount = new int[blockCount];
+            for (int block=0; block<blockCount; block++) {
+                blockMin[block] = in.readDouble();
+                blockMax[block] = in.readDouble();
+                blockValueCount[block] = in.readInt();
+            }
+            return new ZoneMap(blockSize, rowCount, blockMin, blockMax, blockValueCount);
+        }
+    }
+
+    private ZoneMap grow(int newRowCount) {
+        int blockCount = Math.max(blockMin.length, (newRowCount + blockSize - 1) / blockSize);
+        double[] newBlockMin = Arrays.copyOf(blockMin, blockCount);
+        double[] newBlockMax = Arrays.copyOf(blockMax, blockCount);
+        Arrays.fill(newBlockMin, blockMin.length, blockCount, Double.POSITIVE_INFINITY);
+        Arrays.fill(newBlockMax, blockMax.length, blockCount, Double.NEGATIVE_INFINITY);
+        return new ZoneMap(blockSize, newRowCount, newBlockMin, newBlockMax, Arrays.copyOf(blockValueCount, blockCount));
+    }
+
+    private static ZoneMap emptyBlocks(int blockSize, int rowCount) {
+        int blockCount = (rowCount + blockSize - 1) / blockSize;
+        double[] blockMin = new double[blockCount];
+        double[] blockMax = new double[blockCount];
+        Arrays.fill(blockMin, Double.POSITIVE_INFINITY);
+        Arrays.fill(blockMax, Double.NEGATIVE_INFINITY);
+        return new ZoneMap(blockSize, rowCount, blockMin, blockMax, new int[blockCount]);
+    }
+
+    private void include(int block, double value) {
+        blockValueCount[block]++;
+        if (value < blockMin[block]) {
+            blockMin[block] = value;
+        }
+        if (value > blockMax[block]) {
+            blockMax[block] = value;
+        }
+    }
+}